@@ -0,0 +1,81 @@
+import benchmarks.CompressionPipeline;
+import filters.ReconstructionFilter;
+import tools.DecodedImageCache;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.SummedAreaTable;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The `PipelineBridge` class exposes the default-package `Compressor` and `Decompressor` to the benchmarks,
+ * which JMH requires to live in a named package. It only forwards every call.
+ *
+ * @author Pepe Salcedo
+ */
+public class PipelineBridge implements CompressionPipeline {
+    private final Compressor compressor;
+    private final Decompressor decompressor;
+
+    /**
+     * Creates a bridge whose compressor and decompressor report to a silent console.
+     */
+    public PipelineBridge() {
+        IOConsole silent = new IOConsole() {
+            @Override
+            public void showInfo(String info) {
+            }
+        };
+        FileHandler fileHandler = FileHandler.getInstance(silent);
+        fileHandler.setInteractive(false);
+
+        this.compressor = Compressor.getInstance(silent, fileHandler);
+        this.decompressor = Decompressor.getInstance(silent, fileHandler);
+    }
+
+    @Override
+    public boolean compressImage(int compressionFactor, String path, String outputFileName) {
+        return compressor.compressImage(compressionFactor, path, outputFileName);
+    }
+
+    @Override
+    public boolean compressImageStreaming(int compressionFactor, String path, String outputFileName) {
+        return compressor.compressImageStreaming(compressionFactor, path, outputFileName);
+    }
+
+    @Override
+    public boolean decompressImage(String compressedFilePath, String outputName) {
+        return decompressor.decompressImage(compressedFilePath, outputName);
+    }
+
+    @Override
+    public boolean decompressImagePipelined(String compressedFilePath, String outputName, ReconstructionFilter filter,
+                                            int workers) {
+        return decompressor.decompressImagePipelined(compressedFilePath, outputName, filter, workers);
+    }
+
+    @Override
+    public void setCache(DecodedImageCache cache) {
+        decompressor.setCache(cache);
+    }
+
+    @Override
+    public byte[] generateBlockData(BufferedImage image, int compressionFactor) {
+        return Compressor.generateBlockData(image, compressionFactor);
+    }
+
+    @Override
+    public SummedAreaTable buildSummedAreaTable(BufferedImage image, boolean withSquares) {
+        return Compressor.buildSummedAreaTable(image, withSquares);
+    }
+
+    @Override
+    public void readBand(BufferedImage image, int y, int bandRows, int[] band) {
+        Compressor.readBand(image, y, bandRows, band);
+    }
+
+    @Override
+    public int calculateRegionColorAverage(int x, int bandRows, int cols, int[] band, int compressionFactor) {
+        return Compressor.calculateRegionColorAverage(x, bandRows, cols, band, compressionFactor);
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import tools.BmpCodec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * The `BenchmarkImages` class resolves the `size` parameter of the benchmarks into a BMP file: `test1` is
+ * `test1.bmp` from the directory in the `benchmark.images` property (`src/images` by default), and a number is
+ * a synthetic image of that many megapixels with smooth gradients and noise.
+ * Synthetic images are written once to the temporary directory and reused by every later fork.
+ *
+ * @author Pepe Salcedo
+ */
+public final class BenchmarkImages {
+    public static final String SAMPLE = "test1";
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * @param size `test1` or a number of megapixels.
+     * @return The path to the BMP file.
+     * @throws IOException If the synthetic image cannot be written.
+     */
+    public static Path resolve(String size) throws IOException {
+        if (size.equals(SAMPLE)) {
+            return Path.of(System.getProperty("benchmark.images", "src/images"), SAMPLE + ".bmp");
+        }
+
+        int megapixels = Integer.parseInt(size);
+        Path path = Path.of(System.getProperty("java.io.tmpdir"), "pepressed-synthetic-" + megapixels + "mp.bmp");
+        if (!Files.exists(path)) {
+            Path partial = Files.createTempFile(path.getParent(), "pepressed-synthetic", ".part");
+            BmpCodec.write(partial, createSynthetic(megapixels));
+            Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return path;
+    }
+
+    /**
+     * Creates a 4:3 image of roughly the given size with smooth gradients and noise.
+     *
+     * @param megapixels The number of megapixels of the image.
+     * @return The image.
+     */
+    private static BufferedImage createSynthetic(int megapixels) {
+        int width = (int) Math.sqrt(megapixels * 1_000_000.0 * 4 / 3);
+        int height = width * 3 / 4;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(megapixels);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(16);
+                int red = (x * 255 / width + noise) & 0xFF;
+                int green = (y * 255 / height + noise) & 0xFF;
+                int blue = ((x + y) * 127 / (width + height) + noise) & 0xFF;
+                pixels[y * width + x] = (red << 16) | (green << 8) | blue;
+            }
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,121 @@
+package benchmarks;
+
+import filters.ReconstructionFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.DecodedImageCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The `CompressionBenchmark` class measures whole compressions and decompressions, from the BMP on disk to the
+ * file written, for every image size and compression factor. Run it under `-prof gc` (the default of the
+ * Gradle `jmh` task) to get the bytes allocated and the collections per operation next to the times.
+ *
+ * @author Pepe Salcedo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"test1", "4", "25", "100"})
+    public String size;
+
+    @Param({"2", "4", "8"})
+    public int factor;
+
+    private final CompressionPipeline pipeline = CompressionPipeline.load();
+    private Path workDirectory;
+    private String image;
+    private String compressed;
+    // streaming writes the legacy layout, which cannot be decoded when the width is not a multiple of the factor
+    private String streamed;
+    private String decompressed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("pepressed-bench");
+        image = BenchmarkImages.resolve(size).toString();
+        compressed = workDirectory.resolve("bench.bin").toString();
+        streamed = workDirectory.resolve("bench-stream.bin").toString();
+        decompressed = workDirectory.resolve("bench-out").toString();
+        check(pipeline.compressImage(factor, image, compressed));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipeline.setCache(null);
+        try (Stream<Path> files = Files.walk(workDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean compressImage() {
+        return check(pipeline.compressImage(factor, image, compressed));
+    }
+
+    @Benchmark
+    public boolean compressImageStreaming() {
+        return check(pipeline.compressImageStreaming(factor, image, streamed));
+    }
+
+    @Benchmark
+    public boolean decompressImage() {
+        return check(pipeline.decompressImage(compressed, decompressed));
+    }
+
+    @Benchmark
+    public boolean decompressImagePipelined() {
+        return check(pipeline.decompressImagePipelined(compressed, decompressed, ReconstructionFilter.forName("bilinear"),
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Benchmark
+    public boolean decompressImageCached(Cached cached) {
+        return check(pipeline.decompressImage(compressed, decompressed));
+    }
+
+    /**
+     * Installs a decoded image cache large enough to hold every image, on or off the heap, for the cached
+     * decompression benchmark only.
+     */
+    @State(Scope.Benchmark)
+    public static class Cached {
+        @Param({"heap", "offHeap"})
+        public String storage;
+
+        @Setup(Level.Trial)
+        public void setUp(CompressionBenchmark benchmark) {
+            benchmark.pipeline.setCache(new DecodedImageCache(Long.MAX_VALUE, storage.equals("offHeap")));
+        }
+    }
+
+    private static boolean check(boolean succeeded) {
+        if (!succeeded) {
+            throw new IllegalStateException("Benchmarked operation failed");
+        }
+        return true;
+    }
+}
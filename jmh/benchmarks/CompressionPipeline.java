@@ -0,0 +1,46 @@
+package benchmarks;
+
+import filters.ReconstructionFilter;
+import tools.DecodedImageCache;
+import tools.SummedAreaTable;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The stages of `Compressor` and `Decompressor` that the benchmarks measure.
+ * Both classes live in the default package, which JMH does not accept for benchmarks and which no named
+ * package can import, so `PipelineBridge` implements this interface next to them and hands it over.
+ *
+ * @author Pepe Salcedo
+ */
+public interface CompressionPipeline {
+
+    /**
+     * @return The bridge to the default package, whose compressor and decompressor report to a silent console.
+     */
+    static CompressionPipeline load() {
+        try {
+            return (CompressionPipeline) Class.forName("PipelineBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The pipeline bridge is missing from the benchmark classpath", e);
+        }
+    }
+
+    boolean compressImage(int compressionFactor, String path, String outputFileName);
+
+    boolean compressImageStreaming(int compressionFactor, String path, String outputFileName);
+
+    boolean decompressImage(String compressedFilePath, String outputName);
+
+    boolean decompressImagePipelined(String compressedFilePath, String outputName, ReconstructionFilter filter, int workers);
+
+    void setCache(DecodedImageCache cache);
+
+    byte[] generateBlockData(BufferedImage image, int compressionFactor);
+
+    SummedAreaTable buildSummedAreaTable(BufferedImage image, boolean withSquares);
+
+    void readBand(BufferedImage image, int y, int bandRows, int[] band);
+
+    int calculateRegionColorAverage(int x, int bandRows, int cols, int[] band, int compressionFactor);
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.BmpCodec;
+import tools.FileHandler;
+import tools.IOConsole;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `ImageIOBenchmark` class compares reading and writing BMP files with `BmpCodec`, `ImageIO` and the
+ * `FileHandler` that picks between them, for every image size.
+ *
+ * @author Pepe Salcedo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageIOBenchmark {
+    @Param({"test1", "4", "25", "100"})
+    public String size;
+
+    private FileHandler fileHandler;
+    private Path image;
+    private Path written;
+    private String rendered;
+    private BufferedImage source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileHandler = FileHandler.getInstance(new IOConsole() {
+            @Override
+            public void showInfo(String info) {
+            }
+        });
+        fileHandler.setInteractive(false);
+        image = BenchmarkImages.resolve(size);
+        written = Files.createTempFile("pepressed-bench", ".bmp");
+        rendered = written.toString().replaceFirst("\\.bmp$", "-rendered");
+        source = BmpCodec.read(image);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(written);
+        Files.deleteIfExists(Path.of(rendered + ".bmp"));
+    }
+
+    @Benchmark
+    public BufferedImage getBufferedImage() {
+        return fileHandler.getBufferedImage(image.toString());
+    }
+
+    @Benchmark
+    public BufferedImage imageIORead() throws IOException {
+        return ImageIO.read(image.toFile());
+    }
+
+    @Benchmark
+    public BufferedImage bmpCodecRead() throws IOException {
+        return BmpCodec.read(image);
+    }
+
+    @Benchmark
+    public boolean imageIOWrite() throws IOException {
+        return ImageIO.write(source, "bmp", written.toFile());
+    }
+
+    @Benchmark
+    public void bmpCodecWrite() throws IOException {
+        BmpCodec.write(written, source);
+    }
+
+    @Benchmark
+    public void renderBufferedImage() throws IOException {
+        fileHandler.renderBufferedImage(rendered, "bmp", source);
+    }
+}
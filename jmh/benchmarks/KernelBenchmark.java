@@ -0,0 +1,111 @@
+package benchmarks;
+
+import filters.ReconstructionFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.BilinearKernel;
+import tools.BmpCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `KernelBenchmark` class measures the inner loops of both directions on their own: averaging one band of
+ * the image into blocks, and rebuilding pixels from a random block grid of the same size with the bilinear
+ * kernel and every reconstruction filter.
+ *
+ * @author Pepe Salcedo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+    @Param({"test1", "4", "25", "100"})
+    public String size;
+
+    @Param({"2", "4", "8"})
+    public int factor;
+
+    private final CompressionPipeline pipeline = CompressionPipeline.load();
+    private int cols;
+    private int[] band;
+    private int blockCols;
+    private int blockRows;
+    private int[] blocks;
+    private int width;
+    private int[] output;
+    private BilinearKernel kernel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BufferedImage source = BmpCodec.read(BenchmarkImages.resolve(size));
+        cols = source.getWidth();
+        band = new int[factor * cols];
+        pipeline.readBand(source, 0, Math.min(factor, source.getHeight()), band);
+
+        blockCols = Math.max(2, cols / factor);
+        blockRows = Math.max(2, source.getHeight() / factor);
+        blocks = new Random(1).ints(blockCols * blockRows, 0, 1 << 24).toArray();
+        width = (blockCols - 1) * factor;
+        output = new int[width * (blockRows - 1) * factor];
+        kernel = new BilinearKernel(factor);
+    }
+
+    @Benchmark
+    public int calculateRegionColorAverage() {
+        int checksum = 0;
+        for (int x = 0; x < cols; x += factor) {
+            checksum += pipeline.calculateRegionColorAverage(x, factor, cols, band, factor);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public int[] bilinearInterpolation() {
+        for (int y = 0; y < blockRows - 1; y++) {
+            for (int x = 0; x < blockCols - 1; x++) {
+                int index = y * blockCols + x;
+                kernel.fillCell(blocks[index], blocks[index + blockCols], blocks[index + 1],
+                        blocks[index + blockCols + 1], output, y * factor * width + x * factor, width);
+            }
+        }
+        return output;
+    }
+
+    @Benchmark
+    public int[] reconstruct(Filter filter) {
+        filter.filter.reconstruct(blocks, blockCols, blockRows, factor, output, width, 0, 0, blockCols - 1, blockRows - 1);
+        return output;
+    }
+
+    /**
+     * The reconstruction filter measured by `reconstruct`.
+     */
+    @State(Scope.Benchmark)
+    public static class Filter {
+        @Param({"nearest", "bilinear", "bicubic", "lanczos"})
+        public String name;
+
+        private ReconstructionFilter filter;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            filter = ReconstructionFilter.forName(name);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.BmpCodec;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `StartupBenchmark` class times the very first BMP read of a fresh JVM with the native codec and with
+ * `ImageIO`, which includes loading their classes and, for `ImageIO`, scanning the service loader for image
+ * plugins. Every sample is a single read in its own fork.
+ *
+ * @author Pepe Salcedo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+    private Path image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = BenchmarkImages.resolve(BenchmarkImages.SAMPLE);
+        // both readers build a BufferedImage, so the shared AWT initialisation is kept out of either timing
+        new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public BufferedImage bmpCodecFirstRead() throws IOException {
+        return BmpCodec.read(image);
+    }
+
+    @Benchmark
+    public BufferedImage imageIOFirstRead() throws IOException {
+        return ImageIO.read(image.toFile());
+    }
+}
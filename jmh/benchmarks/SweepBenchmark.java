@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import tools.BmpCodec;
+import tools.SummedAreaTable;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `SweepBenchmark` class compares averaging an image at every factor of a sweep directly with averaging it
+ * from summed-area tables built once.
+ *
+ * @author Pepe Salcedo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SweepBenchmark {
+    @Param({"test1", "4", "25", "100"})
+    public String size;
+
+    @Param({"2,4,8"})
+    public String factors;
+
+    private final CompressionPipeline pipeline = CompressionPipeline.load();
+    private BufferedImage source;
+    private int[] compressionFactors;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = BmpCodec.read(BenchmarkImages.resolve(size));
+        compressionFactors = Arrays.stream(factors.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    @Benchmark
+    public void sweepBlockData(Blackhole blackhole) {
+        for (int compressionFactor : compressionFactors) {
+            blackhole.consume(pipeline.generateBlockData(source, compressionFactor));
+        }
+    }
+
+    @Benchmark
+    public void sweepSummedAreaTable(Blackhole blackhole) {
+        SummedAreaTable table = pipeline.buildSummedAreaTable(source, false);
+        for (int compressionFactor : compressionFactors) {
+            blackhole.consume(table.averageBlocks(compressionFactor));
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import tools.BlockFileWriter;
+import tools.BmpCodec;
+import tools.BmpScanlineReader;
+import tools.CompressedFormat;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `BatchCompressor` class compresses every BMP file of a directory or glob.
+ * Files are averaged by a bounded pool of workers, and their block data is handed through a bounded queue
+ * to a single writer thread, so workers slow down when the disk cannot keep up.
+ * Files are read one scanline at a time, except for the variants such as palette BMPs that only `ImageIO` decodes.
+ * Sources whose outputs would share a name (for example `a.bmp` and `a.BMP`) are rejected before any work starts,
+ * and a writer that stops early lets the workers give up instead of blocking on the full queue.
+ *
+ * @author Pepe Salcedo
+ */
+public class BatchCompressor {
+    private final IOConsole console;
+    private final FileHandler fileHandler;
+    private final Compressor compressor;
+
+    /**
+     * Creates a batch compressor that reports its progress on the given console.
+     *
+     * @param console     The input/output console used for displaying messages.
+     * @param fileHandler The file handler for managing file-related operations.
+     * @param compressor  The compressor used to average every image.
+     */
+    public BatchCompressor(IOConsole console, FileHandler fileHandler, Compressor compressor) {
+        this.console = console;
+        this.fileHandler = fileHandler;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Compresses every BMP file matched by the source into the output directory in the `DEFLATE` layout.
+     *
+     * @param source            A directory (every `.bmp` file in it) or a glob such as `scans/*.bmp`.
+     * @param compressionFactor The compression factor applied to every image.
+     * @param outputDirectory   The directory receiving the compressed files.
+     * @param workers           The maximum number of images being averaged at once.
+     * @param virtualThreads    Whether workers run on virtual threads instead of a fixed platform pool.
+     * @return `true` if every file was compressed, `false` otherwise.
+     */
+    public boolean compressAll(String source, int compressionFactor, String outputDirectory, int workers, boolean virtualThreads) {
+        return compressAll(source, compressionFactor, CompressedFormat.DEFLATE, QuadtreeBlockCodec.DEFAULT_THRESHOLD,
+                outputDirectory, workers, virtualThreads);
+    }
+
+    /**
+     * Compresses every BMP file matched by the source into the output directory.
+     * Each output is named after its source with a `.bin` extension.
+     *
+     * @param source            A directory (every `.bmp` file in it) or a glob such as `scans/*.bmp`.
+     * @param compressionFactor The compression factor applied to every image.
+     * @param format            The layout of every compressed file.
+     * @param threshold         The per-pixel color variance above which a quadtree square is split into four;
+     *                          ignored by the other layouts.
+     * @param outputDirectory   The directory receiving the compressed files.
+     * @param workers           The maximum number of images being averaged at once.
+     * @param virtualThreads    Whether workers run on virtual threads instead of a fixed platform pool.
+     * @return `true` if every file was compressed, `false` otherwise.
+     */
+    public boolean compressAll(String source, int compressionFactor, CompressedFormat format, double threshold,
+                               String outputDirectory, int workers, boolean virtualThreads) {
+        console.showStage("starting-batch-compression", "==> Starting batch compression...");
+        try {
+            compressor.verifyCompressionFactor(compressionFactor);
+            if (workers < 1) {
+                throw new Exception("The number of workers must be at least 1");
+            }
+
+            List<Path> files = listFiles(source);
+            Path outputPath = Path.of(outputDirectory);
+            List<Path> outputs = outputPaths(files, outputPath);
+            Files.createDirectories(outputPath);
+            console.showStage("found-images", "==> Found " + files.size() + " images to compress...");
+
+            BlockingQueue<FileResult> results = new ArrayBlockingQueue<>(workers);
+            Semaphore inFlight = new Semaphore(workers);
+            Writer writer = new Writer(results, files.size(), compressionFactor, format, threshold);
+            Thread writerThread = new Thread(writer, "batch-writer");
+            long start = System.nanoTime();
+
+            writerThread.start();
+            try (ExecutorService executor = virtualThreads
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newFixedThreadPool(workers)) {
+                for (int i = 0; i < files.size() && writerThread.isAlive(); i++) {
+                    Path file = files.get(i);
+                    Path output = outputs.get(i);
+
+                    inFlight.acquire();
+                    executor.execute(() -> {
+                        try {
+                            FileResult result = averageFile(file, output, compressionFactor, format);
+                            // a writer that died will never take the result, so give up instead of blocking forever
+                            while (!results.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                                if (!writerThread.isAlive()) {
+                                    return;
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+            }
+            writerThread.join();
+
+            reportTotals(writer, System.nanoTime() - start);
+            if (writer.processed < writer.total) {
+                console.showInfo("==> The writer stopped after " + writer.processed + " of " + writer.total + " images");
+                return false;
+            }
+            return writer.failures == 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            console.showInfo(String.valueOf(e));
+            return false;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Lists the BMP files of a directory, or the files matching a glob in its parent directory.
+     *
+     * @param source A directory or a glob.
+     * @return The matched files in name order.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private List<Path> listFiles(String source) throws IOException {
+        Path path = Path.of(source);
+        Path directory = Files.isDirectory(path) ? path : path.toAbsolutePath().getParent();
+        String glob = Files.isDirectory(path) ? "*.{bmp,BMP}" : path.getFileName().toString();
+        List<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Names the output of every file after its source with a `.bin` extension.
+     * Names are compared ignoring case, since `a.bmp` and `a.BMP` map to the same output and a case-insensitive
+     * file system would also merge `a.bin` and `A.bin`.
+     *
+     * @param files           The source files.
+     * @param outputDirectory The directory receiving the compressed files.
+     * @return The output path of every file, in the same order.
+     * @throws IOException If two files would be written to the same output.
+     */
+    private List<Path> outputPaths(List<Path> files, Path outputDirectory) throws IOException {
+        Map<String, Path> claimed = new HashMap<>();
+        List<Path> outputs = new ArrayList<>(files.size());
+
+        for (Path file : files) {
+            String name = file.getFileName().toString().replaceFirst("(?i)\\.bmp$", "") + ".bin";
+            Path previous = claimed.putIfAbsent(name.toLowerCase(Locale.ROOT), file);
+            if (previous != null) {
+                throw new IOException("Both " + previous + " and " + file + " would be compressed into " + name);
+            }
+            outputs.add(outputDirectory.resolve(name));
+        }
+
+        return outputs;
+    }
+
+    /**
+     * Averages one file, capturing any failure in the result so the writer can report it.
+     *
+     * @param file              The source BMP file.
+     * @param output            The path of the compressed file.
+     * @param compressionFactor The compression factor.
+     * @param format            The layout of the compressed file, which decides whether blocks are averaged or
+     *                          summed into quadtree statistics.
+     * @return The block data of the file, or the reason it failed.
+     */
+    private FileResult averageFile(Path file, Path output, int compressionFactor, CompressedFormat format) {
+        FileResult result = new FileResult(file, output);
+        long start = System.nanoTime();
+
+        try {
+            result.bytesIn = Files.size(file);
+            try (BmpScanlineReader reader = fileHandler.getScanlineReader(file.toString())) {
+                result.cols = reader.getWidth();
+                result.rows = reader.getHeight();
+                if (format == CompressedFormat.QUADTREE) {
+                    result.statistics = compressor.generateBlockStatistics(reader, compressionFactor);
+                } else {
+                    result.blockData = compressor.generateBlockData(reader, compressionFactor);
+                }
+            } catch (BmpCodec.UnsupportedBmpException e) {
+                // palette and other variants the scanline reader does not decode are read whole through `ImageIO`
+                BufferedImage image = fileHandler.getBufferedImage(file.toString());
+                result.cols = image.getWidth();
+                result.rows = image.getHeight();
+                if (format == CompressedFormat.QUADTREE) {
+                    result.statistics = Compressor.generateBlockStatistics(image, compressionFactor);
+                } else {
+                    result.blockData = Compressor.generateBlockData(image, compressionFactor);
+                }
+            }
+        } catch (Exception e) {
+            result.error = e;
+        }
+
+        result.averageNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Shows the aggregate counters of a finished batch.
+     *
+     * @param writer     The writer that consumed every result.
+     * @param wallNanos  The wall time of the whole batch.
+     */
+    private void reportTotals(Writer writer, long wallNanos) {
+        double seconds = wallNanos / 1e9;
+        int compressed = writer.total - writer.failures;
+
+        console.showInfo(String.format("==> Compressed %d of %d images in %.3f s", compressed, writer.total, seconds));
+        console.showInfo(String.format("==> Throughput: %.2f images/s, %.2f MB/s in, %.2f MB/s out",
+                compressed / seconds, writer.bytesIn / 1e6 / seconds, writer.bytesOut / 1e6 / seconds));
+    }
+
+    /**
+     * The outcome of averaging one file.
+     */
+    private static final class FileResult {
+        private final Path source;
+        private final Path output;
+        private byte[] blockData;
+        private long[] statistics;
+        private int cols;
+        private int rows;
+        private long bytesIn;
+        private long averageNanos;
+        private Exception error;
+
+        private FileResult(Path source, Path output) {
+            this.source = source;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Drains the result queue, writing every compressed file and reporting its timings.
+     * A file that fails for any reason is counted as a failure, so one bad image never stops the writer.
+     */
+    private final class Writer implements Runnable {
+        private final BlockingQueue<FileResult> results;
+        private final int total;
+        private final int compressionFactor;
+        private final CompressedFormat format;
+        private final double threshold;
+        private volatile int processed = 0;
+        private int failures = 0;
+        private long bytesIn = 0;
+        private long bytesOut = 0;
+
+        private Writer(BlockingQueue<FileResult> results, int total, int compressionFactor, CompressedFormat format,
+                       double threshold) {
+            this.results = results;
+            this.total = total;
+            this.compressionFactor = compressionFactor;
+            this.format = format;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (processed < total) {
+                    FileResult result = results.take();
+                    try {
+                        write(result);
+                    } catch (RuntimeException e) {
+                        failures++;
+                        console.showInfo("==> Failed " + result.source + ": " + e);
+                    }
+                    processed++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(FileResult result) {
+            if (result.error != null) {
+                failures++;
+                console.showInfo("==> Failed " + result.source + ": " + result.error);
+                return;
+            }
+
+            long start = System.nanoTime();
+            long written;
+            try {
+                if (format == CompressedFormat.QUADTREE) {
+                    try (BlockFileWriter writer = new BlockFileWriter(result.output)) {
+                        Compressor.encodeQuadtree(result.statistics, compressionFactor, result.cols, result.rows,
+                                threshold, writer);
+                    }
+                } else {
+                    compressor.writeToBinaryFile(result.blockData, compressionFactor, result.cols, result.rows,
+                            format, result.output.toString());
+                }
+                written = Files.size(result.output);
+            } catch (Exception e) {
+                failures++;
+                console.showInfo("==> Failed " + result.source + ": " + e);
+                return;
+            }
+            long writeNanos = System.nanoTime() - start;
+
+            bytesIn += result.bytesIn;
+            bytesOut += written;
+            console.showInfo(String.format("==> %s -> %s: average %.3f ms, write %.3f ms, %d -> %d bytes",
+                    result.source, result.output, result.averageNanos / 1e6, writeNanos / 1e6, result.bytesIn, written));
+        }
+    }
+}
@@ -0,0 +1,312 @@
+import filters.ReconstructionFilter;
+import tools.CompressedFormat;
+import tools.CompressionTarget;
+import tools.ConsoleMetricsReporter;
+import tools.FileHandler;
+import tools.MemoryBudget;
+import tools.QuadtreeBlockCodec;
+import tools.StageMetrics;
+import tools.TimedConsole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The `CommandLine` class runs a single compression or decompression from program arguments.
+ * It never reads from standard input, reports failures through the exit code and prints the time
+ * spent in every stage announced by `Compressor` and `Decompressor`.
+ *
+ * Usage:
+ * <pre>
+ *   compress [-f factor | --factors f1,f2,...] [--stream] [--format legacy|deflate|tiled|pyramid|quadtree|ycbcr|palette] [--threshold variance] input.bmp output.bin
+ *   compress [--target-psnr db] [--target-ssim ssim] [--max-bytes n] [--format ...] [--filter ...] input.bmp output.bin
+ *   decompress [--filter nearest|bilinear|bicubic|lanczos] [--region x,y,width,height | --level n | --pipelined [-w workers]] input.bin output
+ *   batch [-f factor] [-w workers] [--virtual] [--format ...] [--threshold variance] directory-or-glob output-directory
+ * </pre>
+ * With `--stream` the BMP is read band by band into the `--format` layout, legacy by default.
+ * With `--factors` the image is compressed once per factor from a single read, into `output-f<factor>.bin`.
+ * With a target instead of a factor, the factor is searched to meet it, measuring quality after the given filter.
+ * Any command also accepts `--metrics`, which prints the latency, throughput and allocation of every stage
+ * once the command finishes. `compress` and `decompress` accept `--memory-budget megabytes`, beyond which images
+ * are streamed through bands and scratch files instead of held in the heap; it defaults to half the heap.
+ *
+ * @author Pepe Salcedo
+ */
+public class CommandLine {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILURE = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final int DEFAULT_FACTOR = 2;
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage:",
+            "  compress [-f factor | --factors f1,f2,...] [--stream] [--format legacy|deflate|tiled|pyramid|quadtree|ycbcr|palette] [--threshold variance] input.bmp output.bin",
+            "  compress [--target-psnr db] [--target-ssim ssim] [--max-bytes n] [--format ...] [--filter ...] input.bmp output.bin",
+            "  decompress [--filter nearest|bilinear|bicubic|lanczos] [--region x,y,width,height | --level n | --pipelined [-w workers]] input.bin output",
+            "  batch [-f factor] [-w workers] [--virtual] [--format ...] [--threshold variance] directory-or-glob output-directory",
+            "Every command accepts --metrics to print per-stage statistics.",
+            "compress and decompress accept --memory-budget megabytes to stream larger images from disk.");
+
+    private final TimedConsole console;
+    private final FileHandler fileHandler;
+
+    /**
+     * Creates a command line runner that reports on the given console.
+     *
+     * @param console The console receiving messages and stage timings.
+     */
+    private CommandLine(TimedConsole console) {
+        this.console = console;
+        this.fileHandler = FileHandler.getInstance(console);
+        this.fileHandler.setInteractive(false);
+    }
+
+    /**
+     * Runs the command given in the arguments.
+     *
+     * @param args The program arguments, starting with the command name.
+     * @return `EXIT_OK` on success, `EXIT_FAILURE` if the command failed or `EXIT_USAGE` for invalid arguments.
+     */
+    public static int run(String[] args) {
+        TimedConsole console = new TimedConsole();
+        CommandLine commandLine = new CommandLine(console);
+
+        try {
+            boolean succeeded = commandLine.execute(args);
+            console.finish();
+            if (Arrays.asList(args).contains("--metrics")) {
+                StageMetrics.getInstance().report(new ConsoleMetricsReporter(console));
+            }
+            return succeeded ? EXIT_OK : EXIT_FAILURE;
+        } catch (IllegalArgumentException e) {
+            console.showInfo(e.getMessage());
+            console.showInfo(USAGE);
+            return EXIT_USAGE;
+        }
+    }
+
+    /**
+     * Parses the arguments and dispatches the command.
+     *
+     * @param args The program arguments, starting with the command name.
+     * @return `true` if the command succeeded.
+     * @throws IllegalArgumentException If the arguments are invalid.
+     */
+    private boolean execute(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Missing command");
+        }
+
+        Options options = new Options(args);
+        switch (args[0]) {
+            case "compress" -> {
+                options.allow("-f", "--factors", "--stream", "--format", "--threshold", "--target-psnr",
+                        "--target-ssim", "--max-bytes", "--filter", "--memory-budget");
+                options.requirePositional(2);
+                Compressor compressor = Compressor.getInstance(console, fileHandler);
+                compressor.setMemoryBudget(options.getMemoryBudget());
+                int factor = options.getInt("-f", DEFAULT_FACTOR);
+                CompressedFormat format = options.getFormat("--format", CompressedFormat.DEFLATE);
+                int[] factors = options.getIntList("--factors");
+                double minPsnr = options.getDouble("--target-psnr", 0);
+                double minSsim = options.getDouble("--target-ssim", 0);
+                long maxBytes = (long) options.getDouble("--max-bytes", 0);
+
+                if (options.hasFlag("--stream") && (factors != null || minPsnr > 0 || minSsim > 0 || maxBytes > 0)) {
+                    throw new IllegalArgumentException("--stream cannot be combined with --factors or a target");
+                } else if (minPsnr > 0 || minSsim > 0 || maxBytes > 0) {
+                    CompressionTarget target = new CompressionTarget(minPsnr, minSsim, maxBytes);
+                    ReconstructionFilter filter = ReconstructionFilter.forName(options.getString("--filter", "bilinear"));
+                    double threshold = options.getDouble("--threshold", QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+                    return compressor.compressImageTarget(options.positional(0), options.positional(1), target, format, threshold, filter);
+                } else if (factors != null) {
+                    double threshold = options.getDouble("--threshold", QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+                    return compressor.compressImageFactors(factors, options.positional(0), options.positional(1), format, threshold);
+                } else if (options.hasFlag("--stream")) {
+                    // streaming alone keeps writing the legacy layout it always has
+                    CompressedFormat streamFormat = options.getFormat("--format", CompressedFormat.LEGACY);
+                    double threshold = options.getDouble("--threshold", QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+                    return compressor.compressImageStreaming(factor, options.positional(0), options.positional(1),
+                            streamFormat, threshold);
+                } else if (format == CompressedFormat.QUADTREE) {
+                    double threshold = options.getDouble("--threshold", QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+                    return compressor.compressImageQuadtree(factor, options.positional(0), options.positional(1), threshold);
+                }
+                return compressor.compressImage(factor, options.positional(0), options.positional(1), format);
+            }
+            case "decompress" -> {
+                options.allow("--filter", "--region", "--level", "--pipelined", "-w", "--memory-budget");
+                options.requirePositional(2);
+                Decompressor decompressor = Decompressor.getInstance(console, fileHandler);
+                decompressor.setMemoryBudget(options.getMemoryBudget());
+                ReconstructionFilter filter = ReconstructionFilter.forName(options.getString("--filter", "bilinear"));
+                int[] region = options.getInts("--region", 4);
+
+                int level = options.getInt("--level", -1);
+
+                if (region != null) {
+                    return decompressor.decompressRegion(options.positional(0), options.positional(1),
+                            region[0], region[1], region[2], region[3], filter);
+                } else if (level >= 0) {
+                    return decompressor.decompressLevel(options.positional(0), options.positional(1), level, filter);
+                } else if (options.hasFlag("--pipelined")) {
+                    int workers = options.getInt("-w", Runtime.getRuntime().availableProcessors());
+                    return decompressor.decompressImagePipelined(options.positional(0), options.positional(1), filter, workers);
+                }
+                return decompressor.decompressImage(options.positional(0), options.positional(1), filter);
+            }
+            case "batch" -> {
+                options.allow("-f", "-w", "--virtual", "--format", "--threshold");
+                options.requirePositional(2);
+                Compressor compressor = Compressor.getInstance(console, fileHandler);
+                BatchCompressor batchCompressor = new BatchCompressor(console, fileHandler, compressor);
+                int workers = options.getInt("-w", Runtime.getRuntime().availableProcessors());
+
+                CompressedFormat format = options.getFormat("--format", CompressedFormat.DEFLATE);
+                double threshold = options.getDouble("--threshold", QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+
+                return batchCompressor.compressAll(options.positional(0), options.getInt("-f", DEFAULT_FACTOR), format,
+                        threshold, options.positional(1), workers, options.hasFlag("--virtual"));
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + args[0]);
+        }
+    }
+
+    /**
+     * The options and positional arguments that follow the command name.
+     */
+    private static final class Options {
+        private final List<String> positional = new ArrayList<>();
+        private final List<String> flags = new ArrayList<>();
+        private final List<String[]> values = new ArrayList<>();
+
+        private Options(String[] args) {
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+
+                if (arg.equals("-f") || arg.equals("-w") || arg.equals("--filter") || arg.equals("--format")
+                        || arg.equals("--region") || arg.equals("--level") || arg.equals("--threshold")
+                        || arg.equals("--factors") || arg.equals("--target-psnr") || arg.equals("--target-ssim")
+                        || arg.equals("--max-bytes") || arg.equals("--memory-budget")) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    }
+                    values.add(new String[]{arg, args[++i]});
+                } else if (arg.startsWith("-")) {
+                    flags.add(arg);
+                } else {
+                    positional.add(arg);
+                }
+            }
+        }
+
+        /**
+         * Rejects any flag or valued option the command does not take, besides `--metrics` which every command takes.
+         *
+         * @param allowed The flags and valued options of the command.
+         * @throws IllegalArgumentException If an option is unknown or does not apply to the command.
+         */
+        private void allow(String... allowed) {
+            List<String> accepted = new ArrayList<>(Arrays.asList(allowed));
+            accepted.add("--metrics");
+            for (String flag : flags) {
+                if (!accepted.contains(flag)) {
+                    throw new IllegalArgumentException("Unknown option for this command: " + flag);
+                }
+            }
+            for (String[] pair : values) {
+                if (!accepted.contains(pair[0])) {
+                    throw new IllegalArgumentException("Unknown option for this command: " + pair[0]);
+                }
+            }
+        }
+
+        private void requirePositional(int count) {
+            if (positional.size() != count) {
+                throw new IllegalArgumentException("Expected " + count + " paths but got " + positional.size());
+            }
+        }
+
+        private String positional(int index) {
+            return positional.get(index);
+        }
+
+        private boolean hasFlag(String flag) {
+            return flags.contains(flag);
+        }
+
+        private String getString(String option, String defaultValue) {
+            String value = defaultValue;
+            for (String[] pair : values) {
+                if (pair[0].equals(option)) {
+                    value = pair[1];
+                }
+            }
+            return value;
+        }
+
+        private CompressedFormat getFormat(String option, CompressedFormat defaultValue) {
+            String value = getString(option, null);
+            return value == null ? defaultValue : CompressedFormat.valueOf(value.toUpperCase());
+        }
+
+        private int[] getIntList(String option) {
+            String value = getString(option, null);
+            return value == null ? null : getInts(option, value.split(",").length);
+        }
+
+        private int[] getInts(String option, int count) {
+            String value = getString(option, null);
+            if (value == null) {
+                return null;
+            }
+
+            String[] parts = value.split(",");
+            if (parts.length != count) {
+                throw new IllegalArgumentException("Expected " + count + " comma separated integers for " + option);
+            }
+
+            int[] ints = new int[count];
+            for (int i = 0; i < count; i++) {
+                try {
+                    ints[i] = Integer.parseInt(parts[i].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Expected an integer for " + option + " but got " + parts[i]);
+                }
+            }
+            return ints;
+        }
+
+        private int getInt(String option, int defaultValue) {
+            String value = getString(option, null);
+            if (value == null) {
+                return defaultValue;
+            }
+
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected an integer for " + option + " but got " + value);
+            }
+        }
+
+        private double getDouble(String option, double defaultValue) {
+            String value = getString(option, null);
+            if (value == null) {
+                return defaultValue;
+            }
+
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number for " + option + " but got " + value);
+            }
+        }
+
+        private MemoryBudget getMemoryBudget() {
+            int megabytes = getInt("--memory-budget", 0);
+            return megabytes == 0 ? MemoryBudget.fromHeap() : MemoryBudget.ofMegabytes(megabytes);
+        }
+    }
+}
@@ -1,11 +1,39 @@
+import filters.ReconstructionFilter;
+import tools.BlockFileWriter;
+import tools.BmpScanlineReader;
+import tools.CompressedFormat;
+import tools.CompressionTarget;
+import tools.ContainerHeader;
+import tools.DeflateBlockCodec;
 import tools.FileHandler;
 import tools.IOConsole;
+import tools.ImageQuality;
+import tools.MemoryBudget;
+import tools.PaletteBlockCodec;
+import tools.PyramidBlockCodec;
+import tools.QuadtreeBlockCodec;
+import tools.ResourcePool;
+import tools.ScratchBuffer;
+import tools.StageMetrics;
+import tools.SummedAreaTable;
+import tools.TiledBlockCodec;
+import tools.YCbCrBlockCodec;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
 
 /**
  * The `Compressor` class handles image compression.
@@ -14,9 +42,14 @@ import java.io.IOException;
  * @author Pepe Salcedo
  */
 public class Compressor {
+    private static final int HEADER_SIZE = 5;
+    // bands of pixels averaged into, each grown to the widest band it has held
+    private static final ResourcePool<int[]> BANDS = new ResourcePool<>(() -> new int[0]);
     private static Compressor instance = null;
     private final FileHandler fileHandler;
     private final IOConsole console;
+    private final StageMetrics metrics = StageMetrics.getInstance();
+    private volatile MemoryBudget memoryBudget = MemoryBudget.fromHeap();
 
     /**
      * Private constructor to initialize a `Compressor` instance with the specified console and file handler.
@@ -35,7 +68,7 @@ public class Compressor {
      * @return The unique instance of `Compressor`.
      * @throws Exception If no console has been assigned.
      */
-    public static Compressor getInstance() throws Exception {
+    public static synchronized Compressor getInstance() throws Exception {
         if (instance == null) {
             throw new Exception("No console assigned");
         }
@@ -49,36 +82,372 @@ public class Compressor {
      * @param fileHandler  The file handler for managing file-related operations.
      * @return The unique instance of `Compressor`.
      */
-    public static Compressor getInstance(IOConsole console, FileHandler fileHandler) {
+    public static synchronized Compressor getInstance(IOConsole console, FileHandler fileHandler) {
         if (instance == null) {
             instance = new Compressor(console, fileHandler);
         }
         return instance;
     }
 
+    /**
+     * Sets the heap an image may take before it is streamed from disk in bands instead of loaded whole.
+     *
+     * @param memoryBudget The budget to respect.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     /**
      * This function verifies that the provided image is valid, reads the pixel data by regions and averages them
-     * and writes a color dictionary and to a compressed file of specified name.
+     * and writes the block colors to a compressed file of specified name. Use the `PALETTE` format to store them
+     * as a color dictionary and an index per block.
      *
      * @param compressionFactor the value by which the image will be divided by (must be larger than 1)
      * @param file_path         the path to the file you want to compress
      * @param outputFileName    the name of the output file
      */
     public boolean compressImage(int compressionFactor, String file_path, String outputFileName) {
-        console.showInfo("==> Starting compression...");
+        return compressImage(compressionFactor, file_path, outputFileName, CompressedFormat.DEFLATE);
+    }
+
+    /**
+     * Compresses an image into the given layout.
+     *
+     * @param compressionFactor the value by which the image will be divided by (must be larger than 1)
+     * @param file_path         the path to the file you want to compress
+     * @param outputFileName    the name of the output file
+     * @param format            the layout of the compressed file
+     * @return `true` if the image is successfully compressed, `false` otherwise.
+     */
+    public boolean compressImage(int compressionFactor, String file_path, String outputFileName, CompressedFormat format) {
+        if (format == CompressedFormat.QUADTREE) {
+            return compressImageQuadtree(compressionFactor, file_path, outputFileName, QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+        }
+
+        console.showStage("starting-compression", "==> Starting compression...");
         try {
-            console.showInfo("==> Verifying image data...");
+            console.showStage("verifying-image-data", "==> Verifying image data...");
             verifyCompressionFactor(compressionFactor);
+            MemoryBudget budget = this.memoryBudget;
+            try (BmpScanlineReader reader = overBudgetReader(file_path, budget, Integer.BYTES)) {
+                if (reader != null) {
+                    reportOverBudget(reader, budget);
+                    streamToContainer(reader, compressionFactor, outputFileName, format, budget);
+                    return true;
+                }
+            }
+            BufferedImage image = fileHandler.getBufferedImage(file_path);
+
+            console.showStage("generating-pixel-data", "==> Generating pixel data...");
+            byte[] blockData = generateBlockData(image, compressionFactor);
+
+            console.showStage("writing-image-to-compressed-file", "==> Writing image to compressed file...");
+            writeToBinaryFile(blockData, compressionFactor, image.getWidth(), image.getHeight(), format, outputFileName);
+
+            return true;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Compresses an image into the quadtree layout, where neighbouring blocks are merged into a larger square
+     * as long as the color variance of the pixels it covers stays below the threshold.
+     *
+     * @param compressionFactor the size of the smallest blocks (must be larger than 1)
+     * @param file_path         the path to the file you want to compress
+     * @param outputFileName    the name of the output file
+     * @param threshold         the per-pixel color variance (summed over the three channels) above which a
+     *                          square is split into four
+     * @return `true` if the image is successfully compressed, `false` otherwise.
+     */
+    public boolean compressImageQuadtree(int compressionFactor, String file_path, String outputFileName, double threshold) {
+        console.showStage("starting-compression", "==> Starting compression...");
+        try {
+            console.showStage("verifying-image-data", "==> Verifying image data...");
+            verifyCompressionFactor(compressionFactor);
+            if (threshold < 0) {
+                throw new Exception("The variance threshold cannot be negative");
+            }
+            MemoryBudget budget = this.memoryBudget;
+            try (BmpScanlineReader reader = overBudgetReader(file_path, budget, Integer.BYTES)) {
+                if (reader != null) {
+                    reportOverBudget(reader, budget);
+                    streamToQuadtree(reader, compressionFactor, outputFileName, threshold, budget);
+                    return true;
+                }
+            }
+            BufferedImage image = fileHandler.getBufferedImage(file_path);
+
+            console.showStage("generating-block-statistics", "==> Generating block statistics...");
+            long[] statistics = generateBlockStatistics(image, compressionFactor);
+
+            console.showStage("writing-image-to-compressed-file", "==> Writing image to compressed file...");
+            try (BlockFileWriter writer = new BlockFileWriter(Path.of(outputFileName))) {
+                encodeQuadtree(statistics, compressionFactor, image.getWidth(), image.getHeight(), threshold, writer);
+            }
+
+            return true;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Compresses an image at several compression factors from a single pass over its pixels.
+     * The image is read once into summed-area tables, from which the blocks of every factor are averaged
+     * without touching the pixels again. Each output is named after `outputFileName` with the factor appended,
+     * so `out.bin` becomes `out-f4.bin`, and the size of every output is reported to compare them.
+     *
+     * @param compressionFactors the factors to compress at (each must be larger than 1)
+     * @param file_path          the path to the file you want to compress
+     * @param outputFileName     the name the output files are derived from
+     * @param format             the layout of the compressed files
+     * @param threshold          the variance threshold, only used by the quadtree layout
+     * @return `true` if the image is successfully compressed at every factor, `false` otherwise.
+     */
+    public boolean compressImageFactors(int[] compressionFactors, String file_path, String outputFileName,
+                                        CompressedFormat format, double threshold) {
+        console.showStage("starting-multi-factor-compression", "==> Starting multi-factor compression...");
+        try {
+            console.showStage("verifying-image-data", "==> Verifying image data...");
+            if (compressionFactors.length == 0) {
+                throw new Exception("At least one compression factor is required");
+            }
+            for (int compressionFactor : compressionFactors) {
+                verifyCompressionFactor(compressionFactor);
+            }
+            long sourceBytes = Files.size(Path.of(file_path));
+            MemoryBudget budget = this.memoryBudget;
+            // the raster plus a long per channel (and one for the squares) per pixel
+            long bytesPerPixel = Integer.BYTES + Long.BYTES * (format == CompressedFormat.QUADTREE ? 4 : 3);
+            BmpScanlineReader overBudget = overBudgetReader(file_path, budget, bytesPerPixel);
+            if (overBudget != null) {
+                overBudget.close();
+                console.showStage("reading-once-per-factor", "==> The summed-area tables exceed the memory budget of "
+                        + budget + ", reading the image once per factor...");
+                for (int compressionFactor : compressionFactors) {
+                    String output = factorFileName(outputFileName, compressionFactor);
+                    try (BmpScanlineReader reader = fileHandler.getScanlineReader(file_path)) {
+                        if (format == CompressedFormat.QUADTREE) {
+                            streamToQuadtree(reader, compressionFactor, output, threshold, budget);
+                        } else {
+                            streamToContainer(reader, compressionFactor, output, format, budget);
+                        }
+                    }
+                    long size = Files.size(Path.of(output));
+                    console.showInfo(String.format("==> Factor %d: %s, %d bytes (%.1fx smaller)",
+                            compressionFactor, output, size, (double) sourceBytes / size));
+                }
+                return true;
+            }
             BufferedImage image = fileHandler.getBufferedImage(file_path);
 
-            int rows = image.getHeight();
-            int cols = image.getWidth();
+            console.showStage("building-summed-area-tables", "==> Building summed-area tables...");
+            SummedAreaTable table = buildSummedAreaTable(image, format == CompressedFormat.QUADTREE);
+
+            console.showStage("writing-image-to-compressed-files", "==> Writing image to compressed files...");
+            for (int compressionFactor : compressionFactors) {
+                String output = factorFileName(outputFileName, compressionFactor);
+                long size;
+                try (BlockFileWriter writer = new BlockFileWriter(Path.of(output))) {
+                    encodeFromTable(table, compressionFactor, format, threshold, writer);
+                    size = writer.size();
+                }
+                console.showInfo(String.format("==> Factor %d: %s, %d bytes (%.1fx smaller)",
+                        compressionFactor, output, size, (double) sourceBytes / size));
+            }
+
+            return true;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Compresses an image at the factor that best meets a quality or size target, instead of a given factor.
+     * Candidate factors are searched by `FactorSelector` on sampled tiles, then the chosen file is decompressed
+     * in full and its real quality reported next to the estimate.
+     *
+     * @param file_path      the path to the file you want to compress
+     * @param outputFileName the name of the output file
+     * @param target         the quality and size targets
+     * @param format         the layout of the compressed file, any but `LEGACY`
+     * @param threshold      the variance threshold, only used by the quadtree layout
+     * @param filter         the filter the image will be decompressed with, used to measure its quality
+     * @return `true` if the image is successfully compressed, `false` otherwise, even if the target is missed.
+     */
+    public boolean compressImageTarget(String file_path, String outputFileName, CompressionTarget target,
+                                       CompressedFormat format, double threshold, ReconstructionFilter filter) {
+        console.showStage("starting-compression-to-a-target", "==> Starting compression to a target...");
+        try {
+            console.showStage("verifying-image-data", "==> Verifying image data...");
+            MemoryBudget budget = this.memoryBudget;
+            try (BmpScanlineReader overBudget = overBudgetReader(file_path, budget,
+                    Integer.BYTES + Long.BYTES * (format == CompressedFormat.QUADTREE ? 4 : 3))) {
+                if (overBudget != null) {
+                    throw new IOException("Searching a factor needs the image and its summed-area tables in memory, "
+                            + "over the memory budget of " + budget + "; compress at a fixed factor instead");
+                }
+            }
+            BufferedImage image = fileHandler.getBufferedImage(file_path);
+            long sourceBytes = Files.size(Path.of(file_path));
+
+            console.showStage("building-summed-area-tables", "==> Building summed-area tables...");
+            SummedAreaTable table = buildSummedAreaTable(image, format == CompressedFormat.QUADTREE);
+            FactorSelector selector = new FactorSelector(console, image, table, format, threshold, filter);
+
+            console.showStage("searching-factors",
+                    "==> Searching factors 2 to " + selector.getMaxFactor() + " for " + target + "...");
+            int compressionFactor = selector.select(target);
+            byte[] compressed = selector.encode(compressionFactor);
+
+            console.showStage("writing-image-to-compressed-file", "==> Writing image to compressed file...");
+            Files.write(Path.of(outputFileName), compressed);
+
+            console.showStage("measuring-round-trip", "==> Measuring round trip...");
+            ImageQuality quality = selector.roundTrip(compressionFactor);
+            ImageQuality estimate = selector.getEstimate(compressionFactor);
+            console.showInfo(String.format("==> Factor %d: %d bytes (%.1fx smaller), %s%s",
+                    compressionFactor, compressed.length, (double) sourceBytes / compressed.length, quality,
+                    estimate == null ? "" : " (sampled " + estimate + ")"));
+            if (!target.isMetBy(quality) || !target.isMetBy(compressed.length)) {
+                console.showInfo("==> The round trip misses " + target + ", the closest factor was used");
+            }
+
+            return true;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Averages the blocks of one compression factor from the summed-area tables and encodes them.
+     *
+     * @param table             The tables of the source image, with squares for the quadtree layout.
+     * @param compressionFactor The compression factor.
+     * @param format            The layout of the compressed file.
+     * @param threshold         The variance threshold, only used by the quadtree layout.
+     * @param writer            The writer of the compressed file, positioned at its start.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    static void encodeFromTable(SummedAreaTable table, int compressionFactor, CompressedFormat format, double threshold,
+                                BlockFileWriter writer) throws IOException {
+        int cols = table.getWidth();
+        int rows = table.getHeight();
+
+        if (format == CompressedFormat.QUADTREE) {
+            long[] statistics;
+            try (StageMetrics.Timer timer = StageMetrics.getInstance().start("statistics-table")) {
+                statistics = table.blockStatistics(compressionFactor);
+                timer.pixels((long) rows * cols);
+            }
+            encodeQuadtree(statistics, compressionFactor, cols, rows, threshold, writer);
+        } else {
+            byte[] blockData;
+            try (StageMetrics.Timer timer = StageMetrics.getInstance().start("average-table")) {
+                blockData = table.averageBlocks(compressionFactor);
+                timer.pixels((long) rows * cols).bytesOut(blockData.length);
+            }
+            encodeBlocks(blockData, compressionFactor, cols, rows, format, writer);
+        }
+    }
+
+    /**
+     * Derives the name of the output of one factor by appending `-f<factor>` before the extension.
+     *
+     * @param outputFileName    The name given for the outputs, such as `out.bin`.
+     * @param compressionFactor The compression factor of the output.
+     * @return The name of the output, such as `out-f4.bin`.
+     */
+    static String factorFileName(String outputFileName, int compressionFactor) {
+        int dot = outputFileName.lastIndexOf('.');
+        if (dot <= Math.max(outputFileName.lastIndexOf('/'), outputFileName.lastIndexOf('\\')) + 1) {
+            return outputFileName + "-f" + compressionFactor;
+        }
+        return outputFileName.substring(0, dot) + "-f" + compressionFactor + outputFileName.substring(dot);
+    }
+
+    /**
+     * Compresses a BMP file without ever holding the whole image in memory.
+     * Scanlines are read in file order (bottom-up for most BMP files) into a single band of
+     * `compressionFactor` rows, and every completed band is averaged and written right away at its
+     * position in the output file, so memory use stays constant regardless of the image size.
+     * Since bands may arrive bottom-up, the output uses the legacy layout, whose raw rows can be written
+     * in any order.
+     *
+     * @param compressionFactor the value by which the image will be divided by (must be larger than 1)
+     * @param file_path         the path to the BMP file you want to compress
+     * @param outputFileName    the name of the output file
+     * @return `true` if the image is successfully compressed, `false` otherwise.
+     */
+    public boolean compressImageStreaming(int compressionFactor, String file_path, String outputFileName) {
+        console.showStage("starting-streaming-compression", "==> Starting streaming compression...");
+        try {
+            console.showStage("verifying-image-data", "==> Verifying image data...");
+            verifyCompressionFactor(compressionFactor);
+
+            try (BmpScanlineReader reader = fileHandler.getScanlineReader(file_path);
+                 FileChannel output = FileChannel.open(Path.of(outputFileName), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                console.showStage("streaming-bands-to-compressed-file", "==> Streaming bands to compressed file...");
+                try (StageMetrics.Timer timer = metrics.start("compress-streaming")) {
+                    streamBands(reader, output, compressionFactor);
+                    timer.bytesIn(Files.size(Path.of(file_path))).bytesOut(output.size())
+                            .pixels((long) reader.getWidth() * reader.getHeight());
+                }
+            }
+
+            return true;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
 
-            console.showInfo("==> Generating pixel data...");
-            Color[][] pixelBuffer = generatePixelData(image);
+    /**
+     * Compresses a BMP file into the given layout without ever holding the whole image in memory.
+     * The image is read band by band as in `compressImageStreaming`; the legacy layout is written in place,
+     * other layouts keep only the averaged blocks (or the quadtree statistics), moving `DEFLATE` blocks to a
+     * mapped scratch file when they exceed the memory budget.
+     *
+     * @param compressionFactor the value by which the image will be divided by (must be larger than 1)
+     * @param file_path         the path to the BMP file you want to compress
+     * @param outputFileName    the name of the output file
+     * @param format            the layout of the compressed file
+     * @param threshold         the variance threshold, only used by the quadtree layout
+     * @return `true` if the image is successfully compressed, `false` otherwise.
+     */
+    public boolean compressImageStreaming(int compressionFactor, String file_path, String outputFileName,
+                                          CompressedFormat format, double threshold) {
+        if (format == CompressedFormat.LEGACY) {
+            return compressImageStreaming(compressionFactor, file_path, outputFileName);
+        }
 
-            console.showInfo("==> Writing image to compressed file...");
-            writeToBinaryFile(pixelBuffer, compressionFactor, rows, cols, outputFileName);
+        console.showStage("starting-streaming-compression", "==> Starting streaming compression...");
+        try {
+            console.showStage("verifying-image-data", "==> Verifying image data...");
+            verifyCompressionFactor(compressionFactor);
+            if (threshold < 0) {
+                throw new Exception("The variance threshold cannot be negative");
+            }
+
+            try (BmpScanlineReader reader = fileHandler.getScanlineReader(file_path)) {
+                if (format == CompressedFormat.QUADTREE) {
+                    streamToQuadtree(reader, compressionFactor, outputFileName, threshold, memoryBudget);
+                } else {
+                    streamToContainer(reader, compressionFactor, outputFileName, format, memoryBudget);
+                }
+            }
 
             return true;
         } catch (Exception e) {
@@ -87,112 +456,625 @@ public class Compressor {
         }
     }
 
+    /**
+     * Opens a scanline reader on an image whose working set would exceed the memory budget.
+     *
+     * @param file_path     the path to the image
+     * @param budget        the memory budget to respect
+     * @param bytesPerPixel the heap the in-memory path needs per pixel
+     * @return The reader, positioned at the first scanline, or `null` if the image fits in the budget or is not an
+     * uncompressed BMP that can be streamed, in which case it is loaded whole.
+     */
+    private BmpScanlineReader overBudgetReader(String file_path, MemoryBudget budget, long bytesPerPixel) {
+        try {
+            BmpScanlineReader reader = fileHandler.getScanlineReader(file_path);
+            if (!budget.fits((long) reader.getWidth() * reader.getHeight() * bytesPerPixel)) {
+                return reader;
+            }
+            reader.close();
+        } catch (IOException e) {
+            // palette and compressed BMP files cannot be streamed
+        }
+        return null;
+    }
+
+    private void reportOverBudget(BmpScanlineReader reader, MemoryBudget budget) {
+        console.showStage("over-memory-budget", "==> The " + reader.getWidth() + "x" + reader.getHeight()
+                + " image exceeds the memory budget of " + budget + ", streaming it in bands...");
+    }
+
+    /**
+     * Compresses an image read one band at a time, so the image is never held whole.
+     * The averaged blocks are kept in the heap while they fit in the budget; otherwise they are averaged into a
+     * mapped scratch file and deflated from there, which only the `DEFLATE` and `LEGACY` layouts support.
+     * Legacy files are always streamed straight to the output.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param outputFileName    The name of the output file.
+     * @param format            The layout of the compressed file, any but `QUADTREE`.
+     * @param budget            The memory budget to respect.
+     * @throws IOException If an I/O error occurs, or the blocks exceed the budget in another layout.
+     */
+    private void streamToContainer(BmpScanlineReader reader, int compressionFactor, String outputFileName,
+                                    CompressedFormat format, MemoryBudget budget) throws IOException {
+        int cols = reader.getWidth();
+        int rows = reader.getHeight();
+        int blockCols = ceilDiv(cols, compressionFactor);
+        int blockRows = ceilDiv(rows, compressionFactor);
+        long blockBytes = (long) blockCols * blockRows * 3;
+
+        if (format == CompressedFormat.LEGACY) {
+            try (FileChannel output = FileChannel.open(Path.of(outputFileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                streamBands(reader, output, compressionFactor);
+            }
+        } else if (budget.fits(blockBytes)) {
+            console.showStage("generating-pixel-data", "==> Generating pixel data...");
+            byte[] blockData = generateBlockData(reader, compressionFactor);
+
+            console.showStage("writing-image-to-compressed-file", "==> Writing image to compressed file...");
+            writeToBinaryFile(blockData, compressionFactor, cols, rows, format, outputFileName);
+        } else if (format == CompressedFormat.DEFLATE) {
+            console.showStage("averaging-blocks-into-a-scratch-file", "==> Averaging blocks into a scratch file...");
+            try (ScratchBuffer scratch = new ScratchBuffer(blockBytes)) {
+                try (StageMetrics.Timer timer = metrics.start("read-average")) {
+                    averageBands(reader, compressionFactor, (bandIndex, blockRow) ->
+                            scratch.put((long) bandIndex * blockRow.length, blockRow, 0, blockRow.length));
+                    timer.pixels((long) cols * rows).bytesOut(blockBytes);
+                }
+
+                console.showStage("writing-image-to-compressed-file", "==> Writing image to compressed file...");
+                try (BlockFileWriter writer = new BlockFileWriter(Path.of(outputFileName));
+                     StageMetrics.Timer timer = metrics.start("encode").bytesIn(blockBytes)) {
+                    new ContainerHeader(CompressedFormat.DEFLATE, compressionFactor, cols, rows).write(writer);
+                    DeflateBlockCodec.encode(scratch, blockCols, blockRows, writer);
+                    timer.bytesOut(writer.size());
+                }
+            }
+        } else {
+            throw new IOException("The blocks of the image need " + blockBytes + " bytes, over the memory budget of "
+                    + budget + "; only the deflate and legacy layouts can be written from a scratch file");
+        }
+    }
+
+    /**
+     * Compresses an image read one band at a time into the quadtree layout, so the image is never held whole.
+     * The block statistics must still fit in the budget.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param compressionFactor The size of the smallest blocks.
+     * @param outputFileName    The name of the output file.
+     * @param threshold         The per-pixel color variance above which a square is split into four.
+     * @param budget            The memory budget to respect.
+     * @throws IOException If an I/O error occurs, or the statistics exceed the budget.
+     */
+    private void streamToQuadtree(BmpScanlineReader reader, int compressionFactor, String outputFileName,
+                                            double threshold, MemoryBudget budget) throws IOException {
+        int cols = reader.getWidth();
+        int rows = reader.getHeight();
+        int blockCols = ceilDiv(cols, compressionFactor);
+        long statisticsLength = (long) blockCols * ceilDiv(rows, compressionFactor) * QuadtreeBlockCodec.STATISTICS;
+        if (!budget.fits(statisticsLength * Long.BYTES)) {
+            throw new IOException("The block statistics need " + statisticsLength * Long.BYTES
+                    + " bytes, over the memory budget of " + budget + "; use a larger factor or the deflate layout");
+        }
+
+        console.showStage("generating-block-statistics", "==> Generating block statistics...");
+        long[] statistics = generateBlockStatistics(reader, compressionFactor);
+
+        console.showStage("writing-image-to-compressed-file", "==> Writing image to compressed file...");
+        try (BlockFileWriter writer = new BlockFileWriter(Path.of(outputFileName))) {
+            encodeQuadtree(statistics, compressionFactor, cols, rows, threshold, writer);
+        }
+    }
+
+    /**
+     * Sums the color channels and their squares over every region of a BMP file read scanline by scanline,
+     * keeping a single band in memory.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @return `QuadtreeBlockCodec.STATISTICS` sums per block, row by row.
+     * @throws IOException If an I/O error occurs during reading.
+     */
+    long[] generateBlockStatistics(BmpScanlineReader reader, int compressionFactor) throws IOException {
+        int cols = reader.getWidth();
+        int blockCols = ceilDiv(cols, compressionFactor);
+        long[] statistics = new long[blockCols * ceilDiv(reader.getHeight(), compressionFactor) * QuadtreeBlockCodec.STATISTICS];
+
+        try (StageMetrics.Timer timer = metrics.start("read-statistics")) {
+            readBands(reader, compressionFactor, (bandIndex, band, bandRows) -> calculateBandStatistics(band, bandRows,
+                    cols, compressionFactor, statistics, bandIndex * blockCols * QuadtreeBlockCodec.STATISTICS));
+            timer.pixels((long) cols * reader.getHeight());
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Reads every scanline of the reader, averaging each band as soon as its last row arrives and writing
+     * the resulting block row at its offset in the output.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param output            The channel of the compressed file.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @throws IOException If an I/O error occurs during reading or writing.
+     */
+    private void streamBands(BmpScanlineReader reader, FileChannel output, int compressionFactor) throws IOException {
+        int cols = reader.getWidth();
+        int blockCols = ceilDiv(cols, compressionFactor);
+        int blockRows = ceilDiv(reader.getHeight(), compressionFactor);
+        long dataOffset = HEADER_SIZE;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put((byte) compressionFactor).putInt(blockCols).flip();
+        output.write(header, 0);
+
+        averageBands(reader, compressionFactor, (bandIndex, blockRow) -> {
+            ByteBuffer buffer = ByteBuffer.wrap(blockRow);
+            long position = dataOffset + (long) bandIndex * blockRow.length;
+            while (buffer.hasRemaining()) {
+                position += output.write(buffer, position);
+            }
+        });
+
+        output.truncate(dataOffset + (long) blockRows * blockCols * 3);
+    }
+
+    /**
+     * Averages every region of a BMP file read scanline by scanline, keeping a single band in memory.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @return The RGB triplets of every block, row by row.
+     * @throws IOException If an I/O error occurs during reading.
+     */
+    byte[] generateBlockData(BmpScanlineReader reader, int compressionFactor) throws IOException {
+        int blockCols = ceilDiv(reader.getWidth(), compressionFactor);
+        int blockRows = ceilDiv(reader.getHeight(), compressionFactor);
+        byte[] blockData = new byte[blockRows * blockCols * 3];
+
+        try (StageMetrics.Timer timer = metrics.start("read-average")) {
+            averageBands(reader, compressionFactor, (bandIndex, blockRow) ->
+                    System.arraycopy(blockRow, 0, blockData, bandIndex * blockRow.length, blockRow.length));
+            timer.pixels((long) reader.getWidth() * reader.getHeight()).bytesOut(blockData.length);
+        }
+
+        return blockData;
+    }
+
+    /**
+     * Averages every band read by `readBands` and hands its block row to the sink as soon as the band is
+     * complete.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param sink              Receives the index and RGB triplets of every block row; the array is reused.
+     * @throws IOException If an I/O error occurs during reading or in the sink.
+     */
+    private void averageBands(BmpScanlineReader reader, int compressionFactor, BlockRowSink sink) throws IOException {
+        int cols = reader.getWidth();
+        byte[] blockRow = new byte[ceilDiv(cols, compressionFactor) * 3];
+
+        readBands(reader, compressionFactor, (bandIndex, band, bandRows) -> {
+            averageBand(band, bandRows, cols, compressionFactor, blockRow, 0);
+            sink.accept(bandIndex, blockRow);
+        });
+    }
+
+    /**
+     * Reads every scanline of the reader in file order into a single band of `compressionFactor` rows and hands
+     * the band to the sink as soon as it is complete.
+     *
+     * @param reader            The scanline reader of the source image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param sink              Receives the index, pixels and number of rows of every band; the array is reused.
+     * @throws IOException If an I/O error occurs during reading or in the sink.
+     */
+    private void readBands(BmpScanlineReader reader, int compressionFactor, BandSink sink) throws IOException {
+        int rows = reader.getHeight();
+        int cols = reader.getWidth();
+        int[] band = new int[compressionFactor * cols];
+
+        for (int i = 0; i < rows; i++) {
+            int y = reader.nextRowIndex();
+            int bandIndex = y / compressionFactor;
+            int bandStart = bandIndex * compressionFactor;
+            int bandRows = Math.min(compressionFactor, rows - bandStart);
+
+            reader.readRow(band, (y - bandStart) * cols);
+
+            boolean bandComplete = reader.isBottomUp() ? y == bandStart : y == bandStart + bandRows - 1;
+            if (bandComplete) {
+                sink.accept(bandIndex, band, bandRows);
+            }
+        }
+    }
+
     /**
      * This function verifies that the compression factor is larger than 1
      * @param compressionFactor the integer to check
      * @throws Exception
      */
-    private void verifyCompressionFactor(int compressionFactor) throws Exception {
+    void verifyCompressionFactor(int compressionFactor) throws Exception {
             if (compressionFactor <= 1) {
                 throw new Exception("Compression factor must be an integer larger than 1");
             }
     }
 
     /**
-     * Writes the pixel buffer to a binary file with the specified compression factor, rows, columns, and output file name.
+     * Writes the averaged block colors to a binary file with the specified compression factor and output file name.
      *
-     * @param pixelBuffer      The pixel buffer containing color information.
+     * @param blockData         The packed RGB triplets of every block, row by row.
      * @param compressionFactor The compression factor (e.g., quality level).
-     * @param rows             The number of rows in the image.
-     * @param cols             The number of columns in the image.
-     * @param outputFileName   The name of the output binary file.
+     * @param cols              The number of columns in the source image.
+     * @param rows              The number of rows in the source image.
+     * @param format            The layout of the compressed file.
+     * @param outputFileName    The name of the output binary file.
      * @throws IOException If an I/O error occurs during writing.
      */
-    private void writeToBinaryFile(Color[][] pixelBuffer, int compressionFactor, int rows, int cols, String outputFileName) throws IOException {
-        try {
-            DataOutputStream dataOutputStream = new DataOutputStream(new FileOutputStream(outputFileName));
+    void writeToBinaryFile(byte[] blockData, int compressionFactor, int cols, int rows, CompressedFormat format, String outputFileName) throws IOException {
+        if (format == CompressedFormat.QUADTREE) {
+            throw new IllegalArgumentException("Quadtree files are built from block statistics, not block colors");
+        }
 
-            dataOutputStream.write(compressionFactor);
-            dataOutputStream.writeInt(cols / compressionFactor);
+        try (BlockFileWriter writer = new BlockFileWriter(Path.of(outputFileName))) {
+            encodeBlocks(blockData, compressionFactor, cols, rows, format, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            for (int row = 0; row < rows; row += compressionFactor) {
-                for (int col = 0; col < cols; col += compressionFactor) {
-                    Color color = calculateRegionColorAverage(col, row, rows, cols, pixelBuffer, compressionFactor);
+    /**
+     * Writes the header and the payload of the averaged block colors in the given layout.
+     * It keeps no state between calls, so any number of threads can encode at once.
+     *
+     * @param blockData         The packed RGB triplets of every block, row by row.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param cols              The number of columns in the source image.
+     * @param rows              The number of rows in the source image.
+     * @param format            The layout of the compressed file, any but `QUADTREE`.
+     * @param writer            The writer of the compressed file, positioned at its start.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    static void encodeBlocks(byte[] blockData, int compressionFactor, int cols, int rows, CompressedFormat format,
+                             BlockFileWriter writer) throws IOException {
+        long start = writer.size();
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("encode").bytesIn(blockData.length)) {
+            if (format == CompressedFormat.LEGACY) {
+                writer.writeHeader(compressionFactor, ceilDiv(cols, compressionFactor));
+                writer.write(blockData);
+            } else {
+                ContainerHeader header = new ContainerHeader(format, compressionFactor, cols, rows);
+                header.write(writer);
 
-                    dataOutputStream.write(new byte[]{
-                            (byte) color.getRed(),
-                            (byte) color.getGreen(),
-                            (byte) color.getBlue()
-                    });
+                switch (format) {
+                    case TILED -> TiledBlockCodec.encode(blockData, header.getBlockCols(), header.getBlockRows(),
+                            TiledBlockCodec.DEFAULT_TILE_SIZE, writer);
+                    case PYRAMID -> PyramidBlockCodec.encode(blockData, compressionFactor, cols, rows, writer);
+                    case YCBCR -> YCbCrBlockCodec.encode(blockData, compressionFactor, cols, rows, writer);
+                    case PALETTE -> PaletteBlockCodec.encode(blockData, header.getBlockCols(), header.getBlockRows(), writer);
+                    default -> DeflateBlockCodec.encode(blockData, header.getBlockCols(), header.getBlockRows(), writer);
                 }
             }
+            timer.bytesOut(writer.size() - start);
+        }
+    }
 
-            dataOutputStream.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Writes the header and the payload of the quadtree layout from the block statistics.
+     *
+     * @param statistics        The sums built by `generateBlockStatistics`.
+     * @param compressionFactor The size of the smallest blocks.
+     * @param cols              The number of columns in the source image.
+     * @param rows              The number of rows in the source image.
+     * @param threshold         The per-pixel color variance above which a square is split into four.
+     * @param writer            The writer of the compressed file, positioned at its start.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    static void encodeQuadtree(long[] statistics, int compressionFactor, int cols, int rows, double threshold,
+                               BlockFileWriter writer) throws IOException {
+        long start = writer.size();
+        ContainerHeader header = new ContainerHeader(CompressedFormat.QUADTREE, compressionFactor, cols, rows);
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("encode")
+                .bytesIn((long) statistics.length * Long.BYTES)) {
+            header.write(writer);
+            QuadtreeBlockCodec.encode(statistics, compressionFactor, cols, rows, threshold, writer);
+            timer.bytesOut(writer.size() - start);
         }
     }
 
     /**
-     * Calculates the average color for a region specified by the given coordinates.
+     * Averages every `compressionFactor`x`compressionFactor` region of the image into a packed RGB triplet.
+     * Block rows are partitioned across the common fork/join pool; each worker reads one band of
+     * `compressionFactor` rows at a time into a pooled `int[]` and fills its slice of the
+     * preallocated output, so the result is identical to a sequential pass.
      *
-     * @param x                The starting x-coordinate of the region.
-     * @param y                The starting y-coordinate of the region.
-     * @param rows             The total number of rows in the image.
-     * @param cols             The total number of columns in the image.
-     * @param pixelBuffer      The pixel buffer containing color information.
+     * @param image             The input image to average.
      * @param compressionFactor The compression factor (e.g., quality level).
-     * @return The average color for the specified region.
+     * @return The RGB triplets of every block, row by row.
      */
-    private Color calculateRegionColorAverage(int x, int y, int rows, int cols, Color[][] pixelBuffer, int compressionFactor) {
+    static byte[] generateBlockData(BufferedImage image, int compressionFactor) {
+        int rows = image.getHeight();
+        int cols = image.getWidth();
+        int blockCols = ceilDiv(cols, compressionFactor);
+        int blockRows = ceilDiv(rows, compressionFactor);
+
+        byte[] blockData = new byte[blockRows * blockCols * 3];
+
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("average")) {
+            IntStream.range(0, blockRows).parallel().forEach(blockRow -> {
+                int y = blockRow * compressionFactor;
+                int bandRows = Math.min(compressionFactor, rows - y);
+                int[] band = band(compressionFactor * cols);
+
+                try {
+                    readBand(image, y, bandRows, band);
+                    averageBand(band, bandRows, cols, compressionFactor, blockData, blockRow * blockCols * 3);
+                } finally {
+                    BANDS.release(band);
+                }
+            });
+            timer.pixels((long) rows * cols).bytesOut(blockData.length);
+        }
+
+        return blockData;
+    }
+
+    /**
+     * Builds the summed-area tables of an image in a single pass, reading it one band of rows at a time
+     * into a pooled band buffer.
+     *
+     * @param image       The input image.
+     * @param withSquares Whether the sum of squared channels is tabled too, as the quadtree layout needs.
+     * @return The tables of the image.
+     */
+    static SummedAreaTable buildSummedAreaTable(BufferedImage image, boolean withSquares) {
+        int rows = image.getHeight();
+        int cols = image.getWidth();
+        int bandRows = Math.max(1, Math.min(rows, (1 << 16) / cols));
+        int[] band = band(bandRows * cols);
+        SummedAreaTable table = new SummedAreaTable(cols, rows, withSquares);
+
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("summed-area")) {
+            for (int y = 0; y < rows; y += bandRows) {
+                int count = Math.min(bandRows, rows - y);
+
+                readBand(image, y, count, band);
+                for (int row = 0; row < count; row++) {
+                    table.addRow(y + row, band, row * cols);
+                }
+            }
+            timer.pixels((long) rows * cols).bytesOut(table.sizeBytes());
+        } finally {
+            BANDS.release(band);
+        }
+
+        return table;
+    }
+
+    /**
+     * Sums the color channels and their squares over every `compressionFactor`x`compressionFactor` region,
+     * so the quadtree can compute the mean and variance of any group of blocks without reading pixels again.
+     *
+     * @param image             The input image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @return `QuadtreeBlockCodec.STATISTICS` sums per block, row by row.
+     */
+    static long[] generateBlockStatistics(BufferedImage image, int compressionFactor) {
+        int rows = image.getHeight();
+        int cols = image.getWidth();
+        int blockCols = ceilDiv(cols, compressionFactor);
+        int blockRows = ceilDiv(rows, compressionFactor);
+
+        long[] statistics = new long[blockRows * blockCols * QuadtreeBlockCodec.STATISTICS];
+
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("statistics")) {
+            IntStream.range(0, blockRows).parallel().forEach(blockRow -> {
+                int y = blockRow * compressionFactor;
+                int bandRows = Math.min(compressionFactor, rows - y);
+                int[] band = band(compressionFactor * cols);
+
+                try {
+                    readBand(image, y, bandRows, band);
+                    calculateBandStatistics(band, bandRows, cols, compressionFactor, statistics,
+                            blockRow * blockCols * QuadtreeBlockCodec.STATISTICS);
+                } finally {
+                    BANDS.release(band);
+                }
+            });
+            timer.pixels((long) rows * cols);
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Borrows a band buffer, replacing it with a longer one if it is shorter than requested.
+     * The buffers are shared by every image averaged, so only the first (or a wider) image allocates.
+     *
+     * @param size The number of pixels the band must hold.
+     * @return A band buffer at least `size` long, to be handed back to `BANDS` once the band is averaged.
+     */
+    private static int[] band(int size) {
+        int[] band = BANDS.borrow();
+        return band.length < size ? new int[size] : band;
+    }
+
+    /**
+     * Calculates the channel sums and the sum of squared channels of every region in a band.
+     *
+     * @param band              The packed RGB pixels of the band, row by row.
+     * @param bandRows          The number of rows present in the band (the last band may be shorter).
+     * @param cols              The total number of columns in the image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param output            The array receiving the sums.
+     * @param offset            The position in `output` of the first sum of the band.
+     */
+    static void calculateBandStatistics(int[] band, int bandRows, int cols, int compressionFactor, long[] output, int offset) {
+        for (int x = 0; x < cols; x += compressionFactor) {
+            int width = Math.min(compressionFactor, cols - x);
+            long totalRed = 0;
+            long totalGreen = 0;
+            long totalBlue = 0;
+            long totalSquares = 0;
+
+            for (int row = 0; row < bandRows; row++) {
+                for (int index = row * cols + x, end = index + width; index < end; index++) {
+                    int red = band[index] >> 16 & 0xFF;
+                    int green = band[index] >> 8 & 0xFF;
+                    int blue = band[index] & 0xFF;
+
+                    totalRed += red;
+                    totalGreen += green;
+                    totalBlue += blue;
+                    totalSquares += red * red + green * green + blue * blue;
+                }
+            }
+
+            output[offset++] = totalRed;
+            output[offset++] = totalGreen;
+            output[offset++] = totalBlue;
+            output[offset++] = totalSquares;
+        }
+    }
+
+    /**
+     * Calculates the average color of every region in a band and stores them as RGB triplets.
+     *
+     * @param band              The packed RGB pixels of the band, row by row.
+     * @param bandRows          The number of rows present in the band (the last band may be shorter).
+     * @param cols              The total number of columns in the image.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param output            The array receiving the RGB triplets.
+     * @param offset            The position in `output` of the first triplet of the band.
+     */
+    static void averageBand(int[] band, int bandRows, int cols, int compressionFactor, byte[] output, int offset) {
+        for (int x = 0; x < cols; x += compressionFactor) {
+            int rgb = calculateRegionColorAverage(x, bandRows, cols, band, compressionFactor);
+
+            output[offset++] = (byte) (rgb >> 16);
+            output[offset++] = (byte) (rgb >> 8);
+            output[offset++] = (byte) rgb;
+        }
+    }
+
+    /**
+     * Calculates the average color for a region starting at the given column of a band.
+     *
+     * @param x                 The starting x-coordinate of the region.
+     * @param bandRows          The number of rows present in the band.
+     * @param cols              The total number of columns in the image.
+     * @param band              The packed RGB pixels of the band, row by row.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @return The average color for the specified region as a packed RGB value.
+     */
+    static int calculateRegionColorAverage(int x, int bandRows, int cols, int[] band, int compressionFactor) {
         long totalRed = 0;
         long totalGreen = 0;
         long totalBlue = 0;
-        int iters = 0;
+        int width = Math.min(compressionFactor, cols - x);
 
-        for (int row = y; row < y + compressionFactor; row++) {
-            for (int col = x; col < x + compressionFactor; col++) {
-                if (row < rows && col < cols) {
-                    Color color = pixelBuffer[row][col];
+        for (int row = 0; row < bandRows; row++) {
+            int index = row * cols + x;
+            int end = index + width;
 
-                    totalRed += color.getRed();
-                    totalGreen += color.getGreen();
-                    totalBlue += color.getBlue();
+            for (; index < end; index++) {
+                int rgb = band[index];
 
-                    iters++;
-                }
+                totalRed += (rgb >> 16) & 0xFF;
+                totalGreen += (rgb >> 8) & 0xFF;
+                totalBlue += rgb & 0xFF;
             }
         }
 
-        if (iters == 0) {
-            return Color.RED;
-        } else {
-            int avgRed = (int) (totalRed / iters);
-            int avgGreen = (int) (totalGreen / iters);
-            int avgBlue = (int) (totalBlue / iters);
+        int iters = width * bandRows;
+        int avgRed = (int) (totalRed / iters);
+        int avgGreen = (int) (totalGreen / iters);
+        int avgBlue = (int) (totalBlue / iters);
 
-            return new Color(avgRed, avgGreen, avgBlue);
-        }
+        return (avgRed << 16) | (avgGreen << 8) | avgBlue;
     }
 
     /**
-     * Generates a pixel buffer from the given `BufferedImage`.
-     * Each pixel in the buffer corresponds to a color in the image.
+     * Copies `bandRows` rows of the image starting at `y` into `band` as packed RGB values.
+     * The standard sRGB byte (`TYPE_3BYTE_BGR`, `TYPE_4BYTE_ABGR`) and int (`TYPE_INT_RGB`, `TYPE_INT_ARGB`)
+     * images are read straight from their data buffer; any other type, including premultiplied alpha and
+     * custom color models, falls back to a bulk `getRGB` call so the color model converts it.
      *
-     * @param image The input image from which to generate the pixel data.
-     * @return A 2D array of `Color` objects representing the pixel data.
+     * @param image    The input image.
+     * @param y        The first row of the band.
+     * @param bandRows The number of rows to copy.
+     * @param band     The destination array, at least `bandRows * width` long.
      */
-    private Color[][] generatePixelData(BufferedImage image) {
-        int rows = image.getHeight();
+    static void readBand(BufferedImage image, int y, int bandRows, int[] band) {
         int cols = image.getWidth();
-        Color[][] pixelBuffer = new Color[rows][cols];
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        boolean translated = raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0;
+        int type = image.getType();
 
-        for (int x = 0; x < cols; x++) {
-            for (int y = 0; y < rows; y++) {
-                pixelBuffer[y][x] = new Color(image.getRGB(x, y), false);
+        if (!translated && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+            ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+            byte[] data = ((DataBufferByte) dataBuffer).getData();
+            int[] bandOffsets = componentModel.getBandOffsets();
+            int pixelStride = componentModel.getPixelStride();
+            int scanlineStride = componentModel.getScanlineStride();
+            int redOffset = bandOffsets[0];
+            int greenOffset = bandOffsets[1];
+            int blueOffset = bandOffsets[2];
+
+            for (int row = 0; row < bandRows; row++) {
+                int src = dataBuffer.getOffset() + (y + row) * scanlineStride;
+                int dst = row * cols;
+
+                for (int col = 0; col < cols; col++, src += pixelStride) {
+                    band[dst + col] = ((data[src + redOffset] & 0xFF) << 16)
+                            | ((data[src + greenOffset] & 0xFF) << 8)
+                            | (data[src + blueOffset] & 0xFF);
+                }
+            }
+        } else if (!translated && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt) dataBuffer).getData();
+            int scanlineStride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+
+            for (int row = 0; row < bandRows; row++) {
+                int src = dataBuffer.getOffset() + (y + row) * scanlineStride;
+                int dst = row * cols;
+
+                for (int col = 0; col < cols; col++) {
+                    band[dst + col] = data[src + col] & 0xFFFFFF;
+                }
             }
+        } else {
+            image.getRGB(0, y, cols, bandRows, band, 0, cols);
         }
+    }
+
+    /**
+     * Divides two positive integers rounding up.
+     *
+     * @param value   The dividend.
+     * @param divisor The divisor.
+     * @return The smallest integer not less than `value / divisor`.
+     */
+    static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Receives the block rows produced while streaming an image.
+     */
+    private interface BlockRowSink {
+        void accept(int bandIndex, byte[] blockRow) throws IOException;
+    }
 
-        return pixelBuffer;
+    /**
+     * Receives the bands of pixels read while streaming an image.
+     */
+    private interface BandSink {
+        void accept(int bandIndex, int[] band, int bandRows) throws IOException;
     }
 }
@@ -1,13 +1,29 @@
+import filters.BilinearFilter;
+import filters.ReconstructionFilter;
+import tools.BmpRowWriter;
+import tools.CompressedFormat;
+import tools.DecodedImageCache;
 import tools.FileHandler;
 import tools.IOConsole;
-import tools.Tuple;
+import tools.MappedBlockReader;
+import tools.MemoryBudget;
+import tools.QuadtreeLeafConsumer;
+import tools.StageMetrics;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.IntStream;
 
 /**
  * The `Decompressor` class handles image decompression.
@@ -16,9 +32,17 @@ import java.io.IOException;
  * @author Pepe Salcedo
  */
 public class Decompressor {
+    private static final int TILE_SIZE = 64;
+    // blocks decoded beyond a region so even the widest filter (Lanczos) sees the same neighbours
+    private static final int FILTER_MARGIN = 3;
+    // finished bands waiting for the writer in pipelined decompression
+    private static final int PIPELINE_QUEUE_SIZE = 4;
     private static Decompressor instance = null;
-    private static IOConsole console;
-    private static FileHandler fileHandler;
+    private final IOConsole console;
+    private final FileHandler fileHandler;
+    private volatile DecodedImageCache cache = null;
+    private volatile MemoryBudget memoryBudget = MemoryBudget.fromHeap();
+    private final StageMetrics metrics = StageMetrics.getInstance();
 
     /**
      * Private constructor to prevent direct instantiation.
@@ -36,7 +60,7 @@ public class Decompressor {
      * @param console The input/output console used for displaying messages.
      * @return The unique instance of `Decompressor`.
      */
-    public static Decompressor getInstance(IOConsole console, FileHandler fileHandler) {
+    public static synchronized Decompressor getInstance(IOConsole console, FileHandler fileHandler) {
         if (instance == null) {
             instance = new Decompressor(console, fileHandler);
         }
@@ -50,7 +74,7 @@ public class Decompressor {
      * @return The unique instance of `Decompressor`.
      * @throws Exception If no console has been assigned.
      */
-    public static Decompressor getInstance() throws Exception {
+    public static synchronized Decompressor getInstance() throws Exception {
         if (instance == null) {
             throw new Exception("No console assigned");
         }
@@ -59,34 +83,99 @@ public class Decompressor {
     }
 
     /**
-     * Decompresses an image from the specified compressed file path.
+     * Sets the cache of decompressed images consulted by `decompressImage` and `decompressLevel`.
+     *
+     * @param cache The cache to use, or `null` to always decompress.
+     */
+    public void setCache(DecodedImageCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return The cache of decompressed images, or `null` if none is set.
+     */
+    public DecodedImageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the heap a decompressed image may take before `decompressImage` streams it to disk in bands instead
+     * of building it whole.
+     *
+     * @param memoryBudget The budget to respect.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Decompresses an image from the specified compressed file path using bilinear interpolations.
      *
      * @param compressedFilePath The path to the compressed image file.
      * @param outputName         The name of the decompressed output file.
      * @return `true` if the image is successfully decompressed, `false` otherwise.
      */
     public boolean decompressImage(String compressedFilePath, String outputName) {
-        console.showInfo("==> Starting file decompression...");
+        return decompressImage(compressedFilePath, outputName, new BilinearFilter());
+    }
+
+    /**
+     * Decompresses an image from the specified compressed file path.
+     *
+     * @param compressedFilePath The path to the compressed image file.
+     * @param outputName         The name of the decompressed output file.
+     * @param filter             The filter used to rebuild the pixels between blocks.
+     * @return `true` if the image is successfully decompressed, `false` otherwise.
+     */
+    public boolean decompressImage(String compressedFilePath, String outputName, ReconstructionFilter filter) {
+        console.showStage("starting-file-decompression", "==> Starting file decompression...");
+        DecodedImageCache cache = this.cache;
         try {
-            console.showInfo("==> Calculating image data...");
-            DataInputStream inputStream = new DataInputStream(new FileInputStream(compressedFilePath));
-            int compressionFactor = inputStream.read();
-            int numPixels = inputStream.available() / 3;
-            int numCols = inputStream.readInt();
-            int numRows = numPixels / numCols;
+            String cacheKey = cache == null ? null : cache.key(Path.of(compressedFilePath), filter.getName());
+            ByteBuffer cachedBmp = cacheKey == null ? null : cache.get(cacheKey);
+            BufferedImage outputImg = null;
 
-            console.showInfo("==> Building pixel buffer...");
-            Color[][] pixelBuffer = generatePixelBuffer(inputStream, numRows, numCols, numPixels);
+            if (cachedBmp != null) {
+                console.showStage("serving-image-from-cache", "==> Serving image from cache...");
+            } else {
+                console.showStage("calculating-image-data", "==> Calculating image data...");
+                MappedBlockReader reader = new MappedBlockReader(Path.of(compressedFilePath));
+                int compressionFactor = reader.getCompressionFactor();
+                int numCols = reader.getCols();
+                int numRows = reader.getRows();
 
-            console.showInfo("==> Building image by using bilinear interpolations...");
-            BufferedImage outputImg = buildDecompressedImage(pixelBuffer, numCols, numRows, compressionFactor);
+                MemoryBudget budget = this.memoryBudget;
+                long width = (long) Math.max(0, numCols - 1) * compressionFactor;
+                long height = (long) Math.max(0, numRows - 1) * compressionFactor;
+                if (!budget.fits(MemoryBudget.rasterBytes(width, height))) {
+                    console.showStage("over-memory-budget", "==> The " + width + "x" + height
+                            + " image exceeds the memory budget of " + budget + ", streaming it in bands...");
+                    return decompressImagePipelined(compressedFilePath, outputName, filter,
+                            Runtime.getRuntime().availableProcessors());
+                }
 
-            console.showInfo("==> Rendering image to specified file...");
-            fileHandler.renderBufferedImage(outputName, "bmp", outputImg);
+                console.showStage("building-pixel-buffer", "==> Building pixel buffer...");
+                FlatCells flatCells = FlatCells.forReader(reader, filter);
+                int[] pixelBuffer = generatePixelBuffer(reader, numRows, numCols, flatCells);
+
+                console.showStage("building-image",
+                        "==> Building image by using " + filter.getName() + " reconstruction...");
+                outputImg = buildDecompressedImage(pixelBuffer, numCols, numRows, compressionFactor, filter, flatCells);
+                if (cacheKey != null) {
+                    cachedBmp = cache.put(cacheKey, outputImg);
+                }
+            }
+
+            console.showStage("rendering-image-to-specified-file", "==> Rendering image to specified file...");
+            render(outputName, outputImg, cachedBmp);
 
             console.showInfo("==> Image correctly decompressed!");
             return true;
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
             console.showInfo("==> The provided file path was not found!");
             console.showInfo(String.valueOf(e));
             return false;
@@ -97,108 +186,646 @@ public class Decompressor {
     }
 
     /**
-     * Generates a pixel buffer from the input stream.
+     * Decompresses an image with its stages overlapped instead of run one after another.
+     * Block rows are decoded on the calling thread and, as soon as the rows a band of output needs are available,
+     * the band is reconstructed by one of the workers and handed through a bounded queue to a writer thread that
+     * encodes it straight into the BMP file. Only the bands in flight are ever held in memory, and reading stops
+     * whenever the workers or the writer fall behind. The cache is not consulted.
+     *
+     * @param compressedFilePath The path to the compressed image file.
+     * @param outputName         The name of the decompressed output file.
+     * @param filter             The filter used to rebuild the pixels between blocks.
+     * @param workers            The number of reconstruction workers.
+     * @return `true` if the image is successfully decompressed, `false` otherwise.
+     */
+    public boolean decompressImagePipelined(String compressedFilePath, String outputName, ReconstructionFilter filter, int workers) {
+        console.showStage("starting-pipelined-decompression", "==> Starting pipelined decompression...");
+        try {
+            if (workers < 1) {
+                throw new IllegalArgumentException("The number of workers must be at least 1");
+            }
+            MappedBlockReader reader = new MappedBlockReader(Path.of(compressedFilePath));
+            int factor = reader.getCompressionFactor();
+            int cols = reader.getCols();
+            int rows = reader.getRows();
+            if (cols < 2 || rows < 2) {
+                throw new IOException("The compressed image needs at least 2x2 blocks to be interpolated");
+            }
+
+            console.showStage("streaming-reconstruction",
+                    "==> Streaming " + filter.getName() + " reconstruction through " + workers + " workers...");
+            int width = (cols - 1) * factor;
+            int bandCells = Math.max(1, TILE_SIZE / factor);
+            BlockingQueue<Band> bands = new ArrayBlockingQueue<>(PIPELINE_QUEUE_SIZE);
+            Semaphore inFlight = new Semaphore(workers + PIPELINE_QUEUE_SIZE);
+            // band buffers handed back by the writer, at most one per band in flight
+            BlockingQueue<int[]> freeBuffers = new ArrayBlockingQueue<>(workers + PIPELINE_QUEUE_SIZE);
+            int bufferSize = (bandCells + FILTER_MARGIN) * factor * width;
+
+            try (StageMetrics.Timer timer = metrics.start("decompress-pipelined");
+                 BmpRowWriter writer = new BmpRowWriter(Path.of(outputName + ".bmp"), width, (rows - 1) * factor)) {
+                BandWriter bandWriter = new BandWriter(bands, writer, inFlight, freeBuffers);
+                Thread writerThread = new Thread(bandWriter, "bmp-writer");
+                writerThread.start();
+
+                Exception readError = null;
+                try (ExecutorService executor = Executors.newFixedThreadPool(workers)) {
+                    int[][] blockRows = new int[rows][];
+                    int[] nextCell = {0};
+
+                    reader.readRows((y, colors) -> {
+                        blockRows[y] = colors.clone();
+
+                        // dispatch every band whose rows (plus the filter margin) are now available
+                        while (nextCell[0] < rows - 1
+                                && y + 1 >= Math.min(rows, Math.min(nextCell[0] + bandCells, rows - 1) + 1 + FILTER_MARGIN)) {
+                            int cellY0 = nextCell[0];
+                            int cellY1 = Math.min(cellY0 + bandCells, rows - 1);
+                            int blockY0 = Math.max(0, cellY0 - FILTER_MARGIN);
+                            int blockY1 = Math.min(rows, cellY1 + 1 + FILTER_MARGIN);
+                            int[] window = new int[(blockY1 - blockY0) * cols];
+
+                            for (int row = blockY0; row < blockY1; row++) {
+                                System.arraycopy(blockRows[row], 0, window, (row - blockY0) * cols, cols);
+                            }
+                            for (int row = blockY0; row < Math.max(0, cellY1 - FILTER_MARGIN); row++) {
+                                blockRows[row] = null;
+                            }
+
+                            try {
+                                inFlight.acquire();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("Interrupted while waiting for the workers");
+                            }
+                            executor.execute(() -> {
+                                int[] buffer = freeBuffers.poll();
+                                Band band = reconstructBand(window, cols, blockY1 - blockY0, factor, width,
+                                        cellY0 - blockY0, cellY1 - blockY0, filter, cellY0,
+                                        buffer != null ? buffer : new int[bufferSize]);
+                                try {
+                                    bands.put(band);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            });
+                            nextCell[0] = cellY1;
+                        }
+                    });
+                } catch (Exception e) {
+                    readError = e;
+                }
+
+                bands.put(Band.END);
+                writerThread.join();
+
+                if (readError != null) {
+                    throw readError;
+                } else if (bandWriter.error != null) {
+                    throw bandWriter.error;
+                }
+                timer.bytesIn(reader.getFileSize()).bytesOut(writer.size()).pixels((long) width * (rows - 1) * factor);
+            }
+
+            console.showInfo("==> Image correctly decompressed!");
+            return true;
+        } catch (NoSuchFileException e) {
+            console.showInfo("==> The provided file path was not found!");
+            console.showInfo(String.valueOf(e));
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            console.showInfo(String.valueOf(e));
+            return false;
+        } catch (Exception e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Reconstructs one band of cell rows from a window of block rows.
      *
-     * @param inputStream The data input stream containing image data.
-     * @param numRows     The number of rows in the image.
-     * @param numCols     The number of columns in the image.
-     * @param numPixels   The total number of pixels in the image.
-     * @return The pixel buffer containing color information.
-     * @throws IOException If an I/O error occurs during reading.
+     * @param window      The block rows of the band plus the filter margin around it.
+     * @param cols        The number of block columns.
+     * @param windowRows  The number of block rows in the window.
+     * @param factor      The compression factor.
+     * @param width       The width of the decompressed image.
+     * @param cellY0      The first cell row of the band, relative to the window.
+     * @param cellY1      The last cell row of the band (exclusive), relative to the window.
+     * @param filter      The filter used to rebuild the pixels between blocks.
+     * @param imageCellY0 The first cell row of the band in the whole image.
+     * @param pixels      The buffer receiving the pixels, at least `cellY1 * factor * width` long.
+     * @return The reconstructed band, or the reason it failed.
      */
-    private Color[][] generatePixelBuffer(DataInputStream inputStream, int numRows, int numCols, int numPixels) throws IOException {
-        Color[][] pixelBuffer = new Color[numRows][numCols];
+    private static Band reconstructBand(int[] window, int cols, int windowRows, int factor, int width,
+                                        int cellY0, int cellY1, ReconstructionFilter filter, int imageCellY0,
+                                        int[] pixels) {
+        try {
+            filter.reconstruct(window, cols, windowRows, factor, pixels, width, 0, cellY0, cols - 1, cellY1);
+            return new Band(imageCellY0 * factor, (cellY1 - cellY0) * factor, pixels, cellY0 * factor * width, null);
+        } catch (RuntimeException e) {
+            return new Band(0, 0, null, 0, e);
+        }
+    }
 
+    /**
+     * Decompresses one resolution level of a pyramid file, so a coarse preview can be shown after reading only
+     * the start of the file and refined with the next levels. Other layouts only have level `0`.
+     *
+     * @param compressedFilePath The path to the compressed image file.
+     * @param outputName         The name of the decompressed output file.
+     * @param level              The level to decompress, `0` being the coarsest.
+     * @param filter             The filter used to rebuild the pixels between blocks.
+     * @return `true` if the level is successfully decompressed, `false` otherwise.
+     */
+    public boolean decompressLevel(String compressedFilePath, String outputName, int level, ReconstructionFilter filter) {
+        console.showStage("starting-level-decompression", "==> Starting level " + level + " decompression...");
+        DecodedImageCache cache = this.cache;
         try {
-            for (int i = 0; i < numPixels - 1; i++) {
-                int red = Math.max(inputStream.read(), 0);
-                int green = Math.max(inputStream.read(), 0);
-                int blue = Math.max(inputStream.read(), 0);
+            console.showStage("calculating-image-data", "==> Calculating image data...");
+            MappedBlockReader reader = new MappedBlockReader(Path.of(compressedFilePath));
+            if (level < 0 || level >= reader.getLevelCount()) {
+                throw new IOException("The file has " + reader.getLevelCount() + " levels, level " + level + " does not exist");
+            }
+            String cacheKey = cache == null ? null
+                    : cache.key(Path.of(compressedFilePath), filter.getName() + "/level-" + level);
+            ByteBuffer cachedBmp = cacheKey == null ? null : cache.get(cacheKey);
+            BufferedImage outputImg = null;
+
+            if (cachedBmp != null) {
+                console.showStage("serving-image-from-cache", "==> Serving image from cache...");
+            } else {
+                int compressionFactor = reader.getLevelFactor(level);
+                int numCols = reader.getLevelCols(level);
+                int numRows = reader.getLevelRows(level);
 
-                int calculatedCol = i % numCols;
-                int calculatedRow = i / numCols;
+                console.showStage("building-pixel-buffer", "==> Building pixel buffer...");
+                int[] pixelBuffer = new int[numRows * numCols];
+                try (StageMetrics.Timer timer = metrics.start("decode")) {
+                    reader.readLevel(level, pixelBuffer);
+                    timer.bytesIn(reader.getFileSize()).pixels(pixelBuffer.length);
+                }
 
-                pixelBuffer[calculatedRow][calculatedCol] = new Color(red, green, blue);
+                console.showStage("building-image",
+                        "==> Building image by using " + filter.getName() + " reconstruction...");
+                outputImg = buildDecompressedImage(pixelBuffer, numCols, numRows, compressionFactor, filter);
+                if (cacheKey != null) {
+                    cachedBmp = cache.put(cacheKey, outputImg);
+                }
             }
 
-            return pixelBuffer;
+            console.showStage("rendering-image-to-specified-file", "==> Rendering image to specified file...");
+            render(outputName, outputImg, cachedBmp);
+
+            console.showInfo("==> Level " + level + " of " + reader.getLevelCount() + " correctly decompressed!");
+            return true;
+        } catch (NoSuchFileException e) {
+            console.showInfo("==> The provided file path was not found!");
+            console.showInfo(String.valueOf(e));
+            return false;
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            console.showInfo(String.valueOf(e));
+            return false;
         }
     }
 
     /**
-     * Builds a decompressed image using bilinear interpolations.
+     * Writes a decompressed image, copying the BMP file held by the cache when there is one instead of encoding
+     * the image again.
      *
-     * @param pixelBuffer      The pixel buffer containing color information.
-     * @param cols             The number of columns in the decompressed image.
-     * @param rows             The number of rows in the decompressed image.
-     * @param compressionFactor The compression factor (e.g., quality level).
-     * @return The decompressed image as a `BufferedImage`.
+     * @param outputName The name of the decompressed output file.
+     * @param image      The decompressed image, or `null` when it was served from the cache.
+     * @param cachedBmp  The BMP file of the image held by the cache, or `null` if it is not cached.
+     * @throws IOException If an I/O error occurs during writing.
      */
-    private BufferedImage buildDecompressedImage(Color[][] pixelBuffer, int cols, int rows, int compressionFactor) {
-        BufferedImage image = new BufferedImage(cols * compressionFactor - compressionFactor, rows * compressionFactor - compressionFactor, BufferedImage.TYPE_INT_RGB);
+    private void render(String outputName, BufferedImage image, ByteBuffer cachedBmp) throws IOException {
+        if (cachedBmp != null) {
+            fileHandler.renderEncodedImage(outputName, "bmp", cachedBmp);
+        } else {
+            fileHandler.renderBufferedImage(outputName, "bmp", image);
+        }
+    }
 
-        for (int y = 0; y < rows * compressionFactor - compressionFactor; y++) {
-            for (int x = 0; x < cols * compressionFactor - compressionFactor; x++) {
-                Tuple<Integer, Integer> p = new Tuple<>(x, y);
-                Color intermediateColor = bilinearInterpolation(p, compressionFactor, pixelBuffer);
-                image.setRGB(x, y, intermediateColor.getRGB());
-            }
+    /**
+     * Decompresses a window of the image into a file.
+     *
+     * @param compressedFilePath The path to the compressed image file.
+     * @param outputName         The name of the decompressed output file.
+     * @param x                  The left edge of the window in decompressed pixels.
+     * @param y                  The top edge of the window in decompressed pixels.
+     * @param width              The width of the window.
+     * @param height             The height of the window.
+     * @param filter             The filter used to rebuild the pixels between blocks.
+     * @return `true` if the window is successfully decompressed, `false` otherwise.
+     */
+    public boolean decompressRegion(String compressedFilePath, String outputName, int x, int y, int width, int height,
+                                    ReconstructionFilter filter) {
+        console.showStage("starting-region-decompression", "==> Starting region decompression...");
+        try {
+            BufferedImage outputImg = decompressRegion(compressedFilePath, x, y, width, height, filter);
+
+            console.showStage("rendering-image-to-specified-file", "==> Rendering image to specified file...");
+            fileHandler.renderBufferedImage(outputName, "bmp", outputImg);
+
+            console.showInfo("==> Image correctly decompressed!");
+            return true;
+        } catch (NoSuchFileException e) {
+            console.showInfo("==> The provided file path was not found!");
+            console.showInfo(String.valueOf(e));
+            return false;
+        } catch (IOException | IllegalArgumentException e) {
+            console.showInfo(String.valueOf(e));
+            return false;
+        }
+    }
+
+    /**
+     * Decompresses a window of the image, decoding only the blocks around it.
+     * With a tiled container only the tiles overlapping the window (plus the few blocks the filter reaches
+     * beyond it) are read from the file.
+     *
+     * @param compressedFilePath The path to the compressed image file.
+     * @param x                  The left edge of the window in decompressed pixels.
+     * @param y                  The top edge of the window in decompressed pixels.
+     * @param width              The width of the window.
+     * @param height             The height of the window.
+     * @param filter             The filter used to rebuild the pixels between blocks.
+     * @return The pixels of the window.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If the window lies outside the decompressed image.
+     */
+    public BufferedImage decompressRegion(String compressedFilePath, int x, int y, int width, int height,
+                                          ReconstructionFilter filter) throws IOException {
+        console.showStage("calculating-image-data", "==> Calculating image data...");
+        MappedBlockReader reader = new MappedBlockReader(Path.of(compressedFilePath));
+        int factor = reader.getCompressionFactor();
+        int cols = reader.getCols();
+        int rows = reader.getRows();
+
+        if (x < 0 || y < 0 || width <= 0 || height <= 0
+                || x + width > (cols - 1) * factor || y + height > (rows - 1) * factor) {
+            throw new IllegalArgumentException("The region must lie inside the " + (cols - 1) * factor + "x"
+                    + (rows - 1) * factor + " decompressed image");
+        }
+
+        int cellX0 = x / factor;
+        int cellY0 = y / factor;
+        int cellX1 = (x + width + factor - 1) / factor;
+        int cellY1 = (y + height + factor - 1) / factor;
+        int blockX0 = Math.max(0, cellX0 - FILTER_MARGIN);
+        int blockY0 = Math.max(0, cellY0 - FILTER_MARGIN);
+        int blockX1 = Math.min(cols, cellX1 + 1 + FILTER_MARGIN);
+        int blockY1 = Math.min(rows, cellY1 + 1 + FILTER_MARGIN);
+        int blockCols = blockX1 - blockX0;
+        int blockRows = blockY1 - blockY0;
+
+        console.showStage("building-pixel-buffer", "==> Building pixel buffer...");
+        int[] blocks = new int[blockCols * blockRows];
+        try (StageMetrics.Timer timer = metrics.start("decode-region")) {
+            reader.readRegion(blockX0, blockY0, blockX1, blockY1, blocks);
+            timer.pixels(blocks.length);
+        }
+
+        console.showStage("building-image",
+                "==> Building image by using " + filter.getName() + " reconstruction...");
+        int cellsWidth = (cellX1 - blockX0) * factor;
+        int[] cells = new int[cellsWidth * (cellY1 - blockY0) * factor];
+        try (StageMetrics.Timer timer = metrics.start("reconstruct")) {
+            filter.reconstruct(blocks, blockCols, blockRows, factor, cells, cellsWidth,
+                    cellX0 - blockX0, cellY0 - blockY0, cellX1 - blockX0, cellY1 - blockY0);
+            timer.pixels(cells.length);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] output = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int left = x - blockX0 * factor;
+        int top = y - blockY0 * factor;
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(cells, (top + row) * cellsWidth + left, output, row * width, width);
         }
 
         return image;
     }
 
     /**
-     * Performs bilinear interpolation to calculate an intermediate color.
+     * Generates a pixel buffer from the memory-mapped compressed file.
      *
-     * @param p                The pixel coordinates (x, y) for interpolation.
+     * @param reader  The reader of the mapped compressed file.
+     * @param numRows The number of rows in the image.
+     * @param numCols The number of columns in the image.
+     * @return The pixel buffer containing packed RGB values, row by row.
+     * @throws IOException If the compressed data is corrupt or has more blocks than an array holds.
+     */
+    static int[] generatePixelBuffer(MappedBlockReader reader, int numRows, int numCols) throws IOException {
+        return generatePixelBuffer(reader, numRows, numCols, null);
+    }
+
+    /**
+     * Generates a pixel buffer from the memory-mapped compressed file, marking the flat cells of a quadtree file
+     * as its leaves are decoded.
+     *
+     * @param reader    The reader of the mapped compressed file.
+     * @param numRows   The number of rows in the image.
+     * @param numCols   The number of columns in the image.
+     * @param flatCells The cells to mark, or `null`.
+     * @return The pixel buffer containing packed RGB values, row by row.
+     * @throws IOException If the compressed data is corrupt or has more blocks than an array holds.
+     */
+    static int[] generatePixelBuffer(MappedBlockReader reader, int numRows, int numCols, FlatCells flatCells)
+            throws IOException {
+        long blockCount = (long) numRows * numCols;
+        if (blockCount > Integer.MAX_VALUE - 8) {
+            throw new IOException("The compressed image has too many blocks: " + numCols + "x" + numRows);
+        }
+        int[] pixelBuffer = new int[(int) blockCount];
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("decode")) {
+            reader.readBlocks(pixelBuffer, flatCells);
+            timer.bytesIn(reader.getFileSize()).pixels(pixelBuffer.length);
+        }
+        return pixelBuffer;
+    }
+
+    /**
+     * Builds a decompressed image with the given reconstruction filter.
+     * The output is split into square tiles aligned to the interpolation cells, and the tiles are processed
+     * in parallel, each one writing packed RGB values straight into the raster's `int[]` data buffer.
+     * The filter is only read, so any number of threads can build images at once.
+     *
+     * @param pixelBuffer       The pixel buffer containing packed RGB values.
+     * @param cols              The number of columns in the pixel buffer.
+     * @param rows              The number of rows in the pixel buffer.
      * @param compressionFactor The compression factor (e.g., quality level).
-     * @param colors           The pixel buffer containing color information.
-     * @return The interpolated color at the specified pixel coordinates.
+     * @param filter            The filter used to rebuild the pixels between blocks.
+     * @return The decompressed image as a `BufferedImage`.
      */
-    private Color bilinearInterpolation(Tuple<Integer, Integer> p, int compressionFactor, Color[][] colors) {
-        int x = p.x / compressionFactor;
-        int y = p.y / compressionFactor;
+    static BufferedImage buildDecompressedImage(int[] pixelBuffer, int cols, int rows, int compressionFactor, ReconstructionFilter filter) {
+        return buildDecompressedImage(pixelBuffer, cols, rows, compressionFactor, filter, null);
+    }
 
-        Color q11 = colors[y][x]; // bottom left
-        Color q12 = colors[y + 1][x]; // top left
-        Color q21 = colors[y][x + 1]; // bottom right
-        Color q22 = colors[y + 1][x + 1]; // top right
+    /**
+     * Builds a decompressed image with the given reconstruction filter, filling the flat cells with the color of
+     * their block instead of running the filter over them.
+     *
+     * @param pixelBuffer       The pixel buffer containing packed RGB values.
+     * @param cols              The number of columns in the pixel buffer.
+     * @param rows              The number of rows in the pixel buffer.
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param filter            The filter used to rebuild the pixels between blocks.
+     * @param flatCells         The cells whose blocks within reach of the filter share one color, or `null`.
+     * @return The decompressed image as a `BufferedImage`.
+     */
+    static BufferedImage buildDecompressedImage(int[] pixelBuffer, int cols, int rows, int compressionFactor,
+                                                ReconstructionFilter filter, FlatCells flatCells) {
+        int width = cols * compressionFactor - compressionFactor;
+        int height = rows * compressionFactor - compressionFactor;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] output = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        int tileCells = Math.max(1, TILE_SIZE / compressionFactor);
+        int tilesX = (cols - 1 + tileCells - 1) / tileCells;
+        int tilesY = (rows - 1 + tileCells - 1) / tileCells;
 
-        float x1 = x * compressionFactor;
-        float x2 = x1 + compressionFactor;
-        float y1 = y * compressionFactor;
-        float y2 = y1 + compressionFactor;
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("reconstruct")) {
+            IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+                int cellX0 = (tile % tilesX) * tileCells;
+                int cellY0 = (tile / tilesX) * tileCells;
+                int cellX1 = Math.min(cellX0 + tileCells, cols - 1);
+                int cellY1 = Math.min(cellY0 + tileCells, rows - 1);
 
-        float x_diff = (p.x - x1) / (x2 - x1);
-        float y_diff = (p.y - y1) / (y2 - y1);
+                if (flatCells == null) {
+                    filter.reconstruct(pixelBuffer, cols, rows, compressionFactor, output, width,
+                            cellX0, cellY0, cellX1, cellY1);
+                } else {
+                    flatCells.reconstruct(pixelBuffer, compressionFactor, filter, output, width,
+                            cellX0, cellY0, cellX1, cellY1);
+                }
+            });
+            timer.pixels(output.length);
+        }
 
-        return new Color(
-                interpolate(q11.getRed(), q12.getRed(), q21.getRed(), q22.getRed(), x_diff, y_diff),
-                interpolate(q11.getGreen(), q12.getGreen(), q21.getGreen(), q22.getGreen(), x_diff, y_diff),
-                interpolate(q11.getBlue(), q12.getBlue(), q21.getBlue(), q22.getBlue(), x_diff, y_diff)
-        );
+        return image;
     }
 
     /**
-     * Interpolates color values based on bilinear interpolation.
-     *
-     * @param q11    Color value at the bottom left corner.
-     * @param q12    Color value at the top left corner.
-     * @param q21    Color value at the bottom right corner.
-     * @param q22    Color value at the top right corner.
-     * @param xDiff  Interpolation factor along the x-axis.
-     * @param yDiff  Interpolation factor along the y-axis.
-     * @return The interpolated color value.
+     * The cells that a filter rebuilds from blocks of a single color, which therefore come out in that color.
+     * The cells inside every quadtree leaf are marked while the file is decoded, and the cells near leaf edges
+     * are checked against their blocks when their tile is rebuilt, so neighbouring leaves of the same color stay
+     * flat as well. Flat cells are filled without any filter arithmetic and only the others are interpolated.
      */
-    private int interpolate(int q11, int q12, int q21, int q22, float xDiff, float yDiff) {
-        int b1 = (int) (q11 * (1 - xDiff) * (1 - yDiff));
-        int b2 = (int) (q21 * xDiff * (1 - yDiff));
-        int b3 = (int) (q12 * (1 - xDiff) * yDiff);
-        int b4 = (int) (q22 * xDiff * yDiff);
+    static final class FlatCells implements QuadtreeLeafConsumer {
+        private final int cols;
+        private final int rows;
+        private final int radius;
+        private final boolean[] flat;
 
-        return b1 + b2 + b3 + b4;
+        FlatCells(int cols, int rows, int radius) {
+            this.cols = cols;
+            this.rows = rows;
+            this.radius = radius;
+            this.flat = new boolean[(cols - 1) * (rows - 1)];
+        }
+
+        /**
+         * @return The cells to mark while decoding the file, or `null` if it does not store merged leaves.
+         */
+        static FlatCells forReader(MappedBlockReader reader, ReconstructionFilter filter) {
+            if (reader.getFormat() != CompressedFormat.QUADTREE || reader.getCols() < 2 || reader.getRows() < 2) {
+                return null;
+            }
+            return new FlatCells(reader.getCols(), reader.getRows(), filter.getRadius());
+        }
+
+        /**
+         * Marks the cells whose blocks within reach of the filter all lie inside the leaf. Blocks past the image
+         * edges are clamped to it, so a leaf touching an edge also covers the blocks the filter reads beyond it.
+         */
+        @Override
+        public void accept(int x, int y, int span, int rgb) {
+            int x1 = Math.min(x + span, cols);
+            int y1 = Math.min(y + span, rows);
+            int cellX0 = x == 0 ? 0 : x + radius - 1;
+            int cellY0 = y == 0 ? 0 : y + radius - 1;
+            int cellX1 = x1 == cols ? cols - 1 : x1 - radius;
+            int cellY1 = y1 == rows ? rows - 1 : y1 - radius;
+
+            for (int cellY = cellY0; cellY < cellY1 && cellX0 < cellX1; cellY++) {
+                Arrays.fill(flat, cellY * (cols - 1) + cellX0, cellY * (cols - 1) + cellX1, true);
+            }
+        }
+
+        /**
+         * @return Whether the cell lies inside a leaf, or every block within reach of the filter has one color.
+         */
+        boolean isFlat(int[] blocks, int cellX, int cellY) {
+            if (flat[cellY * (cols - 1) + cellX]) {
+                return true;
+            }
+
+            int x0 = Math.max(0, cellX - radius + 1);
+            int x1 = Math.min(cols - 1, cellX + radius);
+            int y0 = Math.max(0, cellY - radius + 1);
+            int y1 = Math.min(rows - 1, cellY + radius);
+            int color = blocks[y0 * cols + x0];
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    if (blocks[y * cols + x] != color) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Rebuilds a rectangle of cells, filling the flat ones and running the filter over the others.
+         * Consecutive cell rows holding cells to filter are grouped into one rectangle spanning all of those
+         * cells, since a separable filter reads `2 * radius - 1` extra rows of blocks for every rectangle; when
+         * the rectangles would cost as much as the whole tile, the tile is filtered as usual.
+         */
+        void reconstruct(int[] blocks, int factor, ReconstructionFilter filter, int[] output, int width,
+                         int cellX0, int cellY0, int cellX1, int cellY1) {
+            int tileCols = cellX1 - cellX0;
+            int tileRows = cellY1 - cellY0;
+            boolean[] tileFlat = new boolean[tileCols * tileRows];
+            // the columns to filter of every row, empty while first >= last, and the rectangle each row falls in
+            int[] first = new int[tileRows];
+            int[] last = new int[tileRows];
+            int[] group = new int[tileRows];
+            int halo = 2 * radius - 1;
+
+            for (int row = 0, groupStart = -1; row < tileRows; row++) {
+                first[row] = cellX1;
+                last[row] = cellX0;
+                for (int cellX = cellX0; cellX < cellX1; cellX++) {
+                    if (isFlat(blocks, cellX, cellY0 + row)) {
+                        tileFlat[row * tileCols + cellX - cellX0] = true;
+                    } else {
+                        first[row] = Math.min(first[row], cellX);
+                        last[row] = cellX + 1;
+                    }
+                }
+
+                if (first[row] >= last[row]) {
+                    groupStart = -1;
+                    group[row] = -1;
+                    continue;
+                }
+                if (groupStart < 0) {
+                    groupStart = row;
+                } else {
+                    first[groupStart] = Math.min(first[groupStart], first[row]);
+                    last[groupStart] = Math.max(last[groupStart], last[row]);
+                }
+                group[row] = groupStart;
+            }
+
+            long filtered = 0;
+            for (int row = 0; row < tileRows; row++) {
+                if (group[row] == row) {
+                    filtered += (long) (last[row] - first[row]) * (groupEnd(group, row) - row + halo);
+                }
+            }
+            if (filtered >= (long) tileCols * (tileRows + halo)) {
+                filter.reconstruct(blocks, cols, rows, factor, output, width, cellX0, cellY0, cellX1, cellY1);
+                return;
+            }
+
+            for (int row = 0; row < tileRows; row++) {
+                int cellY = cellY0 + row;
+                int spanX0 = group[row] < 0 ? cellX1 : first[group[row]];
+                int spanX1 = group[row] < 0 ? cellX0 : last[group[row]];
+
+                // flat cells inside a rectangle are left to the filter, which rebuilds them in the same color
+                for (int cellX = cellX0; cellX < cellX1; cellX++) {
+                    if ((cellX < spanX0 || cellX >= spanX1) && tileFlat[row * tileCols + cellX - cellX0]) {
+                        int color = blocks[cellY * cols + cellX];
+                        for (int py = cellY * factor; py < (cellY + 1) * factor; py++) {
+                            Arrays.fill(output, py * width + cellX * factor, py * width + (cellX + 1) * factor, color);
+                        }
+                    }
+                }
+
+                if (group[row] == row) {
+                    filter.reconstruct(blocks, cols, rows, factor, output, width,
+                            spanX0, cellY, spanX1, cellY0 + groupEnd(group, row));
+                }
+            }
+        }
+
+        /**
+         * @return The row after the last one of the rectangle starting at `start`.
+         */
+        private static int groupEnd(int[] group, int start) {
+            int end = start;
+            while (end < group.length && group[end] == start) {
+                end++;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * A reconstructed band of output rows, or the reason it could not be built.
+     */
+    private static final class Band {
+        private static final Band END = new Band(0, 0, null, 0, null);
+
+        private final int y;
+        private final int count;
+        private final int[] pixels;
+        private final int offset;
+        private final Exception error;
+
+        private Band(int y, int count, int[] pixels, int offset, Exception error) {
+            this.y = y;
+            this.count = count;
+            this.pixels = pixels;
+            this.offset = offset;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Drains the band queue into the BMP file until the end marker, remembering the first failure.
+     */
+    private static final class BandWriter implements Runnable {
+        private final BlockingQueue<Band> bands;
+        private final BmpRowWriter writer;
+        private final Semaphore inFlight;
+        private final BlockingQueue<int[]> freeBuffers;
+        private volatile Exception error = null;
+
+        private BandWriter(BlockingQueue<Band> bands, BmpRowWriter writer, Semaphore inFlight, BlockingQueue<int[]> freeBuffers) {
+            this.bands = bands;
+            this.writer = writer;
+            this.inFlight = inFlight;
+            this.freeBuffers = freeBuffers;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Band band = bands.take(); band != Band.END; band = bands.take()) {
+                    try {
+                        if (band.error != null) {
+                            throw band.error;
+                        } else if (error == null) {
+                            writer.writeRows(band.y, band.count, band.pixels, band.offset);
+                            freeBuffers.offer(band.pixels);
+                        }
+                    } catch (Exception e) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                error = e;
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
@@ -0,0 +1,316 @@
+import filters.ReconstructionFilter;
+import tools.BlockFileWriter;
+import tools.CompressedFormat;
+import tools.CompressionTarget;
+import tools.IOHandler;
+import tools.ImageQuality;
+import tools.MappedBlockReader;
+import tools.SummedAreaTable;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The `FactorSelector` class chooses the compression factor of an image from a quality or size target instead
+ * of a guessed integer.
+ * Quality is estimated on a grid of sampled tiles: the blocks around each tile are averaged from the summed-area
+ * tables of the image, which are built once and shared by every candidate, and only the tiles are rebuilt with
+ * the reconstruction filter and compared with the source. Sizes come from actually encoding the candidate, also
+ * from the tables. Both quality and size are assumed to fall as the factor grows, so the factors are binary
+ * searched and each candidate is evaluated at most once.
+ *
+ * @author Pepe Salcedo
+ */
+public class FactorSelector {
+    public static final int MAX_FACTOR = 64;
+    private static final int TILE_SIZE = 64;
+    private static final int SAMPLE_GRID = 4;
+    // blocks decoded beyond a tile so even the widest filter (Lanczos) sees the same neighbours
+    private static final int FILTER_MARGIN = 3;
+    // rows compared at once when measuring a whole image, a multiple of the SSIM window
+    private static final int MEASURE_BAND = 64;
+
+    private final IOHandler console;
+    private final BufferedImage image;
+    private final SummedAreaTable table;
+    private final CompressedFormat format;
+    private final double threshold;
+    private final ReconstructionFilter filter;
+    private final int maxFactor;
+    private final Map<Integer, byte[]> encoded = new HashMap<>();
+    private final Map<Integer, ImageQuality> estimates = new HashMap<>();
+    private final Map<Integer, int[]> decodedBlocks = new HashMap<>();
+
+    /**
+     * Creates a selector for one image.
+     *
+     * @param console   The console receiving every evaluated candidate, or `null` for none.
+     * @param image     The source image.
+     * @param table     The summed-area tables of the image, with squares for the quadtree layout.
+     * @param format    The layout the image will be written in.
+     * @param threshold The variance threshold, only used by the quadtree layout.
+     * @param filter    The filter the image will be decompressed with.
+     * @throws IllegalArgumentException If the layout is the legacy one or the image is too small for any factor.
+     */
+    public FactorSelector(IOHandler console, BufferedImage image, SummedAreaTable table, CompressedFormat format,
+                          double threshold, ReconstructionFilter filter) {
+        if (format == CompressedFormat.LEGACY) {
+            throw new IllegalArgumentException("Factor selection needs a container layout, the legacy one cannot store every factor");
+        }
+        this.console = console;
+        this.image = image;
+        this.table = table;
+        this.format = format;
+        this.threshold = threshold;
+        this.filter = filter;
+        // every factor must leave at least 2x2 blocks to interpolate between
+        this.maxFactor = Math.min(MAX_FACTOR, Math.min(image.getWidth(), image.getHeight()) - 1);
+        if (maxFactor < 2) {
+            throw new IllegalArgumentException("The image is too small to be compressed");
+        }
+    }
+
+    /**
+     * @return The largest factor considered for this image.
+     */
+    public int getMaxFactor() {
+        return maxFactor;
+    }
+
+    /**
+     * Searches the factor that best meets the target. With a quality target it is the largest factor whose
+     * sampled quality meets it, which gives the smallest file. With a size target it is the smallest factor
+     * whose file fits, which gives the best quality. With both, the size wins whenever they conflict.
+     * When no factor meets the target, the closest one is returned; check it with `CompressionTarget.isMetBy`.
+     *
+     * @param target The quality and size targets.
+     * @return The chosen compression factor.
+     * @throws IOException If a candidate cannot be encoded.
+     */
+    public int select(CompressionTarget target) throws IOException {
+        int qualityFactor = 2;
+        if (target.hasQualityTarget()) {
+            int low = 2;
+            int high = maxFactor;
+            if (!target.isMetBy(sampledQuality(low))) {
+                high = low;
+            }
+            while (low < high) {
+                int middle = (low + high + 1) / 2;
+                if (target.isMetBy(sampledQuality(middle))) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            qualityFactor = low;
+        }
+
+        if (!target.hasSizeTarget()) {
+            return qualityFactor;
+        }
+
+        int low = 2;
+        int high = maxFactor;
+        if (!target.isMetBy(encodedSize(high))) {
+            low = high;
+        }
+        while (low < high) {
+            int middle = (low + high) / 2;
+            if (target.isMetBy(encodedSize(middle))) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return Math.max(low, qualityFactor);
+    }
+
+    /**
+     * Estimates the quality of a factor from the sampled tiles.
+     *
+     * @param factor The compression factor.
+     * @return The quality over every sampled tile.
+     * @throws IOException If the quadtree candidate cannot be encoded and decoded.
+     */
+    public ImageQuality sampledQuality(int factor) throws IOException {
+        ImageQuality cached = estimates.get(factor);
+        if (cached != null) {
+            return cached;
+        }
+
+        int cols = (image.getWidth() + factor - 1) / factor;
+        int rows = (image.getHeight() + factor - 1) / factor;
+        int[] blocks = format == CompressedFormat.QUADTREE ? decodedBlocks(factor, cols, rows) : null;
+        int width = (cols - 1) * factor;
+        int height = (rows - 1) * factor;
+        int tileWidth = Math.min(width, Math.max(TILE_SIZE, 4 * factor));
+        int tileHeight = Math.min(height, Math.max(TILE_SIZE, 4 * factor));
+        int tilesX = width <= tileWidth * SAMPLE_GRID ? Math.max(1, width / tileWidth) : SAMPLE_GRID;
+        int tilesY = height <= tileHeight * SAMPLE_GRID ? Math.max(1, height / tileHeight) : SAMPLE_GRID;
+
+        ImageQuality[] tiles = new ImageQuality[tilesX * tilesY];
+        IntStream.range(0, tiles.length).parallel().forEach(tile -> {
+            int x = tilesX == 1 ? (width - tileWidth) / 2 : (width - tileWidth) * (tile % tilesX) / (tilesX - 1);
+            int y = tilesY == 1 ? (height - tileHeight) / 2 : (height - tileHeight) * (tile / tilesX) / (tilesY - 1);
+            tiles[tile] = tileQuality(factor, cols, rows, blocks, x, y, tileWidth, tileHeight);
+        });
+
+        ImageQuality quality = new ImageQuality();
+        for (ImageQuality tile : tiles) {
+            quality.add(tile);
+        }
+        estimates.put(factor, quality);
+        report("==> Factor " + factor + ": sampled " + quality);
+        return quality;
+    }
+
+    /**
+     * @param factor The compression factor.
+     * @return The sampled quality of the factor if the search estimated it, `null` otherwise.
+     */
+    public ImageQuality getEstimate(int factor) {
+        return estimates.get(factor);
+    }
+
+    /**
+     * @param factor The compression factor.
+     * @return The size of the compressed file at that factor.
+     * @throws IOException If the candidate cannot be encoded.
+     */
+    public long encodedSize(int factor) throws IOException {
+        boolean known = encoded.containsKey(factor);
+        long size = encode(factor).length;
+        if (!known) {
+            report("==> Factor " + factor + ": " + size + " bytes");
+        }
+        return size;
+    }
+
+    /**
+     * Encodes the image at a factor, or returns the file already encoded while searching.
+     *
+     * @param factor The compression factor.
+     * @return The compressed file.
+     * @throws IOException If the image cannot be encoded.
+     */
+    public byte[] encode(int factor) throws IOException {
+        byte[] file = encoded.get(factor);
+        if (file == null) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            BlockFileWriter writer = new BlockFileWriter(Channels.newChannel(output));
+            try {
+                Compressor.encodeFromTable(table, factor, format, threshold, writer);
+            } finally {
+                writer.finish();
+            }
+            file = output.toByteArray();
+            encoded.put(factor, file);
+        }
+        return file;
+    }
+
+    /**
+     * Decompresses the file of a factor and compares the whole image with the source.
+     *
+     * @param factor The compression factor.
+     * @return The quality of the complete round trip.
+     * @throws IOException If the file cannot be encoded or decoded.
+     */
+    public ImageQuality roundTrip(int factor) throws IOException {
+        MappedBlockReader reader = new MappedBlockReader(ByteBuffer.wrap(encode(factor)));
+        int[] pixelBuffer = Decompressor.generatePixelBuffer(reader, reader.getRows(), reader.getCols());
+        BufferedImage decoded = Decompressor.buildDecompressedImage(pixelBuffer, reader.getCols(), reader.getRows(), factor, filter);
+        return measure(image, decoded, factor);
+    }
+
+    /**
+     * Compares a decompressed image with its source. Pixel `(x, y)` of the decompressed image sits on the
+     * center of the block it starts from, so it is compared with the source pixel half a block further.
+     *
+     * @param source  The source image.
+     * @param decoded The decompressed image.
+     * @param factor  The compression factor the image was compressed with.
+     * @return The quality of the decompressed image.
+     */
+    static ImageQuality measure(BufferedImage source, BufferedImage decoded, int factor) {
+        int offset = (factor - 1) / 2;
+        int sourceWidth = source.getWidth();
+        int width = Math.min(decoded.getWidth(), sourceWidth - offset);
+        int height = Math.min(decoded.getHeight(), source.getHeight() - offset);
+        int[] pixels = ((DataBufferInt) decoded.getRaster().getDataBuffer()).getData();
+        int[] band = new int[MEASURE_BAND * sourceWidth];
+        ImageQuality quality = new ImageQuality();
+
+        for (int y = 0; y < height; y += MEASURE_BAND) {
+            int count = Math.min(MEASURE_BAND, height - y);
+            Compressor.readBand(source, y + offset, count, band);
+            quality.add(band, offset, sourceWidth, pixels, y * decoded.getWidth(), decoded.getWidth(), width, count);
+        }
+        return quality;
+    }
+
+    /**
+     * Rebuilds one tile of the decompressed image from the blocks around it and compares it with the source.
+     */
+    private ImageQuality tileQuality(int factor, int cols, int rows, int[] decoded, int x, int y, int width, int height) {
+        int cellX0 = x / factor;
+        int cellY0 = y / factor;
+        int cellX1 = (x + width + factor - 1) / factor;
+        int cellY1 = (y + height + factor - 1) / factor;
+        int blockX0 = Math.max(0, cellX0 - FILTER_MARGIN);
+        int blockY0 = Math.max(0, cellY0 - FILTER_MARGIN);
+        int blockX1 = Math.min(cols, cellX1 + 1 + FILTER_MARGIN);
+        int blockY1 = Math.min(rows, cellY1 + 1 + FILTER_MARGIN);
+        int blockCols = blockX1 - blockX0;
+        int blockRows = blockY1 - blockY0;
+
+        int[] blocks = new int[blockCols * blockRows];
+        for (int by = blockY0, i = 0; by < blockY1; by++) {
+            for (int bx = blockX0; bx < blockX1; bx++, i++) {
+                blocks[i] = decoded != null ? decoded[by * cols + bx] : table.averageBlock(factor, bx, by);
+            }
+        }
+
+        int cellsWidth = (cellX1 - blockX0) * factor;
+        int[] cells = new int[cellsWidth * (cellY1 - blockY0) * factor];
+        filter.reconstruct(blocks, blockCols, blockRows, factor, cells, cellsWidth,
+                cellX0 - blockX0, cellY0 - blockY0, cellX1 - blockX0, cellY1 - blockY0);
+
+        int offset = (factor - 1) / 2;
+        int sourceWidth = Math.min(width, image.getWidth() - x - offset);
+        int sourceHeight = Math.min(height, image.getHeight() - y - offset);
+        int[] source = image.getRGB(x + offset, y + offset, sourceWidth, sourceHeight, null, 0, sourceWidth);
+
+        ImageQuality quality = new ImageQuality();
+        quality.add(source, 0, sourceWidth, cells, (y - blockY0 * factor) * cellsWidth + x - blockX0 * factor,
+                cellsWidth, sourceWidth, sourceHeight);
+        return quality;
+    }
+
+    /**
+     * Decodes the block colors of a quadtree candidate, where merged squares change the blocks.
+     */
+    private int[] decodedBlocks(int factor, int cols, int rows) throws IOException {
+        int[] blocks = decodedBlocks.get(factor);
+        if (blocks == null) {
+            blocks = new int[cols * rows];
+            new MappedBlockReader(ByteBuffer.wrap(encode(factor))).readBlocks(blocks);
+            decodedBlocks.put(factor, blocks);
+        }
+        return blocks;
+    }
+
+    private void report(String message) {
+        if (console != null) {
+            console.showInfo(message);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+import filters.BilinearFilter;
+import filters.ReconstructionFilter;
+import tools.BlockFileWriter;
+import tools.BmpCodec;
+import tools.CompressedFormat;
+import tools.CompressionTarget;
+import tools.MappedBlockReader;
+import tools.MemoryBudget;
+import tools.QuadtreeBlockCodec;
+import tools.SummedAreaTable;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The `ImageCodec` class compresses and decompresses images held in memory, for embedding the compressor in a
+ * server instead of running it on files from the console.
+ * A codec only holds its immutable settings and every call works on its own buffers (plus scratch buffers borrowed
+ * from shared pools), so a single codec can serve any number of concurrent requests. Images and BMP files are
+ * taken from and returned as byte arrays, `ByteBuffer`s or streams; streams are never closed.
+ *
+ * @author Pepe Salcedo
+ */
+public final class ImageCodec {
+    private final int compressionFactor;
+    private final CompressedFormat format;
+    private final ReconstructionFilter filter;
+    private final double threshold;
+
+    /**
+     * Creates a codec writing the `DEFLATE` layout and decompressing with bilinear interpolation.
+     *
+     * @param compressionFactor The value by which the image will be divided by (must be larger than 1).
+     */
+    public ImageCodec(int compressionFactor) {
+        this(compressionFactor, CompressedFormat.DEFLATE, new BilinearFilter(), QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a codec with the given settings.
+     *
+     * @param compressionFactor The value by which the image will be divided by (must be larger than 1).
+     * @param format            The layout of the compressed files it writes. Any layout can be decompressed.
+     * @param filter            The filter used to rebuild the pixels between blocks.
+     * @param threshold         The variance threshold of the `QUADTREE` layout, ignored by the others.
+     * @throws IllegalArgumentException If a setting is out of range.
+     */
+    public ImageCodec(int compressionFactor, CompressedFormat format, ReconstructionFilter filter, double threshold) {
+        if (compressionFactor <= 1) {
+            throw new IllegalArgumentException("Compression factor must be an integer larger than 1");
+        } else if (format == null || filter == null) {
+            throw new IllegalArgumentException("The format and the filter are required");
+        } else if (threshold < 0) {
+            throw new IllegalArgumentException("The variance threshold cannot be negative");
+        }
+        this.compressionFactor = compressionFactor;
+        this.format = format;
+        this.filter = filter;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compresses an image.
+     *
+     * @param image The image to compress.
+     * @return The compressed file.
+     * @throws IOException If the image cannot be encoded.
+     */
+    public byte[] compress(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        compress(image, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Compresses an image into a stream.
+     *
+     * @param image  The image to compress.
+     * @param output The stream receiving the compressed file, left open.
+     * @throws IOException If the image cannot be encoded or the stream fails.
+     */
+    public void compress(BufferedImage image, OutputStream output) throws IOException {
+        if (image.getWidth() <= 0 || image.getHeight() <= 0) {
+            throw new IOException("Dimensions cannot be less than 1x1 pixels");
+        }
+
+        BlockFileWriter writer = new BlockFileWriter(Channels.newChannel(output));
+        try {
+            if (format == CompressedFormat.QUADTREE) {
+                long[] statistics = Compressor.generateBlockStatistics(image, compressionFactor);
+                Compressor.encodeQuadtree(statistics, compressionFactor, image.getWidth(), image.getHeight(), threshold, writer);
+            } else {
+                byte[] blockData = Compressor.generateBlockData(image, compressionFactor);
+                Compressor.encodeBlocks(blockData, compressionFactor, image.getWidth(), image.getHeight(), format, writer);
+            }
+        } finally {
+            writer.finish();
+        }
+    }
+
+    /**
+     * Compresses an image at several compression factors, in this codec's layout, from a single pass over its
+     * pixels through summed-area tables. The factor of the codec itself is not used.
+     *
+     * @param image              The image to compress.
+     * @param compressionFactors The factors to compress at (each must be larger than 1).
+     * @return The compressed file of every factor, in the order the factors were given.
+     * @throws IOException If the image cannot be encoded.
+     */
+    public Map<Integer, byte[]> compressFactors(BufferedImage image, int... compressionFactors) throws IOException {
+        for (int factor : compressionFactors) {
+            if (factor <= 1) {
+                throw new IllegalArgumentException("Compression factor must be an integer larger than 1");
+            }
+        }
+
+        SummedAreaTable table = Compressor.buildSummedAreaTable(image, format == CompressedFormat.QUADTREE);
+        Map<Integer, byte[]> outputs = new LinkedHashMap<>();
+        for (int factor : compressionFactors) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            BlockFileWriter writer = new BlockFileWriter(Channels.newChannel(output));
+            try {
+                Compressor.encodeFromTable(table, factor, format, threshold, writer);
+            } finally {
+                writer.finish();
+            }
+            outputs.put(factor, output.toByteArray());
+        }
+        return outputs;
+    }
+
+    /**
+     * Compresses an image at the factor that best meets a quality or size target, in this codec's layout, with
+     * quality measured after this codec's filter. The factor of the codec itself is not used.
+     *
+     * @param image  The image to compress.
+     * @param target The quality and size targets. If no factor meets it, the closest one is used.
+     * @return The compressed file, whose factor is in its header.
+     * @throws IOException If the image cannot be encoded.
+     */
+    public byte[] compress(BufferedImage image, CompressionTarget target) throws IOException {
+        SummedAreaTable table = Compressor.buildSummedAreaTable(image, format == CompressedFormat.QUADTREE);
+        FactorSelector selector = new FactorSelector(null, image, table, format, threshold, filter);
+        return selector.encode(selector.select(target));
+    }
+
+    /**
+     * Compresses a BMP file.
+     *
+     * @param bmp The whole BMP file.
+     * @return The compressed file.
+     * @throws IOException If the bytes are not a readable BMP file.
+     */
+    public byte[] compressBmp(byte[] bmp) throws IOException {
+        return compress(readBmp(ByteBuffer.wrap(bmp)));
+    }
+
+    /**
+     * Compresses a BMP file held in a buffer.
+     *
+     * @param bmp The whole BMP file, from the position to the limit of the buffer, which is not modified.
+     * @return The compressed file.
+     * @throws IOException If the bytes are not a readable BMP file.
+     */
+    public byte[] compressBmp(ByteBuffer bmp) throws IOException {
+        return compress(readBmp(bmp.slice()));
+    }
+
+    /**
+     * Compresses a BMP file read from a stream.
+     *
+     * @param bmp    The stream holding the BMP file, read to its end and left open.
+     * @param output The stream receiving the compressed file, left open.
+     * @throws IOException If the bytes are not a readable BMP file or a stream fails.
+     */
+    public void compressBmp(InputStream bmp, OutputStream output) throws IOException {
+        compress(readBmp(ByteBuffer.wrap(bmp.readAllBytes())), output);
+    }
+
+    /**
+     * Decompresses a compressed file.
+     *
+     * @param compressed The compressed file.
+     * @return The decompressed image.
+     * @throws IOException If the compressed data is corrupt.
+     */
+    public BufferedImage decompress(byte[] compressed) throws IOException {
+        return decompress(ByteBuffer.wrap(compressed));
+    }
+
+    /**
+     * Decompresses a compressed file held in a buffer.
+     *
+     * @param compressed The compressed file, from the position to the limit of the buffer, which is not modified.
+     * @return The decompressed image.
+     * @throws IOException If the compressed data is corrupt, or the image it declares exceeds the memory budget
+     *                     of the heap.
+     */
+    public BufferedImage decompress(ByteBuffer compressed) throws IOException {
+        MappedBlockReader reader = new MappedBlockReader(compressed);
+        int cols = reader.getCols();
+        int rows = reader.getRows();
+        if (cols < 2 || rows < 2) {
+            throw new IOException("The compressed image needs at least 2x2 blocks to be interpolated");
+        }
+
+        long width = (long) (cols - 1) * reader.getCompressionFactor();
+        long height = (long) (rows - 1) * reader.getCompressionFactor();
+        MemoryBudget budget = MemoryBudget.fromHeap();
+        if (!budget.fits(MemoryBudget.rasterBytes(width, height))) {
+            throw new IOException("The " + width + "x" + height + " image exceeds the memory budget of " + budget);
+        }
+
+        Decompressor.FlatCells flatCells = Decompressor.FlatCells.forReader(reader, filter);
+        int[] pixelBuffer = Decompressor.generatePixelBuffer(reader, rows, cols, flatCells);
+        return Decompressor.buildDecompressedImage(pixelBuffer, cols, rows, reader.getCompressionFactor(), filter,
+                flatCells);
+    }
+
+    /**
+     * Decompresses a compressed file read from a stream.
+     *
+     * @param compressed The stream holding the compressed file, read to its end and left open.
+     * @return The decompressed image.
+     * @throws IOException If the compressed data is corrupt or the stream fails.
+     */
+    public BufferedImage decompress(InputStream compressed) throws IOException {
+        return decompress(ByteBuffer.wrap(compressed.readAllBytes()));
+    }
+
+    /**
+     * Decompresses a compressed file into a BMP file.
+     *
+     * @param compressed The compressed file.
+     * @return The decompressed image as a 24 bit BMP file.
+     * @throws IOException If the compressed data is corrupt.
+     */
+    public byte[] decompressToBmp(byte[] compressed) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        decompressToBmp(ByteBuffer.wrap(compressed), output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Decompresses a compressed file into a BMP file written to a stream.
+     *
+     * @param compressed The compressed file, from the position to the limit of the buffer, which is not modified.
+     * @param output     The stream receiving the 24 bit BMP file, left open.
+     * @throws IOException If the compressed data is corrupt or the stream fails.
+     */
+    public void decompressToBmp(ByteBuffer compressed, OutputStream output) throws IOException {
+        BmpCodec.write(decompress(compressed), Channels.newChannel(output));
+    }
+
+    public int getCompressionFactor() {
+        return compressionFactor;
+    }
+
+    public CompressedFormat getFormat() {
+        return format;
+    }
+
+    public ReconstructionFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Reads a BMP file with the native codec, falling back to `ImageIO` for the variants it does not decode.
+     *
+     * @param bmp The whole BMP file, from position `0` of the buffer.
+     * @return The decoded image.
+     * @throws IOException If the bytes are not a readable BMP file.
+     */
+    private static BufferedImage readBmp(ByteBuffer bmp) throws IOException {
+        try {
+            return BmpCodec.read(bmp);
+        } catch (BmpCodec.UnsupportedBmpException e) {
+            byte[] bytes = new byte[bmp.remaining()];
+            bmp.duplicate().get(bytes);
+
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null) {
+                throw new IOException("Not a readable BMP file", e);
+            }
+            return image;
+        }
+    }
+}
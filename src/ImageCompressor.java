@@ -1,5 +1,8 @@
+import filters.ReconstructionFilter;
+import tools.DecodedImageCache;
 import tools.FileHandler;
 import tools.IOConsole;
+import tools.StageMetrics;
 
 /**
  * @author Pepe Salcedo
@@ -11,6 +14,15 @@ public class ImageCompressor {
     private static final FileHandler fileHandler = FileHandler.getInstance(console);
     private static final Decompressor decompressor = Decompressor.getInstance(console, fileHandler);
     private static final Compressor compressor = Compressor.getInstance(console, fileHandler);
+    private static final BatchCompressor batchCompressor = new BatchCompressor(console, fileHandler, compressor);
+    // decompressing the same file again during a session is served from memory
+    private static final long CACHE_CAPACITY_BYTES = 256L << 20;
+
+    static {
+        decompressor.setCache(new DecodedImageCache(CACHE_CAPACITY_BYTES, false));
+        // the interactive program may run for a long time, so its stages can be watched from any JMX console
+        StageMetrics.getInstance().registerMBeans();
+    }
 
     /**
      * Shows a menu on the screen with compression and decompression options
@@ -57,6 +69,22 @@ public class ImageCompressor {
     public static void decompressImage(String compressedFilePath, String outputName) {
         if (decompressor.decompressImage(compressedFilePath, outputName)) {
             console.showInfo("==> Image correctly decompressed at the given path!");
+            console.showInfo("==> Cache: " + decompressor.getCache());
+        } else {
+            console.showInfo("==> Error decompressing image. Try again later.");
+        }
+    }
+
+    /**
+     * Decompresses an image with the reconstruction filter of the given name.
+     *
+     * @param compressedFilePath The path to the compressed image file.
+     * @param outputName         The name of the decompressed output file.
+     * @param filterName         One of "nearest", "bilinear", "bicubic" or "lanczos".
+     */
+    public static void decompressImage(String compressedFilePath, String outputName, String filterName) {
+        if (decompressor.decompressImage(compressedFilePath, outputName, ReconstructionFilter.forName(filterName))) {
+            console.showInfo("==> Image correctly decompressed at the given path!");
         } else {
             console.showInfo("==> Error decompressing image. Try again later.");
         }
@@ -76,4 +104,36 @@ public class ImageCompressor {
             console.showInfo("==> Error compressing image. Try again later.");
         }
     }
+
+    /**
+     * Compresses a BMP image band by band without loading it completely in memory.
+     *
+     * @param compressionFactor The compression factor (e.g., quality level).
+     * @param filePath          The path to the original BMP file.
+     * @param outputFileName    The name of the compressed output file.
+     */
+    public static void compressImageStreaming(int compressionFactor, String filePath, String outputFileName) {
+        if (compressor.compressImageStreaming(compressionFactor, filePath, outputFileName)) {
+            console.showInfo("==> Image correctly compressed at the given path!");
+        } else {
+            console.showInfo("==> Error compressing image. Try again later.");
+        }
+    }
+
+    /**
+     * Compresses every BMP file of a directory or glob with a bounded pool of workers.
+     *
+     * @param compressionFactor The compression factor applied to every image.
+     * @param source            A directory or a glob such as `scans/*.bmp`.
+     * @param outputDirectory   The directory receiving the compressed files.
+     * @param workers           The maximum number of images being compressed at once.
+     * @param virtualThreads    Whether workers run on virtual threads.
+     */
+    public static void compressDirectory(int compressionFactor, String source, String outputDirectory, int workers, boolean virtualThreads) {
+        if (batchCompressor.compressAll(source, compressionFactor, outputDirectory, workers, virtualThreads)) {
+            console.showInfo("==> Every image was correctly compressed at the given directory!");
+        } else {
+            console.showInfo("==> Error compressing some images. Try again later.");
+        }
+    }
 }
@@ -3,6 +3,10 @@ public class Main {
 //        ImageCompressor.compressImage(2, "src/images/test1.bmp", "output.bin");
 //        ImageCompressor.decompressImage("output.bin", "Final");
 
+        if (args.length > 0) {
+            System.exit(CommandLine.run(args));
+        }
+
         ImageCompressor.menu();
     }
 }
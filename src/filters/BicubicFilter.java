@@ -0,0 +1,28 @@
+package filters;
+
+/**
+ * @author Pepe Salcedo
+ * Catmull-Rom bicubic reconstruction over the 4x4 blocks around every cell.
+ */
+public class BicubicFilter extends SeparableFilter {
+
+    public BicubicFilter() {
+        super(2);
+    }
+
+    @Override
+    public String getName() {
+        return "bicubic";
+    }
+
+    @Override
+    protected double weight(double t) {
+        t = Math.abs(t);
+        if (t < 1) {
+            return 1.5 * t * t * t - 2.5 * t * t + 1;
+        } else if (t < 2) {
+            return -0.5 * t * t * t + 2.5 * t * t - 4 * t + 2;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,37 @@
+package filters;
+
+import tools.BilinearKernel;
+
+/**
+ * @author Pepe Salcedo
+ * Blends the four block colors around every cell with the fixed-point `BilinearKernel`.
+ */
+public class BilinearFilter implements ReconstructionFilter {
+
+    @Override
+    public String getName() {
+        return "bilinear";
+    }
+
+    @Override
+    public int getRadius() {
+        return 1;
+    }
+
+    @Override
+    public void reconstruct(int[] blocks, int cols, int rows, int factor, int[] output, int width,
+                            int cellX0, int cellY0, int cellX1, int cellY1) {
+        BilinearKernel kernel = new BilinearKernel(factor);
+
+        for (int y = cellY0; y < cellY1; y++) {
+            for (int x = cellX0; x < cellX1; x++) {
+                int q11 = blocks[y * cols + x]; // bottom left
+                int q12 = blocks[(y + 1) * cols + x]; // top left
+                int q21 = blocks[y * cols + x + 1]; // bottom right
+                int q22 = blocks[(y + 1) * cols + x + 1]; // top right
+
+                kernel.fillCell(q11, q12, q21, q22, output, y * factor * width + x * factor, width);
+            }
+        }
+    }
+}
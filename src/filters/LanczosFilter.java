@@ -0,0 +1,29 @@
+package filters;
+
+/**
+ * @author Pepe Salcedo
+ * Lanczos reconstruction with a three lobe windowed sinc over the 6x6 blocks around every cell.
+ */
+public class LanczosFilter extends SeparableFilter {
+    private static final int LOBES = 3;
+
+    public LanczosFilter() {
+        super(LOBES);
+    }
+
+    @Override
+    public String getName() {
+        return "lanczos";
+    }
+
+    @Override
+    protected double weight(double t) {
+        if (t == 0) {
+            return 1;
+        } else if (Math.abs(t) >= LOBES) {
+            return 0;
+        }
+        double x = Math.PI * t;
+        return LOBES * Math.sin(x) * Math.sin(x / LOBES) / (x * x);
+    }
+}
@@ -0,0 +1,41 @@
+package filters;
+
+import java.util.Arrays;
+
+/**
+ * @author Pepe Salcedo
+ * Fills every pixel with the color of its nearest block, without any arithmetic per pixel.
+ * Meant for fast previews.
+ */
+public class NearestNeighbourFilter implements ReconstructionFilter {
+
+    @Override
+    public String getName() {
+        return "nearest";
+    }
+
+    @Override
+    public int getRadius() {
+        return 1;
+    }
+
+    @Override
+    public void reconstruct(int[] blocks, int cols, int rows, int factor, int[] output, int width,
+                            int cellX0, int cellY0, int cellX1, int cellY1) {
+        int near = (factor + 1) / 2;
+
+        for (int y = cellY0; y < cellY1; y++) {
+            for (int dy = 0; dy < factor; dy++) {
+                int blockRow = (dy < near ? y : y + 1) * cols;
+                int offset = (y * factor + dy) * width;
+
+                for (int x = cellX0; x < cellX1; x++) {
+                    int start = offset + x * factor;
+
+                    Arrays.fill(output, start, start + near, blocks[blockRow + x]);
+                    Arrays.fill(output, start + near, start + factor, blocks[blockRow + x + 1]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package filters;
+
+/**
+ * @author Pepe Salcedo
+ * A reconstruction filter rebuilds the pixels between the averaged block colors of a compressed image.
+ * The output is processed by cells: cell (x, y) covers the `factor`x`factor` pixels whose top left corner
+ * is the position of block (x, y), so an image of `cols`x`rows` blocks is rebuilt into
+ * `(cols - 1) * factor` by `(rows - 1) * factor` pixels.
+ * A filter must rebuild a cell whose blocks within reach all share one color into exactly that color, which
+ * lets flat areas be filled without running the filter.
+ */
+public interface ReconstructionFilter {
+
+    /**
+     * @return The name used to select the filter at runtime.
+     */
+    String getName();
+
+    /**
+     * @return The number of blocks the filter reaches on each side of a cell: cell (x, y) is rebuilt from
+     * blocks `x - radius + 1` to `x + radius` of rows `y - radius + 1` to `y + radius`, clamped to the image.
+     */
+    int getRadius();
+
+    /**
+     * Rebuilds a rectangle of cells into the output pixels.
+     * Implementations must only write the pixels of the given cells, so disjoint rectangles can be
+     * reconstructed concurrently.
+     *
+     * @param blocks The packed RGB block colors, row by row.
+     * @param cols   The number of block columns.
+     * @param rows   The number of block rows.
+     * @param factor The compression factor, i.e. the size of a cell in pixels.
+     * @param output The packed RGB output pixels.
+     * @param width  The number of pixels in an output row.
+     * @param cellX0 The first cell column (inclusive).
+     * @param cellY0 The first cell row (inclusive).
+     * @param cellX1 The last cell column (exclusive).
+     * @param cellY1 The last cell row (exclusive).
+     */
+    void reconstruct(int[] blocks, int cols, int rows, int factor, int[] output, int width,
+                     int cellX0, int cellY0, int cellX1, int cellY1);
+
+    /**
+     * Gets a filter by its name.
+     *
+     * @param name One of "nearest", "bilinear", "bicubic" or "lanczos".
+     * @return The matching filter.
+     * @throws IllegalArgumentException If no filter has the given name.
+     */
+    static ReconstructionFilter forName(String name) {
+        switch (name.toLowerCase()) {
+            case "nearest":
+                return new NearestNeighbourFilter();
+            case "bilinear":
+                return new BilinearFilter();
+            case "bicubic":
+                return new BicubicFilter();
+            case "lanczos":
+                return new LanczosFilter();
+            default:
+                throw new IllegalArgumentException("Unknown reconstruction filter: " + name);
+        }
+    }
+}
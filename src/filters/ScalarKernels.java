@@ -0,0 +1,28 @@
+package filters;
+
+/**
+ * @author Pepe Salcedo
+ * Plain `int[]` loops that the JIT can auto-vectorize, used whenever the vector module is not resolved.
+ */
+final class ScalarKernels implements SeparableKernels {
+
+    @Override
+    public void multiplyAdd(int weight, int[] source, int sourceOffset, int[] accumulator, int length) {
+        for (int i = 0; i < length; i++) {
+            accumulator[i] += weight * source[sourceOffset + i];
+        }
+    }
+
+    @Override
+    public void pack(int[] red, int[] green, int[] blue, int shift, int[] output, int outputOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            output[outputOffset + i] = clampChannel(red[i] >> shift) << 16
+                    | clampChannel(green[i] >> shift) << 8
+                    | clampChannel(blue[i] >> shift);
+        }
+    }
+
+    private static int clampChannel(int value) {
+        return Math.max(0, Math.min(value, 255));
+    }
+}
@@ -0,0 +1,178 @@
+package filters;
+
+import java.util.Arrays;
+
+/**
+ * @author Pepe Salcedo
+ * Base class for separable reconstruction kernels with a support of `2 * radius` blocks per axis.
+ * The kernel is sampled once per compression factor into a fixed-point weight table indexed by the
+ * pixel's phase inside its cell, and every rectangle is filtered horizontally into an intermediate
+ * buffer and then vertically. The vertical pass, which runs `factor` times more often than the horizontal one,
+ * goes through `SeparableKernels`, backed by the `jdk.incubator.vector` API when the JVM resolves it.
+ */
+public abstract class SeparableFilter implements ReconstructionFilter {
+    private static final int WEIGHT_BITS = 14;
+    private static final int INTERMEDIATE_SHIFT = 7;
+    private static final int OUTPUT_SHIFT = 2 * WEIGHT_BITS - INTERMEDIATE_SHIFT;
+    private static final SeparableKernels KERNELS = SeparableKernels.load();
+
+    private final int radius;
+    private volatile WeightTable weightTable;
+
+    /**
+     * @param radius The number of blocks the kernel reaches on each side of a sample.
+     */
+    protected SeparableFilter(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Evaluates the continuous kernel.
+     *
+     * @param t The distance to the sample, in blocks.
+     * @return The unnormalised weight of a block at distance `t`.
+     */
+    protected abstract double weight(double t);
+
+    @Override
+    public int getRadius() {
+        return radius;
+    }
+
+    @Override
+    public void reconstruct(int[] blocks, int cols, int rows, int factor, int[] output, int width,
+                            int cellX0, int cellY0, int cellX1, int cellY1) {
+        int[][] weights = getWeights(factor);
+        int taps = 2 * radius;
+        int x0 = cellX0 * factor;
+        int tileWidth = (cellX1 - cellX0) * factor;
+        int firstRow = cellY0 - radius + 1;
+        int numRows = cellY1 - cellY0 + taps - 1;
+        int firstCol = cellX0 - radius + 1;
+        int numCols = cellX1 - cellX0 + taps - 1;
+
+        int[] red = new int[numCols];
+        int[] green = new int[numCols];
+        int[] blue = new int[numCols];
+        int[] horizontalRed = new int[numRows * tileWidth];
+        int[] horizontalGreen = new int[numRows * tileWidth];
+        int[] horizontalBlue = new int[numRows * tileWidth];
+
+        for (int row = 0; row < numRows; row++) {
+            int blockRow = clamp(firstRow + row, rows - 1) * cols;
+            for (int col = 0; col < numCols; col++) {
+                int rgb = blocks[blockRow + clamp(firstCol + col, cols - 1)];
+                red[col] = rgb >> 16 & 0xFF;
+                green[col] = rgb >> 8 & 0xFF;
+                blue[col] = rgb & 0xFF;
+            }
+
+            int offset = row * tileWidth;
+            for (int px = 0; px < tileWidth; px++) {
+                int cell = px / factor;
+                int[] w = weights[px % factor];
+                int sumRed = 0, sumGreen = 0, sumBlue = 0;
+
+                for (int tap = 0; tap < taps; tap++) {
+                    sumRed += w[tap] * red[cell + tap];
+                    sumGreen += w[tap] * green[cell + tap];
+                    sumBlue += w[tap] * blue[cell + tap];
+                }
+
+                horizontalRed[offset + px] = sumRed >> INTERMEDIATE_SHIFT;
+                horizontalGreen[offset + px] = sumGreen >> INTERMEDIATE_SHIFT;
+                horizontalBlue[offset + px] = sumBlue >> INTERMEDIATE_SHIFT;
+            }
+        }
+
+        int[] accRed = new int[tileWidth];
+        int[] accGreen = new int[tileWidth];
+        int[] accBlue = new int[tileWidth];
+        int round = 1 << (OUTPUT_SHIFT - 1);
+
+        for (int py = cellY0 * factor; py < cellY1 * factor; py++) {
+            int cell = py / factor - cellY0;
+            int[] w = weights[py % factor];
+
+            Arrays.fill(accRed, round);
+            Arrays.fill(accGreen, round);
+            Arrays.fill(accBlue, round);
+
+            for (int tap = 0; tap < taps; tap++) {
+                int weight = w[tap];
+                int offset = (cell + tap) * tileWidth;
+
+                KERNELS.multiplyAdd(weight, horizontalRed, offset, accRed, tileWidth);
+                KERNELS.multiplyAdd(weight, horizontalGreen, offset, accGreen, tileWidth);
+                KERNELS.multiplyAdd(weight, horizontalBlue, offset, accBlue, tileWidth);
+            }
+
+            KERNELS.pack(accRed, accGreen, accBlue, OUTPUT_SHIFT, output, py * width + x0, tileWidth);
+        }
+    }
+
+    /**
+     * Gets the fixed-point weights of every phase for a compression factor, building them on first use.
+     *
+     * @param factor The compression factor.
+     * @return `weights[phase][tap]`, each row summing to `1 << WEIGHT_BITS`.
+     */
+    private int[][] getWeights(int factor) {
+        WeightTable table = weightTable;
+        if (table == null || table.factor != factor) {
+            table = new WeightTable(factor, buildWeights(factor));
+            weightTable = table;
+        }
+        return table.weights;
+    }
+
+    /**
+     * Samples the kernel for every phase of a cell and normalises each phase to one.
+     *
+     * @param factor The compression factor.
+     * @return `weights[phase][tap]`, each row summing to `1 << WEIGHT_BITS`.
+     */
+    private int[][] buildWeights(int factor) {
+        int taps = 2 * radius;
+        int one = 1 << WEIGHT_BITS;
+        int[][] weights = new int[factor][taps];
+
+        for (int phase = 0; phase < factor; phase++) {
+            double t = (double) phase / factor;
+            double[] raw = new double[taps];
+            double total = 0;
+
+            for (int tap = 0; tap < taps; tap++) {
+                raw[tap] = weight(tap - radius + 1 - t);
+                total += raw[tap];
+            }
+
+            int sum = 0;
+            for (int tap = 0; tap < taps; tap++) {
+                weights[phase][tap] = (int) Math.round(raw[tap] / total * one);
+                sum += weights[phase][tap];
+            }
+            // the tap at the cell origin absorbs the rounding so every phase sums exactly to one
+            weights[phase][radius - 1] += one - sum;
+        }
+
+        return weights;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    /**
+     * The weights computed for the last compression factor used.
+     */
+    private static final class WeightTable {
+        private final int factor;
+        private final int[][] weights;
+
+        private WeightTable(int factor, int[][] weights) {
+            this.factor = factor;
+            this.weights = weights;
+        }
+    }
+}
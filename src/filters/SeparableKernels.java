@@ -0,0 +1,51 @@
+package filters;
+
+/**
+ * @author Pepe Salcedo
+ * The inner loops of `SeparableFilter` that run over whole rows of a tile.
+ * The scalar loops are always available; when the JVM resolves the `jdk.incubator.vector` module (for example
+ * `java --add-modules jdk.incubator.vector`) and the build shipped `VectorKernels`, that implementation is used
+ * instead. Both implementations compute exactly the same integers.
+ */
+interface SeparableKernels {
+
+    /**
+     * Adds `weight * source[sourceOffset + i]` to `accumulator[i]` for every `i` below `length`.
+     *
+     * @param weight       The fixed-point weight of the source row.
+     * @param source       The source values.
+     * @param sourceOffset The index of the first source value.
+     * @param accumulator  The sums, updated in place from index `0`.
+     * @param length       The number of values.
+     */
+    void multiplyAdd(int weight, int[] source, int sourceOffset, int[] accumulator, int length);
+
+    /**
+     * Shifts every channel sum right, clamps it to `[0, 255]` and packs the channels into RGB pixels.
+     *
+     * @param red          The red sums.
+     * @param green        The green sums.
+     * @param blue         The blue sums.
+     * @param shift        The number of fractional bits of the sums.
+     * @param output       The packed RGB pixels.
+     * @param outputOffset The index of the first pixel written.
+     * @param length       The number of pixels.
+     */
+    void pack(int[] red, int[] green, int[] blue, int shift, int[] output, int outputOffset, int length);
+
+    /**
+     * Picks the vector kernels when the vector module is resolved and they were built, the scalar ones otherwise.
+     *
+     * @return The kernels used by every `SeparableFilter`.
+     */
+    static SeparableKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (SeparableKernels) Class.forName("filters.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // a build without the vector source set, such as the IntelliJ module, only has the scalar loops
+            }
+        }
+        return new ScalarKernels();
+    }
+}
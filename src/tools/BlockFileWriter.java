@@ -0,0 +1,180 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Pepe Salcedo
+ * This class writes compressed files through a reusable direct buffer that is flushed to a channel
+ * only when it fills up, so a whole image costs a handful of write calls.
+ * The channel is usually a `FileChannel`, but any channel works, such as one wrapping an output stream.
+ * A finished writer returns its buffer to a bounded pool, so writing many small files in a row allocates a
+ * handful of buffers whichever threads write them
+ */
+public class BlockFileWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // the buffers of finished writers, waiting for the next writers
+    private static final ResourcePool<ByteBuffer> BUFFERS =
+            new ResourcePool<>(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private long flushed = 0;
+
+    /**
+     * Creates or truncates the file at the given path.
+     *
+     * @param path The path to the output file.
+     * @throws IOException If the file cannot be opened for writing.
+     */
+    public BlockFileWriter(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Creates a writer appending to the given channel. Closing the writer closes the channel.
+     *
+     * @param channel The channel receiving the bytes.
+     */
+    public BlockFileWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = BUFFERS.borrow();
+    }
+
+    /**
+     * Writes the header of the compressed format: the compression factor and the number of block columns.
+     *
+     * @param compressionFactor The compression factor.
+     * @param cols              The column count stored in the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void writeHeader(int compressionFactor, int cols) throws IOException {
+        ensureRemaining(5);
+        buffer.put((byte) compressionFactor).putInt(cols);
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param value The byte to write.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void write(int value) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes a big endian int.
+     *
+     * @param value The int to write.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void writeInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a big endian long.
+     *
+     * @param value The long to write.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void writeLong(long value) throws IOException {
+        ensureRemaining(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes a range of bytes, copying them into the direct buffer chunk by chunk.
+     *
+     * @param data   The bytes to write.
+     * @param offset The position of the first byte in `data`.
+     * @param length The number of bytes to write.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensureRemaining(1);
+            int chunk = Math.min(length, buffer.remaining());
+
+            buffer.put(data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Writes all the given bytes.
+     *
+     * @param data The bytes to write.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * @return The number of bytes written so far, including the ones still buffered.
+     */
+    public long size() {
+        return buffer == null ? flushed : flushed + buffer.position();
+    }
+
+    /**
+     * Writes everything buffered so far to the channel.
+     *
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes everything written and releases the buffer, leaving the channel open for the caller.
+     * The writer cannot be used afterwards.
+     *
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void finish() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+
+        try {
+            flush();
+        } finally {
+            long written = size();
+            buffer.clear();
+            BUFFERS.release(buffer);
+            buffer = null;
+            flushed = written;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
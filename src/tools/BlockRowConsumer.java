@@ -0,0 +1,19 @@
+package tools;
+
+import java.io.IOException;
+
+/**
+ * @author Pepe Salcedo
+ * Receives the decoded colors of a compressed file one block row at a time, top to bottom
+ */
+public interface BlockRowConsumer {
+    /**
+     * Accepts one block row.
+     *
+     * @param row    The index of the block row.
+     * @param colors The packed RGB colors of the row. The array is reused for the next row, so it has to be
+     *               copied if it is kept.
+     * @throws IOException If the row cannot be handled.
+     */
+    void accept(int row, int[] colors) throws IOException;
+}
@@ -0,0 +1,242 @@
+package tools;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class reads and writes uncompressed BMP files straight into and out of the `int[]` raster of a
+ * `TYPE_INT_RGB` image, without going through the generic `ImageIO` plugins.
+ * Reading maps the file and converts its scanlines in parallel; 24 and 32 bit `BI_RGB` and 32 bit `BI_BITFIELDS`
+ * files with 8 bit masks are supported in either row order. Writing always produces a 24 bit bottom-up file with
+ * a 40 byte info header, byte for byte what `ImageIO` writes for a `TYPE_INT_RGB` image
+ */
+public class BmpCodec {
+    // below this many pixels a sequential pass is faster than starting the fork/join pool
+    private static final long PARALLEL_PIXELS = 1 << 20;
+    // scanlines converted into the write buffer before it is flushed to the channel
+    private static final int WRITE_CHUNK_BYTES = 1 << 20;
+    // rows a parallel read converts with one scanline buffer, enough to outweigh allocating it
+    private static final int PARALLEL_BAND_PIXELS = 1 << 16;
+    // write buffers shared by every image written, whichever thread writes it
+    private static final ResourcePool<ByteBuffer> WRITE_CHUNKS = new ResourcePool<>(() ->
+            ByteBuffer.allocateDirect(WRITE_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+
+    private BmpCodec() {
+    }
+
+    /**
+     * Reads a BMP file into a `TYPE_INT_RGB` image.
+     *
+     * @param path The path to the BMP file.
+     * @return The decoded image.
+     * @throws UnsupportedBmpException If the file is a valid BMP in a variant this codec does not handle,
+     *                                 such as palettes or run-length encoding.
+     * @throws IOException             If the file cannot be read or is not a BMP file.
+     */
+    public static BufferedImage read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new UnsupportedBmpException("BMP files over 2 GB cannot be mapped");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a BMP file held in a buffer into a `TYPE_INT_RGB` image.
+     *
+     * @param bmp The whole BMP file, from position `0` of the buffer. The buffer itself is not modified.
+     * @return The decoded image.
+     * @throws UnsupportedBmpException If the file is a valid BMP in a variant this codec does not handle.
+     * @throws IOException             If the buffer does not hold a complete BMP file.
+     */
+    public static BufferedImage read(ByteBuffer bmp) throws IOException {
+        ByteBuffer file = bmp.duplicate();
+        BmpHeader header = BmpHeader.parse(file);
+        int pixelOffset = header.pixelOffset;
+        int width = header.width;
+        int height = header.height;
+        int bitCount = header.bitCount;
+        int stride = header.stride;
+        int[] masks = header.masks;
+        if (pixelOffset + (long) stride * height > file.limit()) {
+            throw new IOException("Unexpected end of BMP pixel data");
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        boolean bottomUp = header.bottomUp;
+
+        if ((long) width * height < PARALLEL_PIXELS) {
+            byte[] scanline = new byte[stride];
+            for (int row = 0; row < height; row++) {
+                int y = bottomUp ? height - 1 - row : row;
+                file.get(pixelOffset + row * stride, scanline);
+                decodeRow(scanline, bitCount, masks, pixels, y * width, width);
+            }
+        } else {
+            int bandRows = Math.max(1, PARALLEL_BAND_PIXELS / width);
+            IntStream.range(0, (height + bandRows - 1) / bandRows).parallel().forEach(band -> {
+                byte[] scanline = new byte[stride];
+                for (int row = band * bandRows; row < Math.min(height, (band + 1) * bandRows); row++) {
+                    int y = bottomUp ? height - 1 - row : row;
+                    file.get(pixelOffset + row * stride, scanline);
+                    decodeRow(scanline, bitCount, masks, pixels, y * width, width);
+                }
+            });
+        }
+
+        return image;
+    }
+
+    /**
+     * @param width  The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @return The size in bytes of the 24 bit BMP file `write` produces for an image of that size.
+     */
+    public static long fileSize(int width, int height) {
+        return BmpHeader.fileSize(width, height);
+    }
+
+    /**
+     * Writes an image as a 24 bit bottom-up BMP file.
+     *
+     * @param path  The path of the BMP file to create or replace.
+     * @param image The image to write. `TYPE_INT_RGB` images are read straight from their raster.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void write(Path path, BufferedImage image) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(image, channel);
+        }
+    }
+
+    /**
+     * Writes an image as a 24 bit bottom-up BMP file to a channel, which is left open.
+     *
+     * @param image   The image to write. `TYPE_INT_RGB` images are read straight from their raster.
+     * @param channel The channel receiving the file, such as one wrapping an output stream.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void write(BufferedImage image, WritableByteChannel channel) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int stride = BmpHeader.stride(24, width);
+
+        // subimages share the raster of their parent, so rows are found through its scanline stride and offsets
+        WritableRaster source = image.getRaster();
+        int[] raster = null;
+        int scanlineStride = 0;
+        int origin = 0;
+        if (image.getType() == BufferedImage.TYPE_INT_RGB
+                && source.getDataBuffer() instanceof DataBufferInt buffer
+                && source.getSampleModel() instanceof SinglePixelPackedSampleModel model) {
+            raster = buffer.getData();
+            scanlineStride = model.getScanlineStride();
+            origin = buffer.getOffset() - source.getSampleModelTranslateY() * scanlineStride
+                    - source.getSampleModelTranslateX();
+        }
+        int[] row = raster == null ? new int[width] : null;
+
+        ByteBuffer chunk = WRITE_CHUNKS.borrow();
+        if (chunk.capacity() < stride) {
+            // a scanline wider than the pooled buffers gets a buffer of its own, which is not pooled
+            WRITE_CHUNKS.release(chunk);
+            chunk = ByteBuffer.allocateDirect(stride).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        chunk.clear();
+
+        try {
+            BmpHeader.write(chunk, width, height);
+
+            for (int y = height - 1; y >= 0; y--) {
+                if (chunk.remaining() < stride) {
+                    drain(channel, chunk);
+                }
+
+                int offset;
+                int[] pixels;
+                if (raster != null) {
+                    pixels = raster;
+                    offset = origin + y * scanlineStride;
+                } else {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    pixels = row;
+                    offset = 0;
+                }
+
+                int start = chunk.position();
+                for (int x = 0; x < width; x++) {
+                    int rgb = pixels[offset + x];
+                    chunk.put((byte) rgb).put((byte) (rgb >> 8)).put((byte) (rgb >> 16));
+                }
+                while (chunk.position() - start < stride) {
+                    chunk.put((byte) 0);
+                }
+            }
+            drain(channel, chunk);
+        } finally {
+            if (chunk.capacity() == WRITE_CHUNK_BYTES) {
+                WRITE_CHUNKS.release(chunk);
+            }
+        }
+    }
+
+    /**
+     * Converts one scanline copied out of the mapped file to packed RGB values.
+     */
+    private static void decodeRow(byte[] scanline, int bitCount, int[] masks, int[] destination, int offset, int width) {
+        if (bitCount == 24) {
+            for (int x = 0, src = 0; x < width; x++, src += 3) {
+                destination[offset + x] = (scanline[src + 2] & 0xFF) << 16
+                        | (scanline[src + 1] & 0xFF) << 8
+                        | (scanline[src] & 0xFF);
+            }
+        } else {
+            int redShift = Integer.numberOfTrailingZeros(masks[0]);
+            int greenShift = Integer.numberOfTrailingZeros(masks[1]);
+            int blueShift = Integer.numberOfTrailingZeros(masks[2]);
+
+            for (int x = 0, src = 0; x < width; x++, src += 4) {
+                int pixel = (scanline[src] & 0xFF)
+                        | (scanline[src + 1] & 0xFF) << 8
+                        | (scanline[src + 2] & 0xFF) << 16
+                        | (scanline[src + 3] & 0xFF) << 24;
+                destination[offset + x] = ((pixel & masks[0]) >>> redShift) << 16
+                        | ((pixel & masks[1]) >>> greenShift) << 8
+                        | (pixel & masks[2]) >>> blueShift;
+            }
+        }
+    }
+
+    private static void drain(WritableByteChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * Thrown for BMP files that are valid but use a variant the native codec does not decode.
+     */
+    public static class UnsupportedBmpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedBmpException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Pepe Salcedo
+ * This class parses and writes the headers of BMP files for `BmpCodec`, `BmpScanlineReader` and `BmpRowWriter`,
+ * so the three agree on which variants are decoded natively and write byte for byte the same file.
+ * Parsing accepts uncompressed 24 and 32 bit `BI_RGB` and 32 bit `BI_BITFIELDS` files whose masks are 8 bits
+ * wide, in either row order;
+ * writing always produces a 24 bit bottom-up file with a 40 byte info header
+ */
+final class BmpHeader {
+    static final int FILE_HEADER_SIZE = 14;
+    static final int INFO_HEADER_SIZE = 40;
+    // the smallest header: the file header and a 40 byte info header
+    static final int SIZE = FILE_HEADER_SIZE + INFO_HEADER_SIZE;
+    // larger than any info header version, so a corrupt size is not trusted as an allocation
+    private static final int MAX_INFO_HEADER_SIZE = 1024;
+    private static final int MASKS_SIZE = 12;
+    private static final int BI_RGB = 0;
+    private static final int BI_BITFIELDS = 3;
+
+    final int pixelOffset;
+    final int width;
+    final int height;
+    final boolean bottomUp;
+    final int bitCount;
+    final int stride;
+    final int[] masks;
+
+    private BmpHeader(int pixelOffset, int width, int height, boolean bottomUp, int bitCount, int[] masks) {
+        this.pixelOffset = pixelOffset;
+        this.width = width;
+        this.height = height;
+        this.bottomUp = bottomUp;
+        this.bitCount = bitCount;
+        this.stride = stride(bitCount, width);
+        this.masks = masks;
+    }
+
+    /**
+     * Finds how many bytes the headers take, including the color masks that follow an info header too short to
+     * hold them.
+     *
+     * @param start The first `SIZE` bytes of the file, from position `0` of the buffer.
+     * @return The number of bytes `parse` needs.
+     * @throws BmpCodec.UnsupportedBmpException If the info header is older than the 40 byte version.
+     * @throws IOException                      If the buffer does not start a BMP file.
+     */
+    static int length(ByteBuffer start) throws IOException {
+        ByteBuffer file = start.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (file.limit() < SIZE) {
+            throw new IOException("Truncated BMP header");
+        }
+        if (file.get(0) != 'B' || file.get(1) != 'M') {
+            throw new IOException("Not a BMP file");
+        }
+
+        int infoSize = file.getInt(14);
+        if (infoSize < INFO_HEADER_SIZE) {
+            throw new BmpCodec.UnsupportedBmpException("BMP info headers of " + infoSize
+                    + " bytes are not decoded natively");
+        } else if (infoSize > MAX_INFO_HEADER_SIZE) {
+            throw new IOException("Invalid BMP info header size");
+        }
+
+        boolean trailingMasks = file.getInt(30) == BI_BITFIELDS && infoSize < 52;
+        return FILE_HEADER_SIZE + infoSize + (trailingMasks ? MASKS_SIZE : 0);
+    }
+
+    /**
+     * Parses the headers of a BMP file.
+     *
+     * @param bmp The start of the file, from position `0` of the buffer and at least `length` bytes long.
+     *            The buffer itself is not modified.
+     * @return The parsed headers.
+     * @throws BmpCodec.UnsupportedBmpException If the file is a valid BMP in a variant that is not decoded natively.
+     * @throws IOException                      If the buffer does not hold the headers of a BMP file.
+     */
+    static BmpHeader parse(ByteBuffer bmp) throws IOException {
+        ByteBuffer file = bmp.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = length(file);
+        if (file.limit() < length) {
+            throw new IOException("Truncated BMP header");
+        }
+
+        int pixelOffset = file.getInt(10);
+        int infoSize = file.getInt(14);
+        int width = file.getInt(18);
+        int rawHeight = file.getInt(22);
+        int bitCount = file.getShort(28);
+        int compression = file.getInt(30);
+        int[] masks;
+
+        if (compression == BI_BITFIELDS && bitCount == 32) {
+            int maskOffset = FILE_HEADER_SIZE + (infoSize < 52 ? infoSize : INFO_HEADER_SIZE);
+            masks = new int[]{file.getInt(maskOffset), file.getInt(maskOffset + 4), file.getInt(maskOffset + 8)};
+            for (int mask : masks) {
+                if (!isByteMask(mask)) {
+                    throw new BmpCodec.UnsupportedBmpException("Only 8 bit BMP color masks are decoded natively");
+                }
+            }
+        } else if (compression == BI_RGB && (bitCount == 24 || bitCount == 32)) {
+            masks = new int[]{0xFF0000, 0xFF00, 0xFF};
+        } else {
+            throw new BmpCodec.UnsupportedBmpException("Only uncompressed 24 or 32 bit BMP files are decoded natively");
+        }
+
+        if (width <= 0 || rawHeight == 0 || rawHeight == Integer.MIN_VALUE) {
+            throw new IOException("Dimensions cannot be less than 1x1 pixels");
+        }
+        if (pixelOffset < length) {
+            throw new IOException("Invalid BMP pixel data offset");
+        }
+
+        return new BmpHeader(pixelOffset, width, Math.abs(rawHeight), rawHeight > 0, bitCount, masks);
+    }
+
+    /**
+     * Writes the headers of a 24 bit bottom-up BMP file.
+     *
+     * @param destination The buffer receiving the `SIZE` header bytes at its position, in little endian order.
+     * @param width       The width of the image in pixels.
+     * @param height      The height of the image in pixels.
+     * @throws IOException If the image is too large for a BMP file.
+     */
+    static void write(ByteBuffer destination, int width, int height) throws IOException {
+        long fileSize = fileSize(width, height);
+        if (fileSize > 0xFFFFFFFFL) {
+            throw new IOException("The image is too large for a BMP file");
+        }
+
+        destination.put((byte) 'B').put((byte) 'M')
+                .putInt((int) fileSize)
+                .putInt(0)
+                .putInt(SIZE)
+                .putInt(INFO_HEADER_SIZE)
+                .putInt(width)
+                .putInt(height)
+                .putShort((short) 1)
+                .putShort((short) 24)
+                .putInt(BI_RGB)
+                .putInt((int) (fileSize - SIZE))
+                .putInt(0)
+                .putInt(0)
+                .putInt(0)
+                .putInt(0);
+    }
+
+    /**
+     * @return Whether a color mask is a run of exactly 8 bits, so shifting the channel down yields its 8 bit value.
+     */
+    private static boolean isByteMask(int mask) {
+        return mask != 0 && mask >>> Integer.numberOfTrailingZeros(mask) == 0xFF;
+    }
+
+    /**
+     * @return The size in bytes of the 24 bit BMP file of an image.
+     */
+    static long fileSize(int width, int height) {
+        return SIZE + (long) stride(24, width) * height;
+    }
+
+    /**
+     * @return The number of bytes of a scanline, padded to a multiple of 4.
+     */
+    static int stride(int bitCount, int width) {
+        return ((bitCount * width + 31) / 32) * 4;
+    }
+}
@@ -0,0 +1,113 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Pepe Salcedo
+ * This class writes a 24 bit bottom-up BMP file a band of rows at a time, so an image can be encoded while the
+ * rest of it is still being computed. The header is written up front and every band is written at its own
+ * position in the file, so bands may arrive in any order and from any thread.
+ * The result is byte for byte what `BmpCodec.write` produces for the whole image
+ */
+public class BmpRowWriter implements Closeable {
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int stride;
+    // the band buffers of this writer, shared by the threads writing its bands
+    private final ResourcePool<ByteBuffer> buffers;
+
+    /**
+     * Creates the file and writes its headers.
+     *
+     * @param path   The path of the BMP file to create or replace.
+     * @param width  The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @throws IOException If the file cannot be created or the image is too large for a BMP file.
+     */
+    public BmpRowWriter(Path path, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.stride = BmpHeader.stride(24, width);
+        this.buffers = new ResourcePool<>(() -> ByteBuffer.allocateDirect(stride));
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Dimensions cannot be less than 1x1 pixels");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(BmpHeader.SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        BmpHeader.write(header, width, height);
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            write(header.flip(), 0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes consecutive image rows at their place in the file.
+     *
+     * @param y      The image row of the first row in `pixels`, counted from the top.
+     * @param count  The number of rows to write.
+     * @param pixels The packed RGB pixels of the rows, top to bottom.
+     * @param offset The position in `pixels` of the first pixel of row `y`.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void writeRows(int y, int count, int[] pixels, int offset) throws IOException {
+        if (y < 0 || count < 0 || y + count > height) {
+            throw new IndexOutOfBoundsException("Rows " + y + " to " + (y + count) + " are outside the image");
+        }
+
+        ByteBuffer buffer = buffers.borrow();
+        if (buffer.capacity() < stride * count) {
+            // the narrower buffer is dropped, so the pool grows towards the widest band
+            buffer = ByteBuffer.allocateDirect(stride * count);
+        }
+        buffer.clear();
+
+        try {
+            // the file stores rows bottom-up, so the last row of the band comes first
+            for (int row = count - 1; row >= 0; row--) {
+                int start = buffer.position();
+                for (int x = 0, index = offset + row * width; x < width; x++, index++) {
+                    int rgb = pixels[index];
+                    buffer.put((byte) rgb).put((byte) (rgb >> 8)).put((byte) (rgb >> 16));
+                }
+                while (buffer.position() - start < stride) {
+                    buffer.put((byte) 0);
+                }
+            }
+
+            write(buffer.flip(), BmpHeader.SIZE + (long) (height - y - count) * stride);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * @return The size of the complete file in bytes.
+     */
+    public long size() {
+        return BmpHeader.SIZE + (long) stride * height;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
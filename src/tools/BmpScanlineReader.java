@@ -0,0 +1,146 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * @author Pepe Salcedo
+ * This class reads an uncompressed 24 or 32 bit BMP file one scanline at a time, in the order the rows are stored
+ * in the file, so images can be processed without loading them completely in memory
+ */
+public class BmpScanlineReader implements Closeable {
+    private final InputStream inputStream;
+    private final int width;
+    private final int height;
+    private final boolean bottomUp;
+    private final int bitCount;
+    private final int stride;
+    private final byte[] scanline;
+    private final int[] masks;
+    private final int[] shifts;
+    private int rowsRead = 0;
+
+    /**
+     * Opens the BMP file at the given path and parses its headers, leaving the stream at the first scanline.
+     *
+     * @param path The path to the BMP file.
+     * @throws IOException If the file cannot be read or is not an uncompressed 24/32 bit BMP.
+     */
+    public BmpScanlineReader(Path path) throws IOException {
+        this.inputStream = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+
+        try {
+            byte[] start = readHeader(BmpHeader.SIZE);
+            byte[] headers = Arrays.copyOf(start, BmpHeader.length(ByteBuffer.wrap(start)));
+            if (inputStream.readNBytes(headers, start.length, headers.length - start.length) < headers.length - start.length) {
+                throw new EOFException("Truncated BMP header");
+            }
+            BmpHeader header = BmpHeader.parse(ByteBuffer.wrap(headers));
+
+            this.width = header.width;
+            this.height = header.height;
+            this.bottomUp = header.bottomUp;
+            this.bitCount = header.bitCount;
+            this.masks = header.masks;
+            this.shifts = new int[3];
+            for (int i = 0; i < 3; i++) {
+                shifts[i] = Integer.numberOfTrailingZeros(masks[i]);
+            }
+
+            this.stride = header.stride;
+            this.scanline = new byte[stride];
+            inputStream.skipNBytes(header.pixelOffset - headers.length);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The width of the image in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the image in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return `true` if the first scanline in the file is the bottom row of the image.
+     */
+    public boolean isBottomUp() {
+        return bottomUp;
+    }
+
+    /**
+     * @return The image row that the next call to `readRow` will return.
+     */
+    public int nextRowIndex() {
+        return bottomUp ? height - 1 - rowsRead : rowsRead;
+    }
+
+    /**
+     * Reads the next scanline in file order and stores it as packed RGB values.
+     *
+     * @param destination The array receiving the pixels.
+     * @param offset      The position in `destination` of the first pixel of the row.
+     * @throws IOException If the file ends before the scanline is complete.
+     */
+    public void readRow(int[] destination, int offset) throws IOException {
+        if (inputStream.readNBytes(scanline, 0, stride) < stride) {
+            throw new EOFException("Unexpected end of BMP pixel data");
+        }
+        rowsRead++;
+
+        if (bitCount == 24) {
+            for (int col = 0, src = 0; col < width; col++, src += 3) {
+                destination[offset + col] = ((scanline[src + 2] & 0xFF) << 16)
+                        | ((scanline[src + 1] & 0xFF) << 8)
+                        | (scanline[src] & 0xFF);
+            }
+        } else {
+            for (int col = 0, src = 0; col < width; col++, src += 4) {
+                int pixel = (scanline[src] & 0xFF)
+                        | ((scanline[src + 1] & 0xFF) << 8)
+                        | ((scanline[src + 2] & 0xFF) << 16)
+                        | ((scanline[src + 3] & 0xFF) << 24);
+
+                destination[offset + col] = (((pixel & masks[0]) >>> shifts[0]) << 16)
+                        | (((pixel & masks[1]) >>> shifts[1]) << 8)
+                        | ((pixel & masks[2]) >>> shifts[2]);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * Reads `size` header bytes.
+     *
+     * @param size The number of bytes to read.
+     * @return The header bytes.
+     * @throws IOException If the file is shorter than the header.
+     */
+    private byte[] readHeader(int size) throws IOException {
+        byte[] bytes = inputStream.readNBytes(size);
+        if (bytes.length < size) {
+            throw new EOFException("Truncated BMP header");
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,130 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * @author Pepe Salcedo
+ * This class finds the palette entry closest to a color. The palette is stored as an implicit 3-d tree: every
+ * range of `order` holds its median along the widest channel at its middle, the lower half before it and the
+ * upper half after it, so a search only visits the branches a closer entry could be in.
+ * The tree is immutable once built and can be searched from any number of threads
+ */
+public class ColorKdTree {
+    private final int[] palette;
+    private final int[] order;
+    private final byte[] axes;
+
+    /**
+     * Builds the tree of a palette.
+     *
+     * @param palette The packed RGB colors of the palette, at least one.
+     * @throws IllegalArgumentException If the palette is empty.
+     */
+    public ColorKdTree(int[] palette) {
+        if (palette.length == 0) {
+            throw new IllegalArgumentException("A palette needs at least one color");
+        }
+
+        this.palette = palette.clone();
+        this.order = new int[palette.length];
+        this.axes = new byte[palette.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        build(0, order.length);
+    }
+
+    /**
+     * @param rgb A packed RGB color.
+     * @return The index of the palette entry with the smallest squared distance to the color.
+     */
+    public int nearest(int rgb) {
+        return (int) search(0, order.length, rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sorts a range of `order` along its widest channel and recurses into both halves around the median.
+     */
+    private void build(int from, int to) {
+        if (to - from <= 0) {
+            return;
+        }
+
+        int axis = widestAxis(from, to);
+        // each entry sorts on its channel value, with its index in the low bits
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = (long) channel(palette[order[i]], axis) << 32 | order[i];
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            order[i] = (int) keys[i - from];
+        }
+
+        int middle = (from + to) >>> 1;
+        axes[middle] = (byte) axis;
+        build(from, middle);
+        build(middle + 1, to);
+    }
+
+    private int widestAxis(int from, int to) {
+        int axis = 0;
+        int widest = -1;
+        for (int channel = 0; channel < 3; channel++) {
+            int low = 255;
+            int high = 0;
+            for (int i = from; i < to; i++) {
+                int value = channel(palette[order[i]], channel);
+                low = Math.min(low, value);
+                high = Math.max(high, value);
+            }
+            if (high - low > widest) {
+                widest = high - low;
+                axis = channel;
+            }
+        }
+        return axis;
+    }
+
+    /**
+     * Searches a range of the tree.
+     *
+     * @param best The best match so far, its squared distance in the high bits and its index in the low bits.
+     * @return The best match after searching the range, in the same form.
+     */
+    private long search(int from, int to, int r, int g, int b, long best) {
+        if (to - from <= 0) {
+            return best;
+        }
+
+        int middle = (from + to) >>> 1;
+        int entry = order[middle];
+        int color = palette[entry];
+        int dr = (color >> 16 & 0xFF) - r;
+        int dg = (color >> 8 & 0xFF) - g;
+        int db = (color & 0xFF) - b;
+        long distance = dr * dr + dg * dg + db * db;
+        if (distance << 32 < (best & 0xFFFFFFFF00000000L) || best == Long.MAX_VALUE) {
+            best = distance << 32 | entry;
+        }
+
+        int axis = axes[middle];
+        int offset = axis == 0 ? r - (color >> 16 & 0xFF) : axis == 1 ? g - (color >> 8 & 0xFF) : b - (color & 0xFF);
+        if (offset < 0) {
+            best = search(from, middle, r, g, b, best);
+            if ((long) offset * offset << 32 < (best & 0xFFFFFFFF00000000L)) {
+                best = search(middle + 1, to, r, g, b, best);
+            }
+        } else {
+            best = search(middle + 1, to, r, g, b, best);
+            if ((long) offset * offset << 32 < (best & 0xFFFFFFFF00000000L)) {
+                best = search(from, middle, r, g, b, best);
+            }
+        }
+        return best;
+    }
+
+    private static int channel(int rgb, int channel) {
+        return rgb >> (16 - 8 * channel) & 0xFF;
+    }
+}
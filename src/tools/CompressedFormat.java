@@ -0,0 +1,70 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * The layouts a compressed file can be written in
+ */
+public enum CompressedFormat {
+    /**
+     * The original layout: a 1 byte factor, a 4 byte column count and raw RGB triplets.
+     */
+    LEGACY(-1),
+    /**
+     * A versioned container whose block rows are Paeth-predicted and Deflate-compressed.
+     */
+    DEFLATE(0),
+    /**
+     * A versioned container split into independently compressed tiles with an offset index.
+     */
+    TILED(1),
+    /**
+     * A versioned container holding the blocks at the compression factor and at every coarser power of two,
+     * coarsest first, for progressive previews.
+     */
+    PYRAMID(2),
+    /**
+     * A versioned container whose blocks are merged into larger squares wherever the colors are flat,
+     * following a variance-driven quadtree. Decompressing the whole image fills the inside of every merged square
+     * with its color, so only the cells near square edges are interpolated.
+     */
+    QUADTREE(3),
+    /**
+     * A versioned container storing the luma of every block at the compression factor and its two chroma
+     * planes at a coarser factor, each plane Paeth-predicted and Deflate-compressed.
+     */
+    YCBCR(4),
+    /**
+     * A versioned container storing a color dictionary of at most 256 entries and the index of every block
+     * in it, in 4 or 8 bits.
+     */
+    PALETTE(5);
+
+    private final int code;
+
+    CompressedFormat(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return The byte identifying the layout in a container header.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the container layout identified by a header byte.
+     *
+     * @param code The layout byte of a container header.
+     * @return The matching layout.
+     * @throws IllegalArgumentException If no container layout has the given code.
+     */
+    public static CompressedFormat fromCode(int code) {
+        for (CompressedFormat format : values()) {
+            if (format.code == code && format != LEGACY) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compressed layout: " + code);
+    }
+}
@@ -0,0 +1,86 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * This class describes what an automatically chosen compression factor must achieve: a minimum PSNR, a minimum
+ * SSIM, a maximum compressed size, or any combination of them. A limit of `0` is not enforced
+ */
+public class CompressionTarget {
+    private final double minPsnr;
+    private final double minSsim;
+    private final long maxBytes;
+
+    /**
+     * @param minPsnr  The lowest acceptable PSNR in decibels, or `0`.
+     * @param minSsim  The lowest acceptable SSIM between `0` and `1`, or `0`.
+     * @param maxBytes The largest acceptable compressed file in bytes, or `0`.
+     * @throws IllegalArgumentException If a limit is out of range or none is given.
+     */
+    public CompressionTarget(double minPsnr, double minSsim, long maxBytes) {
+        if (minPsnr < 0 || minSsim < 0 || minSsim > 1 || maxBytes < 0) {
+            throw new IllegalArgumentException("Quality and size targets cannot be negative, and SSIM cannot exceed 1");
+        } else if (minPsnr == 0 && minSsim == 0 && maxBytes == 0) {
+            throw new IllegalArgumentException("A PSNR, SSIM or size target is required");
+        }
+        this.minPsnr = minPsnr;
+        this.minSsim = minSsim;
+        this.maxBytes = maxBytes;
+    }
+
+    public double getMinPsnr() {
+        return minPsnr;
+    }
+
+    public double getMinSsim() {
+        return minSsim;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Whether a PSNR or SSIM target is set.
+     */
+    public boolean hasQualityTarget() {
+        return minPsnr > 0 || minSsim > 0;
+    }
+
+    /**
+     * @return Whether a size target is set.
+     */
+    public boolean hasSizeTarget() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @param quality The measured quality.
+     * @return Whether the quality meets every quality target.
+     */
+    public boolean isMetBy(ImageQuality quality) {
+        return quality.getPsnr() >= minPsnr && quality.getSsim() >= minSsim;
+    }
+
+    /**
+     * @param bytes The compressed size.
+     * @return Whether the size meets the size target.
+     */
+    public boolean isMetBy(long bytes) {
+        return maxBytes == 0 || bytes <= maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (minPsnr > 0) {
+            text.append(String.format("PSNR >= %.2f dB", minPsnr));
+        }
+        if (minSsim > 0) {
+            text.append(text.isEmpty() ? "" : ", ").append(String.format("SSIM >= %.4f", minSsim));
+        }
+        if (maxBytes > 0) {
+            text.append(text.isEmpty() ? "" : ", ").append("size <= ").append(maxBytes).append(" bytes");
+        }
+        return text.toString();
+    }
+}
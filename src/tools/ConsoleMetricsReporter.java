@@ -0,0 +1,25 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * This reporter prints one line per stage on an `IOHandler`
+ */
+public class ConsoleMetricsReporter extends MetricsReporter {
+    private final IOHandler console;
+
+    /**
+     * @param console The handler receiving the lines.
+     */
+    public ConsoleMetricsReporter(IOHandler console) {
+        this.console = console;
+    }
+
+    @Override
+    public void report(StageStatistics statistics) {
+        console.showInfo(String.format("==> metrics %-18s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms "
+                        + "in=%dB out=%dB pixels/s=%.0f alloc=%dB",
+                statistics.getStage(), statistics.getCount(), statistics.getMeanMillis(), statistics.getP50Millis(),
+                statistics.getP99Millis(), statistics.getMaxMillis(), statistics.getBytesIn(), statistics.getBytesOut(),
+                statistics.getPixelsPerSecond(), statistics.getAllocatedBytes()));
+    }
+}
@@ -0,0 +1,123 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Pepe Salcedo
+ * This class holds the header of the versioned compressed container: a magic number, the container version,
+ * the layout of the payload, the compression factor and the dimensions of the source image
+ */
+public class ContainerHeader {
+    public static final int SIZE = 18;
+    public static final int VERSION = 1;
+    private static final byte[] MAGIC = {(byte) 0x89, 'P', 'E', 'P'};
+
+    private final CompressedFormat format;
+    private final int compressionFactor;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param format            The layout of the payload.
+     * @param compressionFactor The compression factor.
+     * @param width             The width of the source image in pixels.
+     * @param height            The height of the source image in pixels.
+     */
+    public ContainerHeader(CompressedFormat format, int compressionFactor, int width, int height) {
+        this.format = format;
+        this.compressionFactor = compressionFactor;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Checks whether a buffer starts with the container magic number.
+     *
+     * @param buffer The start of a compressed file.
+     * @return `true` for a container, `false` for the legacy layout.
+     */
+    public static boolean isContainer(ByteBuffer buffer) {
+        if (buffer.limit() < SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the header at the start of a buffer.
+     *
+     * @param buffer The start of a compressed container.
+     * @return The parsed header.
+     * @throws IOException If the header is not a supported container header.
+     */
+    public static ContainerHeader read(ByteBuffer buffer) throws IOException {
+        if (!isContainer(buffer)) {
+            throw new IOException("Not a compressed container");
+        } else if (buffer.get(4) != VERSION) {
+            throw new IOException("Unsupported container version: " + buffer.get(4));
+        }
+
+        try {
+            ContainerHeader header = new ContainerHeader(CompressedFormat.fromCode(buffer.get(5)),
+                    buffer.getInt(6), buffer.getInt(10), buffer.getInt(14));
+
+            if (header.compressionFactor <= 1 || header.width <= 0 || header.height <= 0) {
+                throw new IOException("Invalid compressed container header");
+            }
+            return header;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the header.
+     *
+     * @param writer The writer of the compressed file, positioned at its start.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void write(BlockFileWriter writer) throws IOException {
+        writer.write(MAGIC);
+        writer.write(VERSION);
+        writer.write(format.getCode());
+        writer.writeInt(compressionFactor);
+        writer.writeInt(width);
+        writer.writeInt(height);
+    }
+
+    public CompressedFormat getFormat() {
+        return format;
+    }
+
+    public int getCompressionFactor() {
+        return compressionFactor;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The number of block columns, counting the partial block at the right edge.
+     */
+    public int getBlockCols() {
+        return (int) (((long) width + compressionFactor - 1) / compressionFactor);
+    }
+
+    /**
+     * @return The number of block rows, counting the partial block at the bottom edge.
+     */
+    public int getBlockRows() {
+        return (int) (((long) height + compressionFactor - 1) / compressionFactor);
+    }
+}
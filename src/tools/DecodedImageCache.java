@@ -0,0 +1,249 @@
+package tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @author Pepe Salcedo
+ * This class keeps recently decompressed images in memory, already encoded as BMP files, so repeated requests for
+ * the same compressed file are served by writing the cached bytes out, without decoding, interpolating or
+ * encoding it again.
+ * Entries are keyed by the SHA-256 of the compressed file together with the parameters of the output. The digest
+ * of every file is remembered against its path, identity, size and modification time, and only computed again
+ * once one of them changes, so a hit does not read the compressed file; a file rewritten in place is only served
+ * stale if it keeps both its size and its modification time.
+ * The cache holds at most `capacityBytes` of BMP data, evicting the least recently used images first, and can keep
+ * it outside the Java heap
+ */
+public class DecodedImageCache {
+    // files whose digest is remembered, far more than the images a cache of any useful capacity holds
+    private static final int MAX_DIGESTS = 4096;
+
+    private final long capacityBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Fingerprint, String> digests = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, String> eldest) {
+            return size() > MAX_DIGESTS;
+        }
+    };
+    private long sizeBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacityBytes The maximum number of BMP bytes held at once.
+     * @param offHeap       Whether the images are stored in direct buffers instead of heap arrays.
+     */
+    public DecodedImageCache(long capacityBytes, boolean offHeap) {
+        if (capacityBytes < 0) {
+            throw new IllegalArgumentException("The cache capacity cannot be negative");
+        }
+        this.capacityBytes = capacityBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Builds the key of a decompressed image from the content of its compressed file. The file is only hashed
+     * the first time it is seen and whenever its size or modification time changes.
+     *
+     * @param compressedFile The compressed file.
+     * @param parameters     Every parameter that changes the decompressed pixels, such as the filter name.
+     * @return The cache key.
+     * @throws IOException If the file cannot be read.
+     */
+    public String key(Path compressedFile, String parameters) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(compressedFile, BasicFileAttributes.class);
+        Fingerprint fingerprint = new Fingerprint(compressedFile.toAbsolutePath().normalize(), attributes.fileKey(),
+                attributes.size(), attributes.lastModifiedTime());
+
+        String digest;
+        synchronized (this) {
+            digest = digests.get(fingerprint);
+        }
+        if (digest == null) {
+            digest = digest(compressedFile);
+            synchronized (this) {
+                digests.put(fingerprint, digest);
+            }
+        }
+        return digest + "/" + parameters;
+    }
+
+    /**
+     * Gets a cached image, marking it as the most recently used.
+     *
+     * @param key The key built by `key`.
+     * @return A read-only view of the cached BMP file, from position `0`, or `null` if the image is not cached.
+     */
+    public synchronized ByteBuffer get(String key) {
+        ByteBuffer bmp = entries.get(key);
+        if (bmp == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return bmp.asReadOnlyBuffer();
+    }
+
+    /**
+     * Encodes a decompressed image as a BMP file and stores it, evicting the least recently used images until
+     * it fits. Images larger than the whole cache (or than a single buffer) are not stored.
+     *
+     * @param key   The key built by `key`.
+     * @param image The decompressed image.
+     * @return A read-only view of the stored BMP file, from position `0`, or `null` if the image was not stored.
+     * @throws IOException If the image cannot be encoded as a BMP file.
+     */
+    public ByteBuffer put(String key, BufferedImage image) throws IOException {
+        long bytes = BmpCodec.fileSize(image.getWidth(), image.getHeight());
+        if (bytes > capacityBytes || bytes > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+
+        ByteBuffer bmp = offHeap ? ByteBuffer.allocateDirect((int) bytes) : ByteBuffer.allocate((int) bytes);
+        BmpCodec.write(image, new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) {
+                int written = source.remaining();
+                bmp.put(source);
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        bmp.flip();
+
+        synchronized (this) {
+            ByteBuffer previous = entries.put(key, bmp);
+            if (previous != null) {
+                sizeBytes -= previous.capacity();
+            }
+            sizeBytes += bytes;
+
+            Iterator<ByteBuffer> eldest = entries.values().iterator();
+            while (sizeBytes > capacityBytes && eldest.hasNext()) {
+                ByteBuffer evicted = eldest.next();
+                eldest.remove();
+                sizeBytes -= evicted.capacity();
+                evictions++;
+            }
+        }
+        return bmp.asReadOnlyBuffer();
+    }
+
+    /**
+     * Removes every cached image and every remembered digest. The counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        digests.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return A one line summary of the cache counters.
+     */
+    @Override
+    public synchronized String toString() {
+        long requests = hits + misses;
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d images, %.1f of %.1f MB%s",
+                hits, misses, requests == 0 ? 0 : hits * 100.0 / requests, evictions, entries.size(),
+                sizeBytes / 1e6, capacityBytes / 1e6, offHeap ? " off-heap" : "");
+    }
+
+    /**
+     * Hashes the whole content of a file.
+     *
+     * @param file The file to hash.
+     * @return The SHA-256 of the file in hexadecimal.
+     * @throws IOException If the file cannot be read.
+     */
+    private static String digest(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            digest.update(buffer);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * What identifies one version of a file without reading it: its path, its identity on the file system
+     * (if it has one), its size and its modification time.
+     */
+    private static final class Fingerprint {
+        private final Path path;
+        private final Object fileKey;
+        private final long size;
+        private final FileTime modified;
+
+        private Fingerprint(Path path, Object fileKey, long size, FileTime modified) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Fingerprint that && size == that.size && path.equals(that.path)
+                    && Objects.equals(fileKey, that.fileKey) && modified.equals(that.modified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, fileKey, size, modified);
+        }
+    }
+}
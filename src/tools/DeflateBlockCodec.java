@@ -0,0 +1,268 @@
+package tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Pepe Salcedo
+ * This class encodes the payload of the `DEFLATE` container layout: every block row is Paeth-predicted from the
+ * row above and the residuals of all rows form a single Deflate stream.
+ * Deflaters and inflaters are borrowed from bounded pools and reset before they are returned, so concurrent
+ * requests neither share zlib state nor pay for allocating and freeing it on every call, and the native memory of
+ * any surplus stream is freed as soon as it is returned
+ */
+public class DeflateBlockCodec {
+    // Deflate never inflates one byte into more than 1032, so a shorter stream cannot hold the data it claims
+    public static final long MAX_INFLATE_RATIO = 1032;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final ResourcePool<Deflater> DEFLATERS = new ResourcePool<>(ResourcePool.DEFAULT_CAPACITY,
+            () -> new Deflater(Deflater.DEFAULT_COMPRESSION), Deflater::end);
+    private static final ResourcePool<Inflater> INFLATERS = new ResourcePool<>(ResourcePool.DEFAULT_CAPACITY,
+            Inflater::new, Inflater::end);
+
+    private DeflateBlockCodec() {
+    }
+
+    /**
+     * Compresses the block rows and writes the Deflate stream.
+     *
+     * @param blockData The RGB triplets of every block, row by row.
+     * @param blockCols The number of block columns.
+     * @param blockRows The number of block rows.
+     * @param writer    The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(byte[] blockData, int blockCols, int blockRows, BlockFileWriter writer) throws IOException {
+        writer.write(encode(blockData, blockCols, 0, 0, blockCols, blockRows));
+    }
+
+    /**
+     * Compresses block rows held in a scratch file, handing the Deflate stream to the writer as it is produced so
+     * neither the blocks nor the stream are ever held whole in the heap.
+     *
+     * @param blockData The RGB triplets of every block, row by row.
+     * @param blockCols The number of block columns.
+     * @param blockRows The number of block rows.
+     * @param writer    The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(ScratchBuffer blockData, int blockCols, int blockRows, BlockFileWriter writer) throws IOException {
+        int rowBytes = blockCols * 3;
+        byte[] row = new byte[rowBytes];
+        byte[] previous = new byte[rowBytes];
+        byte[] residuals = new byte[rowBytes];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        Deflater deflater = DEFLATERS.borrow();
+
+        try {
+            for (int y = 0; y < blockRows; y++) {
+                blockData.get((long) y * rowBytes, row, 0, rowBytes);
+                PaethPredictor.filter(row, y == 0 ? null : previous, residuals);
+
+                deflater.setInput(residuals);
+                while (!deflater.needsInput()) {
+                    writer.write(chunk, 0, deflater.deflate(chunk));
+                }
+
+                byte[] swap = previous;
+                previous = row;
+                row = swap;
+            }
+
+            deflater.finish();
+            while (!deflater.finished()) {
+                writer.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.reset();
+            DEFLATERS.release(deflater);
+        }
+    }
+
+    /**
+     * Compresses a rectangle of blocks into an independent Deflate stream.
+     *
+     * @param blockData The RGB triplets of every block, row by row.
+     * @param blockCols The number of block columns in `blockData`.
+     * @param x0        The first block column of the rectangle.
+     * @param y0        The first block row of the rectangle.
+     * @param width     The number of block columns in the rectangle.
+     * @param height    The number of block rows in the rectangle.
+     * @return The Deflate stream of the rectangle.
+     */
+    public static byte[] encode(byte[] blockData, int blockCols, int x0, int y0, int width, int height) {
+        int rowBytes = width * 3;
+        byte[] row = new byte[rowBytes];
+        byte[] previous = new byte[rowBytes];
+        byte[] residuals = new byte[rowBytes];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Deflater deflater = DEFLATERS.borrow();
+
+        try {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(blockData, ((y0 + y) * blockCols + x0) * 3, row, 0, rowBytes);
+                PaethPredictor.filter(row, y == 0 ? null : previous, residuals);
+
+                deflater.setInput(residuals);
+                while (!deflater.needsInput()) {
+                    output.write(chunk, 0, deflater.deflate(chunk));
+                }
+
+                byte[] swap = previous;
+                previous = row;
+                row = swap;
+            }
+
+            deflater.finish();
+            while (!deflater.finished()) {
+                output.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.reset();
+            DEFLATERS.release(deflater);
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Inflates the payload and rebuilds the packed RGB color of every block.
+     *
+     * @param payload     The Deflate stream, from its current position.
+     * @param cols        The number of block columns.
+     * @param rows        The number of block rows.
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int cols, int rows, int[] destination) throws IOException {
+        decode(payload, cols, rows, destination, cols, 0, 0);
+    }
+
+    /**
+     * Inflates a rectangle of blocks into its place in a larger grid.
+     *
+     * @param payload         The Deflate stream of the rectangle, from its current position.
+     * @param width           The number of block columns in the rectangle.
+     * @param height          The number of block rows in the rectangle.
+     * @param destination     The packed RGB grid receiving the colors.
+     * @param destinationCols The number of columns of the destination grid.
+     * @param destinationX    The destination column of the rectangle's first block.
+     * @param destinationY    The destination row of the rectangle's first block.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int width, int height, int[] destination,
+                              int destinationCols, int destinationX, int destinationY) throws IOException {
+        decodeRows(payload, width, height, (y, colors) ->
+                System.arraycopy(colors, 0, destination, (destinationY + y) * destinationCols + destinationX, width));
+    }
+
+    /**
+     * Inflates the block rows one at a time, handing each one over as soon as it is rebuilt, so the rows can be
+     * processed while the rest of the stream is still compressed.
+     *
+     * @param payload  The Deflate stream, from its current position.
+     * @param width    The number of block columns.
+     * @param height   The number of block rows.
+     * @param consumer The consumer receiving every row, top to bottom.
+     * @throws IOException If the payload is truncated or corrupt, or the consumer fails.
+     */
+    public static void decodeRows(ByteBuffer payload, int width, int height, BlockRowConsumer consumer) throws IOException {
+        byte[] row = new byte[width * 3];
+        byte[] previous = new byte[width * 3];
+        int[] colors = new int[width];
+        Inflater inflater = INFLATERS.borrow();
+
+        try {
+            inflater.setInput(payload);
+
+            for (int y = 0; y < height; y++) {
+                inflateFully(inflater, row);
+                PaethPredictor.unfilter(row, y == 0 ? null : previous);
+
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    colors[x] = (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+                }
+                consumer.accept(y, colors);
+
+                byte[] swap = previous;
+                previous = row;
+                row = swap;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed data", e);
+        } finally {
+            inflater.reset();
+            INFLATERS.release(inflater);
+        }
+    }
+
+    /**
+     * Compresses a whole array into a single Deflate stream.
+     *
+     * @param data The bytes to compress.
+     * @return The Deflate stream.
+     */
+    public static byte[] deflate(byte[] data) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Deflater deflater = DEFLATERS.borrow();
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                output.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.reset();
+            DEFLATERS.release(deflater);
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Inflates a Deflate stream into exactly `destination.length` bytes.
+     *
+     * @param payload     The Deflate stream, from its current position.
+     * @param destination The array to fill.
+     * @throws IOException If the stream is truncated or corrupt.
+     */
+    public static void inflate(ByteBuffer payload, byte[] destination) throws IOException {
+        Inflater inflater = INFLATERS.borrow();
+
+        try {
+            inflater.setInput(payload);
+            inflateFully(inflater, destination);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed data", e);
+        } finally {
+            inflater.reset();
+            INFLATERS.release(inflater);
+        }
+    }
+
+    /**
+     * Inflates exactly `buffer.length` bytes.
+     *
+     * @param inflater The inflater holding the payload.
+     * @param buffer   The array to fill.
+     * @throws IOException          If the stream ends early.
+     * @throws DataFormatException If the stream is corrupt.
+     */
+    static void inflateFully(Inflater inflater, byte[] buffer) throws IOException, DataFormatException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            int inflated = inflater.inflate(buffer, filled, buffer.length - filled);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                throw new IOException("Compressed data ended early");
+            }
+            filled += inflated;
+        }
+    }
+}
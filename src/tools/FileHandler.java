@@ -5,6 +5,11 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,8 +18,9 @@ import java.util.List;
  * This class verifies an image validity from the file path and returns a BufferedImage
  */
 public class FileHandler {
-    private static IOConsole console = null;
     private static FileHandler instance = null;
+    private final IOConsole console;
+    private volatile boolean interactive = true;
 
     /**
      * Private constructor to initialize a `FileHandler` instance with the specified console.
@@ -31,7 +37,7 @@ public class FileHandler {
      * @return The unique instance of `FileHandler`.
      * @throws Exception If the instance is not found.
      */
-    public static FileHandler getInstance() throws Exception {
+    public static synchronized FileHandler getInstance() throws Exception {
         if (instance == null) {
             throw new Exception("Instance not found");
         }
@@ -44,7 +50,7 @@ public class FileHandler {
      * @param console The input/output console used for displaying messages.
      * @return The unique instance of `FileHandler`.
      */
-    public static FileHandler getInstance(IOConsole console) {
+    public static synchronized FileHandler getInstance(IOConsole console) {
         if (instance == null) {
             instance = new FileHandler(console);
         }
@@ -81,8 +87,10 @@ public class FileHandler {
     }
 
     /**
-     * This function verifies that a given path returns a valid BufferedImage with .bmp file format
+     * This function verifies that a given path returns a valid BufferedImage with .bmp file format.
+     * When the handler is interactive an invalid path is asked again, otherwise it fails right away.
      * @return Returns a verified BufferedImage
+     * @throws IllegalArgumentException If the path is invalid and the handler is not interactive.
      */
     public BufferedImage getBufferedImage(String img_path) {
         boolean verified = false;
@@ -90,16 +98,13 @@ public class FileHandler {
 
         do {
             if (!verifyMimeType(img_path)) {
-                console.showInfo("==> Incorrect MIME type! The extension should be of type \".bmp\"");
-                img_path = console.getString("Relative path to file: ");
+                img_path = askPathAgain("Incorrect MIME type! The extension should be of type \".bmp\"");
                 continue;
             } else if ((image = verifyPath(img_path)) == null) {
-                console.showInfo("==> File path is incorrect!");
-                img_path = console.getString("Relative path to file: ");
+                img_path = askPathAgain("File path is incorrect!");
                 continue;
             } else if (!verifyDimensions(image)) {
-                console.showInfo("==> Dimensions cannot be less than 1x1 pixels");
-                img_path = console.getString("Relative path to file: ");
+                img_path = askPathAgain("Dimensions cannot be less than 1x1 pixels");
                 continue;
             }
 
@@ -109,6 +114,45 @@ public class FileHandler {
         return image;
     }
 
+    /**
+     * Sets whether invalid paths are asked again on the console or reported as errors.
+     *
+     * @param interactive `false` for scripted runs that must never wait on standard input.
+     */
+    public void setInteractive(boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    /**
+     * Reports a problem with the current path and asks for a new one.
+     *
+     * @param problem The description of the problem.
+     * @return The new path typed by the user.
+     * @throws IllegalArgumentException If the handler is not interactive.
+     */
+    private String askPathAgain(String problem) {
+        console.showInfo("==> " + problem);
+        if (!interactive) {
+            throw new IllegalArgumentException(problem);
+        }
+        return console.getString("Relative path to file: ");
+    }
+
+    /**
+     * Opens a BMP file for reading one scanline at a time without decoding the whole image.
+     * Unlike `getBufferedImage`, an invalid path is reported to the caller instead of prompting again.
+     *
+     * @param img_path The path to the BMP file.
+     * @return A reader positioned at the first scanline of the file.
+     * @throws IOException If the file is not a readable uncompressed BMP.
+     */
+    public BmpScanlineReader getScanlineReader(String img_path) throws IOException {
+        if (!verifyMimeType(img_path)) {
+            throw new IOException("Incorrect MIME type! The extension should be of type \".bmp\"");
+        }
+        return new BmpScanlineReader(Path.of(img_path));
+    }
+
     /**
      * This function verifies the image dimensions are valid
      * @param img BufferedImage
@@ -125,6 +169,30 @@ public class FileHandler {
      * @return The loaded `BufferedImage`, or `null` if an error occurs.
      */
     private BufferedImage verifyPath(String path) {
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("read-bmp")) {
+            BufferedImage image;
+            try {
+                image = BmpCodec.read(Path.of(path));
+            } catch (BmpCodec.UnsupportedBmpException err) {
+                image = readWithImageIO(path);
+            }
+
+            if (image != null) {
+                timer.bytesIn(new File(path).length()).pixels((long) image.getWidth() * image.getHeight());
+            }
+            return image;
+        } catch (IOException | InvalidPathException err) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the BMP variants the native codec does not decode (palettes, run-length encoding...) with `ImageIO`.
+     *
+     * @param path The path to the image file.
+     * @return The loaded `BufferedImage`, or `null` if an error occurs.
+     */
+    private BufferedImage readWithImageIO(String path) {
         try {
             File file = new File(path);
             return ImageIO.read(file);
@@ -155,10 +223,37 @@ public class FileHandler {
     public void renderBufferedImage(String name, String format, BufferedImage image) throws IOException {
         File output = new File(name + "." + format);
 
-        try {
-            ImageIO.write(image, format, output);
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("write-bmp")) {
+            if (format.equalsIgnoreCase("bmp")) {
+                BmpCodec.write(output.toPath(), image);
+            } else {
+                ImageIO.write(image, format, output);
+            }
+            timer.bytesOut(output.length()).pixels((long) image.getWidth() * image.getHeight());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Writes an image that is already encoded to a file with the specified name and format.
+     *
+     * @param name    The base name of the output file.
+     * @param format  The format the image is encoded in (e.g., "bmp").
+     * @param encoded The whole encoded file, from its position to its limit. The buffer itself is not modified.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void renderEncodedImage(String name, String format, ByteBuffer encoded) throws IOException {
+        Path output = Path.of(name + "." + format);
+
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("write-bmp");
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer source = encoded.duplicate();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+            timer.bytesOut(encoded.remaining());
+        }
+    }
 }
@@ -15,7 +15,7 @@ public class IOConsole extends IOHandler {
      * The constructor initializes the scanner without user input
      */
     public IOConsole() {
-        setScanner(new Scanner(System.in));
+        this.scanner = new Scanner(System.in);
     }
 
     /**
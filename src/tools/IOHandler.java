@@ -5,4 +5,15 @@ public abstract class IOHandler {
     public abstract float getFloat(String info, String notValidInput);
     public abstract int getInt(String info, String notValidInput);
     public abstract String getString(String info);
+
+    /**
+     * Shows the message that announces a stage of work. Handlers that time stages key them by the fixed
+     * identifier, never by the message, which may carry file names, sizes or other run-specific values.
+     *
+     * @param stage The identifier of the stage, such as "generating-pixel-data".
+     * @param info  The message shown to the user.
+     */
+    public void showStage(String stage, String info) {
+        showInfo(info);
+    }
 }
@@ -0,0 +1,136 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * This class measures how close a decompressed image is to its source, accumulating regions one at a time so
+ * a whole image and a handful of sampled tiles are measured the same way.
+ * PSNR is computed over the three color channels. SSIM is computed on the luma of non-overlapping 8x8 windows
+ * with the usual constants, and averaged over every window
+ */
+public class ImageQuality {
+    private static final int WINDOW = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private long squaredError = 0;
+    private long samples = 0;
+    private double ssimTotal = 0;
+    private long windows = 0;
+
+    /**
+     * Compares a region of the source with the same region of the decompressed image.
+     *
+     * @param reference       The packed RGB pixels of the source.
+     * @param referenceOffset The position in `reference` of the top left pixel of the region.
+     * @param referenceStride The number of pixels in a row of `reference`.
+     * @param decoded         The packed RGB pixels of the decompressed image.
+     * @param decodedOffset   The position in `decoded` of the top left pixel of the region.
+     * @param decodedStride   The number of pixels in a row of `decoded`.
+     * @param width           The width of the region.
+     * @param height          The height of the region.
+     */
+    public void add(int[] reference, int referenceOffset, int referenceStride,
+                    int[] decoded, int decodedOffset, int decodedStride, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int a = referenceOffset + y * referenceStride;
+            int b = decodedOffset + y * decodedStride;
+            for (int x = 0; x < width; x++) {
+                int p = reference[a + x];
+                int q = decoded[b + x];
+                int red = (p >> 16 & 0xFF) - (q >> 16 & 0xFF);
+                int green = (p >> 8 & 0xFF) - (q >> 8 & 0xFF);
+                int blue = (p & 0xFF) - (q & 0xFF);
+                squaredError += red * red + green * green + blue * blue;
+            }
+        }
+        samples += 3L * width * height;
+
+        // regions smaller than a window are measured as a single window
+        int windowWidth = Math.min(WINDOW, width);
+        int windowHeight = Math.min(WINDOW, height);
+        for (int y = 0; y + windowHeight <= height; y += windowHeight) {
+            for (int x = 0; x + windowWidth <= width; x += windowWidth) {
+                ssimTotal += windowSsim(reference, referenceOffset + y * referenceStride + x, referenceStride,
+                        decoded, decodedOffset + y * decodedStride + x, decodedStride, windowWidth, windowHeight);
+                windows++;
+            }
+        }
+    }
+
+    /**
+     * Adds the regions measured by another instance, so tiles can be measured in parallel.
+     *
+     * @param other The measurements to add.
+     */
+    public void add(ImageQuality other) {
+        squaredError += other.squaredError;
+        samples += other.samples;
+        ssimTotal += other.ssimTotal;
+        windows += other.windows;
+    }
+
+    /**
+     * @return The peak signal to noise ratio in decibels, infinite for identical images.
+     */
+    public double getPsnr() {
+        if (squaredError == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mse = (double) squaredError / samples;
+        return 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    /**
+     * @return The mean structural similarity, `1` for identical images.
+     */
+    public double getSsim() {
+        return windows == 0 ? 1 : ssimTotal / windows;
+    }
+
+    /**
+     * @return The number of channel samples compared.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PSNR %.2f dB, SSIM %.4f", getPsnr(), getSsim());
+    }
+
+    private static double windowSsim(int[] reference, int referenceOffset, int referenceStride,
+                                     int[] decoded, int decodedOffset, int decodedStride, int width, int height) {
+        double sumA = 0;
+        double sumB = 0;
+        double sumAA = 0;
+        double sumBB = 0;
+        double sumAB = 0;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double a = luma(reference[referenceOffset + y * referenceStride + x]);
+                double b = luma(decoded[decodedOffset + y * decodedStride + x]);
+                sumA += a;
+                sumB += b;
+                sumAA += a * a;
+                sumBB += b * b;
+                sumAB += a * b;
+            }
+        }
+
+        int n = width * height;
+        double meanA = sumA / n;
+        double meanB = sumB / n;
+        double varianceA = sumAA / n - meanA * meanA;
+        double varianceB = sumBB / n - meanB * meanB;
+        double covariance = sumAB / n - meanA * meanB;
+
+        return ((2 * meanA * meanB + C1) * (2 * covariance + C2))
+                / ((meanA * meanA + meanB * meanB + C1) * (varianceA + varianceB + C2));
+    }
+
+    private static double luma(int rgb) {
+        return 0.299 * (rgb >> 16 & 0xFF) + 0.587 * (rgb >> 8 & 0xFF) + 0.114 * (rgb & 0xFF);
+    }
+}
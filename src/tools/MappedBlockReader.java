@@ -0,0 +1,365 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class memory-maps a compressed `.bin` file, parses its header and gives access to the RGB triplets
+ * of every block directly from the mapping, without copying the file into the heap.
+ * Both the legacy layout and the versioned container are recognised; the payload of a container is decoded
+ * straight from the mapping as well
+ */
+public class MappedBlockReader {
+    private static final int HEADER_SIZE = 5;
+    // the largest int array the JVM allocates
+    private static final long MAX_BLOCKS = Integer.MAX_VALUE - 8;
+
+    private final ByteBuffer buffer;
+    private final ContainerHeader header;
+    private final int[] levelFactors;
+    private final int compressionFactor;
+    private final int cols;
+    private final int rows;
+    private final int blockCount;
+
+    /**
+     * Maps the compressed file at the given path and parses its header.
+     *
+     * @param path The path to the compressed file.
+     * @throws IOException If the file cannot be mapped or its header is invalid.
+     */
+    public MappedBlockReader(Path path) throws IOException {
+        this(map(path));
+    }
+
+    /**
+     * Reads a compressed file that is already in memory, such as a received request body.
+     *
+     * @param compressed The compressed file, from the position to the limit of the buffer. The buffer itself is
+     *                   not modified, and must not be modified while the reader is in use.
+     * @throws IOException If the header is invalid.
+     */
+    public MappedBlockReader(ByteBuffer compressed) throws IOException {
+        this.buffer = compressed.slice();
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("Compressed file is too short");
+        }
+
+        if (ContainerHeader.isContainer(buffer)) {
+            this.header = ContainerHeader.read(buffer);
+            checkPayloadLength(header, buffer.capacity() - ContainerHeader.SIZE);
+            this.compressionFactor = header.getCompressionFactor();
+            this.cols = header.getBlockCols();
+            this.rows = header.getBlockRows();
+            this.blockCount = cols * rows;
+            this.levelFactors = header.getFormat() == CompressedFormat.PYRAMID
+                    ? PyramidBlockCodec.readFactors(payload())
+                    : new int[]{compressionFactor};
+            return;
+        }
+
+        this.header = null;
+        this.levelFactors = null;
+        this.compressionFactor = buffer.get(0) & 0xFF;
+        this.cols = buffer.getInt(1);
+        this.blockCount = (buffer.capacity() - HEADER_SIZE) / 3;
+        this.rows = cols > 0 ? (blockCount + 1) / cols : 0;
+
+        if (compressionFactor <= 1 || cols <= 0) {
+            throw new IOException("Invalid compressed file header");
+        } else if (blockCount > rows * cols) {
+            throw new IOException("Compressed data does not match the column count in the header");
+        }
+    }
+
+    /**
+     * Rejects headers whose blocks cannot fit in an array or be inflated from the payload, before anything is
+     * allocated for them, so a corrupt or forged dimension fails with an `IOException` instead of exhausting the heap.
+     *
+     * @param header        The container header.
+     * @param payloadLength The number of bytes after the header.
+     * @throws IOException If the payload is too short for the dimensions in the header.
+     */
+    private static void checkPayloadLength(ContainerHeader header, long payloadLength) throws IOException {
+        long cols = header.getBlockCols();
+        long rows = header.getBlockRows();
+        if (cols * rows > MAX_BLOCKS) {
+            throw new IOException("The compressed image has too many blocks: " + cols + "x" + rows);
+        }
+
+        // the fewest bytes the layout inflates to: a byte per block, half a byte with a small palette, and one
+        // leaf per quadtree root
+        long span = 1L << QuadtreeBlockCodec.MAX_DEPTH;
+        long inflated = switch (header.getFormat()) {
+            case QUADTREE -> 3 * ((cols + span - 1) / span) * ((rows + span - 1) / span);
+            case PALETTE -> (cols + 1) / 2 * rows;
+            default -> cols * rows;
+        };
+        if (payloadLength * DeflateBlockCodec.MAX_INFLATE_RATIO < inflated) {
+            throw new IOException("The compressed data is too short for the " + header.getWidth() + "x"
+                    + header.getHeight() + " image in its header");
+        }
+    }
+
+    /**
+     * Maps a whole compressed file.
+     *
+     * @param path The path to the compressed file.
+     * @return The read-only mapping of the file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Compressed file is too short: " + path);
+            } else if (size > Integer.MAX_VALUE) {
+                throw new IOException("Compressed files larger than 2 GB are not supported: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * @return The size of the mapped file in bytes.
+     */
+    public long getFileSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return The layout of the mapped file.
+     */
+    public CompressedFormat getFormat() {
+        return header == null ? CompressedFormat.LEGACY : header.getFormat();
+    }
+
+    /**
+     * @return The container header, or `null` for the legacy layout.
+     */
+    public ContainerHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return The compression factor stored in the header.
+     */
+    public int getCompressionFactor() {
+        return compressionFactor;
+    }
+
+    /**
+     * @return The number of block columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return The number of block rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The number of RGB triplets stored in the file.
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return The number of resolution levels, `1` unless the file is a pyramid.
+     */
+    public int getLevelCount() {
+        return levelFactors == null ? 1 : levelFactors.length;
+    }
+
+    /**
+     * @param level The level, `0` being the coarsest.
+     * @return The compression factor of the level.
+     */
+    public int getLevelFactor(int level) {
+        return levelFactors == null ? compressionFactor : levelFactors[level];
+    }
+
+    /**
+     * @param level The level, `0` being the coarsest.
+     * @return The number of block columns of the level.
+     */
+    public int getLevelCols(int level) {
+        return levelFactors == null ? cols : (header.getWidth() + levelFactors[level] - 1) / levelFactors[level];
+    }
+
+    /**
+     * @param level The level, `0` being the coarsest.
+     * @return The number of block rows of the level.
+     */
+    public int getLevelRows(int level) {
+        return levelFactors == null ? rows : (header.getHeight() + levelFactors[level] - 1) / levelFactors[level];
+    }
+
+    /**
+     * Decodes the blocks of one resolution level. Coarser levels of a pyramid are stored first, so they only
+     * touch the beginning of the file.
+     *
+     * @param level       The level, `0` being the coarsest.
+     * @param destination The array receiving the colors, at least `getLevelRows(level) * getLevelCols(level)` long.
+     * @throws IOException If the payload of a container is corrupt.
+     */
+    public void readLevel(int level, int[] destination) throws IOException {
+        if (level < 0 || level >= getLevelCount()) {
+            throw new IOException("The file has no level " + level);
+        } else if (getFormat() == CompressedFormat.PYRAMID) {
+            PyramidBlockCodec.decodeLevel(payload(), level, header.getWidth(), header.getHeight(), destination);
+        } else {
+            readBlocks(destination);
+        }
+    }
+
+    /**
+     * Reads one block straight from the mapping.
+     * Only the legacy layout stores raw triplets that can be read in place.
+     *
+     * @param index The index of the block, row by row.
+     * @return The packed RGB color of the block.
+     * @throws UnsupportedOperationException If the file is an encoded container.
+     */
+    public int getRGB(int index) {
+        if (header != null) {
+            throw new UnsupportedOperationException("Blocks of a " + header.getFormat() + " container cannot be read in place");
+        }
+
+        int position = HEADER_SIZE + index * 3;
+        return (buffer.get(position) & 0xFF) << 16
+                | (buffer.get(position + 1) & 0xFF) << 8
+                | (buffer.get(position + 2) & 0xFF);
+    }
+
+    /**
+     * Decodes every block into packed RGB values.
+     * Legacy triplets are converted one block row per task; blocks missing at the end of a legacy file are
+     * left black.
+     *
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @throws IOException If the payload of a container is corrupt.
+     */
+    public void readBlocks(int[] destination) throws IOException {
+        readBlocks(destination, null);
+    }
+
+    /**
+     * Decodes every block into packed RGB values, and reports the leaves of a quadtree file as well.
+     *
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @param leaves      The consumer receiving every leaf of a `QUADTREE` file, or `null`. It is not called for
+     *                    the other layouts.
+     * @throws IOException If the payload of a container is corrupt.
+     */
+    public void readBlocks(int[] destination, QuadtreeLeafConsumer leaves) throws IOException {
+        if (header != null) {
+            switch (header.getFormat()) {
+                case TILED -> TiledBlockCodec.decode(payload(), cols, rows, destination);
+                case PYRAMID -> PyramidBlockCodec.decodeLevel(payload(), levelFactors.length - 1,
+                        header.getWidth(), header.getHeight(), destination);
+                case QUADTREE -> QuadtreeBlockCodec.decode(payload(), cols, rows, destination, leaves);
+                case YCBCR -> YCbCrBlockCodec.decode(payload(), cols, rows, destination);
+                case PALETTE -> PaletteBlockCodec.decode(payload(), cols, rows, destination);
+                default -> DeflateBlockCodec.decode(payload(), cols, rows, destination);
+            }
+            return;
+        }
+
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            ByteBuffer view = buffer.duplicate();
+            int start = row * cols;
+            int end = Math.min(start + cols, blockCount);
+
+            for (int index = start, position = HEADER_SIZE + start * 3; index < end; index++, position += 3) {
+                destination[index] = (view.get(position) & 0xFF) << 16
+                        | (view.get(position + 1) & 0xFF) << 8
+                        | (view.get(position + 2) & 0xFF);
+            }
+        });
+    }
+
+    /**
+     * Decodes the blocks one row at a time, top to bottom.
+     * Legacy files and `DEFLATE` containers are decoded incrementally, so the first rows are handed over before
+     * the rest of the file is touched; other layouts are decoded completely first.
+     *
+     * @param consumer The consumer receiving every block row.
+     * @throws IOException If the payload of a container is corrupt, or the consumer fails.
+     */
+    public void readRows(BlockRowConsumer consumer) throws IOException {
+        if (header != null && header.getFormat() == CompressedFormat.DEFLATE) {
+            DeflateBlockCodec.decodeRows(payload(), cols, rows, consumer);
+            return;
+        }
+
+        int[] row = new int[cols];
+        if (header == null) {
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0, index = y * cols; x < cols; x++, index++) {
+                    row[x] = index < blockCount ? getRGB(index) : 0;
+                }
+                consumer.accept(y, row);
+            }
+            return;
+        }
+
+        int[] blocks = new int[cols * rows];
+        readBlocks(blocks);
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(blocks, y * cols, row, 0, cols);
+            consumer.accept(y, row);
+        }
+    }
+
+    /**
+     * Decodes the blocks of a rectangle.
+     * Tiled containers only inflate the tiles overlapping the rectangle and legacy files read the blocks in
+     * place; other layouts have to decode every block first.
+     *
+     * @param x0          The first block column of the rectangle (inclusive).
+     * @param y0          The first block row of the rectangle (inclusive).
+     * @param x1          The last block column of the rectangle (exclusive).
+     * @param y1          The last block row of the rectangle (exclusive).
+     * @param destination The array receiving the colors of the rectangle, row by row.
+     * @throws IOException If the payload of a container is corrupt.
+     */
+    public void readRegion(int x0, int y0, int x1, int y1, int[] destination) throws IOException {
+        int regionCols = x1 - x0;
+
+        if (header == null) {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int index = y * cols + x;
+                    destination[(y - y0) * regionCols + x - x0] = index < blockCount ? getRGB(index) : 0;
+                }
+            }
+        } else if (header.getFormat() == CompressedFormat.TILED) {
+            TiledBlockCodec.decodeRegion(payload(), cols, rows, x0, y0, x1, y1, destination);
+        } else {
+            int[] blocks = new int[cols * rows];
+            readBlocks(blocks);
+            for (int y = y0; y < y1; y++) {
+                System.arraycopy(blocks, y * cols + x0, destination, (y - y0) * regionCols, regionCols);
+            }
+        }
+    }
+
+    /**
+     * @return A view of the mapping starting right after the container header.
+     */
+    private ByteBuffer payload() {
+        return buffer.slice(ContainerHeader.SIZE, buffer.capacity() - ContainerHeader.SIZE);
+    }
+}
@@ -0,0 +1,76 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * This class holds the largest amount of heap that a single compression or decompression may use for pixel and
+ * block storage. Images whose rasters exceed it are streamed through bands and mapped scratch files instead of
+ * being loaded whole, trading throughput for a bounded footprint.
+ * The default is half of the maximum heap, leaving the rest for the codecs and their buffers
+ */
+public class MemoryBudget {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final long limit;
+
+    /**
+     * @param limit The largest allocation allowed, in bytes.
+     * @throws IllegalArgumentException If the limit is less than 1 byte.
+     */
+    public MemoryBudget(long limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The memory budget must be at least 1 byte");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * @return A budget of half of the maximum heap of this JVM.
+     */
+    public static MemoryBudget fromHeap() {
+        return new MemoryBudget(Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     * @param megabytes The largest allocation allowed, in megabytes.
+     * @return The budget.
+     * @throws IllegalArgumentException If the limit is less than 1 megabyte.
+     */
+    public static MemoryBudget ofMegabytes(long megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("The memory budget must be at least 1 MB");
+        }
+        return new MemoryBudget(megabytes * MEGABYTE);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param bytes The size of an allocation.
+     * @return Whether the allocation fits in the budget and in a single Java array.
+     */
+    public boolean fits(long bytes) {
+        return bytes <= limit && bytes <= Integer.MAX_VALUE - 8;
+    }
+
+    /**
+     * Estimates the heap held by a packed RGB raster.
+     *
+     * @param width  The width of the raster in pixels.
+     * @param height The height of the raster in pixels.
+     * @return The size of the raster in bytes, or `Long.MAX_VALUE` if it overflows.
+     */
+    public static long rasterBytes(long width, long height) {
+        try {
+            return Math.multiplyExact(Math.multiplyExact(width, height), Integer.BYTES);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return limit / MEGABYTE + " MB";
+    }
+}
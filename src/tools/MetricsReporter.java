@@ -0,0 +1,9 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * Publishes the statistics of the recorded stages somewhere, such as a console or a monitoring system
+ */
+public abstract class MetricsReporter {
+    public abstract void report(StageStatistics statistics);
+}
@@ -0,0 +1,90 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * This class applies the PNG Paeth predictor to rows of RGB triplets: every byte is replaced by its difference
+ * with the neighbour (left, above or above-left) closest to `left + above - aboveLeft`, which turns smooth
+ * regions into runs of small values that Deflate compresses well. Rows of single-channel planes are predicted
+ * the same way with a sample size of one byte
+ */
+public class PaethPredictor {
+    private static final int BYTES_PER_BLOCK = 3;
+
+    private PaethPredictor() {
+    }
+
+    /**
+     * Replaces every byte of a row with its prediction residual.
+     *
+     * @param row      The raw row.
+     * @param previous The raw row above, or `null` for the first row.
+     * @param output   The array receiving the residuals, as long as `row`.
+     */
+    public static void filter(byte[] row, byte[] previous, byte[] output) {
+        filter(row, previous, output, BYTES_PER_BLOCK);
+    }
+
+    /**
+     * Replaces every byte of a row of samples of the given size with its prediction residual.
+     *
+     * @param row        The raw row.
+     * @param previous   The raw row above, or `null` for the first row.
+     * @param output     The array receiving the residuals, as long as `row`.
+     * @param sampleSize The number of bytes per sample, `3` for RGB triplets and `1` for a single plane.
+     */
+    public static void filter(byte[] row, byte[] previous, byte[] output, int sampleSize) {
+        for (int i = 0; i < row.length; i++) {
+            output[i] = (byte) (row[i] - predict(row, previous, i, sampleSize));
+        }
+    }
+
+    /**
+     * Rebuilds a raw row from its residuals, in place.
+     *
+     * @param row      The residuals, replaced by the raw row.
+     * @param previous The raw row above, or `null` for the first row.
+     */
+    public static void unfilter(byte[] row, byte[] previous) {
+        unfilter(row, previous, BYTES_PER_BLOCK);
+    }
+
+    /**
+     * Rebuilds a raw row of samples of the given size from its residuals, in place.
+     *
+     * @param row        The residuals, replaced by the raw row.
+     * @param previous   The raw row above, or `null` for the first row.
+     * @param sampleSize The number of bytes per sample, `3` for RGB triplets and `1` for a single plane.
+     */
+    public static void unfilter(byte[] row, byte[] previous, int sampleSize) {
+        for (int i = 0; i < row.length; i++) {
+            row[i] = (byte) (row[i] + predict(row, previous, i, sampleSize));
+        }
+    }
+
+    /**
+     * Predicts a byte from the already known raw bytes around it.
+     *
+     * @param row        The current raw row, known up to `index - 1`.
+     * @param previous   The raw row above, or `null` for the first row.
+     * @param index      The position of the byte to predict.
+     * @param sampleSize The number of bytes per sample.
+     * @return The predicted byte value.
+     */
+    private static int predict(byte[] row, byte[] previous, int index, int sampleSize) {
+        int left = index >= sampleSize ? row[index - sampleSize] & 0xFF : 0;
+        int above = previous != null ? previous[index] & 0xFF : 0;
+        int aboveLeft = previous != null && index >= sampleSize ? previous[index - sampleSize] & 0xFF : 0;
+
+        int estimate = left + above - aboveLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceAbove = Math.abs(estimate - above);
+        int distanceAboveLeft = Math.abs(estimate - aboveLeft);
+
+        if (distanceLeft <= distanceAbove && distanceLeft <= distanceAboveLeft) {
+            return left;
+        } else if (distanceAbove <= distanceAboveLeft) {
+            return above;
+        }
+        return aboveLeft;
+    }
+}
@@ -0,0 +1,103 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class encodes the payload of the `PALETTE` container layout: a color dictionary built by
+ * `PaletteQuantizer` and the index of every block in it, packed in 4 bits when the dictionary has at most 16
+ * colors and in 8 bits otherwise. Every block row of indices starts on a byte.
+ * The payload holds the number of colors and the index width, the dictionary as RGB triplets and a Deflate
+ * stream of the indices, so decoding is a table lookup per block
+ */
+public class PaletteBlockCodec {
+    public static final int MAX_COLORS = 256;
+    private static final int SMALL_PALETTE = 16;
+
+    private PaletteBlockCodec() {
+    }
+
+    /**
+     * Builds the dictionary of the block colors and writes it with the block indices.
+     *
+     * @param blockData The RGB triplets of every block, row by row.
+     * @param cols      The number of block columns.
+     * @param rows      The number of block rows.
+     * @param writer    The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(byte[] blockData, int cols, int rows, BlockFileWriter writer) throws IOException {
+        int[] palette;
+        int[] indices;
+        try (StageMetrics.Timer timer = StageMetrics.getInstance().start("quantize").bytesIn(blockData.length)) {
+            palette = PaletteQuantizer.quantize(blockData, MAX_COLORS);
+            indices = PaletteQuantizer.assign(blockData, palette);
+            timer.pixels(indices.length).bytesOut(palette.length * 3L + indices.length);
+        }
+
+        int bits = palette.length <= SMALL_PALETTE ? 4 : 8;
+        int stride = rowBytes(cols, bits);
+        byte[] packed = new byte[stride * rows];
+        IntStream.range(0, rows).parallel().forEach(y -> {
+            for (int x = 0, index = y * cols; x < cols; x++, index++) {
+                if (bits == 8) {
+                    packed[y * stride + x] = (byte) indices[index];
+                } else {
+                    packed[y * stride + x / 2] |= (byte) (indices[index] << ((x & 1) == 0 ? 4 : 0));
+                }
+            }
+        });
+
+        writer.writeInt(palette.length);
+        writer.writeInt(bits);
+        for (int color : palette) {
+            writer.write(color >> 16 & 0xFF);
+            writer.write(color >> 8 & 0xFF);
+            writer.write(color & 0xFF);
+        }
+        writer.write(DeflateBlockCodec.deflate(packed));
+    }
+
+    /**
+     * Decodes the dictionary and looks up the color of every block.
+     *
+     * @param payload     The payload, starting at the number of colors.
+     * @param cols        The number of block columns.
+     * @param rows        The number of block rows.
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int cols, int rows, int[] destination) throws IOException {
+        int colors = payload.getInt(0);
+        int bits = payload.getInt(4);
+        if (colors < 1 || colors > MAX_COLORS || (bits != 4 && bits != 8) || (bits == 4 && colors > SMALL_PALETTE)) {
+            throw new IOException("Invalid palette header");
+        }
+
+        // indices past the dictionary of a corrupt file decode as black
+        int[] table = new int[MAX_COLORS];
+        for (int i = 0, position = 8; i < colors; i++, position += 3) {
+            table[i] = (payload.get(position) & 0xFF) << 16
+                    | (payload.get(position + 1) & 0xFF) << 8
+                    | (payload.get(position + 2) & 0xFF);
+        }
+
+        int start = 8 + colors * 3;
+        int stride = rowBytes(cols, bits);
+        byte[] packed = new byte[stride * rows];
+        DeflateBlockCodec.inflate(payload.slice(start, payload.limit() - start), packed);
+
+        IntStream.range(0, rows).parallel().forEach(y -> {
+            for (int x = 0, index = y * cols; x < cols; x++, index++) {
+                int value = packed[y * stride + (bits == 8 ? x : x / 2)] & 0xFF;
+                destination[index] = table[bits == 8 ? value : (x & 1) == 0 ? value >> 4 : value & 0x0F];
+            }
+        });
+    }
+
+    private static int rowBytes(int cols, int bits) {
+        return (cols * bits + 7) / 8;
+    }
+}
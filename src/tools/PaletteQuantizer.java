@@ -0,0 +1,264 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class reduces the block colors of an image to a palette. Images with few distinct colors, like graphics
+ * and screenshots, keep them all exactly. Otherwise the colors are counted in a 5-bit per channel histogram,
+ * the histogram is split by median cut into the requested number of boxes, and the box averages are refined by
+ * a few k-means passes that assign every block to its nearest entry through a `ColorKdTree`.
+ * Histograms and k-means sums are built per chunk of block rows on the common fork/join pool and then merged
+ */
+public class PaletteQuantizer {
+    public static final int KMEANS_ITERATIONS = 4;
+    private static final int BITS = 5;
+    private static final int LEVELS = 1 << BITS;
+    private static final int BINS = LEVELS * LEVELS * LEVELS;
+
+    private PaletteQuantizer() {
+    }
+
+    /**
+     * Builds the palette of the block colors.
+     *
+     * @param blockData The RGB triplets of every block.
+     * @param maxColors The largest number of palette entries.
+     * @return The packed RGB colors of the palette, at most `maxColors` of them.
+     * @throws IllegalArgumentException If `maxColors` is less than 1.
+     */
+    public static int[] quantize(byte[] blockData, int maxColors) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("A palette needs at least one color");
+        }
+
+        int[] exact = distinctColors(blockData, maxColors);
+        if (exact != null) {
+            return exact;
+        }
+
+        int[] palette = medianCut(histogram(blockData), maxColors);
+        for (int i = 0; i < KMEANS_ITERATIONS; i++) {
+            palette = refine(blockData, palette);
+        }
+        return palette;
+    }
+
+    /**
+     * Maps every block to its nearest palette entry.
+     *
+     * @param blockData The RGB triplets of every block.
+     * @param palette   The packed RGB colors of the palette.
+     * @return The palette index of every block.
+     */
+    public static int[] assign(byte[] blockData, int[] palette) {
+        ColorKdTree tree = new ColorKdTree(palette);
+        int[] indices = new int[blockData.length / 3];
+        IntStream.range(0, indices.length).parallel().forEach(block -> indices[block] = tree.nearest(rgb(blockData, block)));
+        return indices;
+    }
+
+    /**
+     * @return Every distinct color, or `null` if there are more than `maxColors`.
+     */
+    private static int[] distinctColors(byte[] blockData, int maxColors) {
+        Map<Integer, Boolean> colors = new HashMap<>();
+        for (int block = 0; block < blockData.length / 3; block++) {
+            colors.put(rgb(blockData, block), Boolean.TRUE);
+            if (colors.size() > maxColors) {
+                return null;
+            }
+        }
+        return colors.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Counts the blocks of every histogram bin and sums their exact channels.
+     *
+     * @return `4` longs per bin: the count and the red, green and blue sums.
+     */
+    private static long[] histogram(byte[] blockData) {
+        int blocks = blockData.length / 3;
+        int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), blocks / 65536));
+
+        return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            long[] bins = new long[BINS * 4];
+            for (int block = (int) ((long) blocks * chunk / chunks), end = (int) ((long) blocks * (chunk + 1) / chunks);
+                 block < end; block++) {
+                int r = blockData[block * 3] & 0xFF;
+                int g = blockData[block * 3 + 1] & 0xFF;
+                int b = blockData[block * 3 + 2] & 0xFF;
+                int bin = 4 * ((r >> 3) << 10 | (g >> 3) << 5 | (b >> 3));
+                bins[bin]++;
+                bins[bin + 1] += r;
+                bins[bin + 2] += g;
+                bins[bin + 3] += b;
+            }
+            return bins;
+        }).reduce((a, b) -> {
+            Arrays.setAll(a, i -> a[i] + b[i]);
+            return a;
+        }).orElseThrow();
+    }
+
+    /**
+     * Splits the occupied bins into boxes, always cutting the box with the most blocks times its widest
+     * channel range at the weighted median of that channel, and averages each box.
+     */
+    private static int[] medianCut(long[] histogram, int maxColors) {
+        int[] bins = IntStream.range(0, BINS).filter(bin -> histogram[bin * 4] > 0).toArray();
+        List<long[]> boxes = new ArrayList<>();
+        boxes.add(box(histogram, bins, 0, bins.length));
+
+        while (boxes.size() < maxColors) {
+            int chosen = -1;
+            for (int i = 0; i < boxes.size(); i++) {
+                if (boxes.get(i)[3] > 0 && (chosen < 0 || boxes.get(i)[3] > boxes.get(chosen)[3])) {
+                    chosen = i;
+                }
+            }
+            if (chosen < 0) {
+                break;
+            }
+
+            long[] box = boxes.get(chosen);
+            int from = (int) box[0];
+            int to = (int) box[1];
+            int split = medianSplit(histogram, bins, from, to, (int) box[2]);
+            boxes.set(chosen, box(histogram, bins, from, split));
+            boxes.add(box(histogram, bins, split, to));
+        }
+
+        int[] palette = new int[boxes.size()];
+        for (int i = 0; i < palette.length; i++) {
+            long[] sums = new long[4];
+            for (int j = (int) boxes.get(i)[0]; j < (int) boxes.get(i)[1]; j++) {
+                for (int k = 0; k < 4; k++) {
+                    sums[k] += histogram[bins[j] * 4 + k];
+                }
+            }
+            palette[i] = mean(sums, 0);
+        }
+        return palette;
+    }
+
+    /**
+     * Describes the box of `bins[from, to)`.
+     *
+     * @return The range, the channel with the widest spread of bins and the priority of splitting the box along
+     * it: its blocks times that spread, or `0` for a single bin.
+     */
+    private static long[] box(long[] histogram, int[] bins, int from, int to) {
+        int axis = 0;
+        int widest = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int low = LEVELS;
+            int high = -1;
+            for (int i = from; i < to; i++) {
+                int value = binChannel(bins[i], channel);
+                low = Math.min(low, value);
+                high = Math.max(high, value);
+            }
+            if (high - low > widest) {
+                axis = channel;
+                widest = high - low;
+            }
+        }
+        long score = to - from < 2 ? 0 : count(histogram, bins, from, to) * Math.max(1, widest);
+        return new long[]{from, to, axis, score};
+    }
+
+    /**
+     * Sorts `bins[from, to)` along a channel and finds the position that halves their blocks, leaving at
+     * least one bin on each side.
+     */
+    private static int medianSplit(long[] histogram, int[] bins, int from, int to, int axis) {
+        int[] keys = new int[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = binChannel(bins[i], axis) * BINS + bins[i];
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            bins[i] = keys[i - from] % BINS;
+        }
+
+        long half = count(histogram, bins, from, to) / 2;
+        long seen = 0;
+        int split = from + 1;
+        for (int i = from; i < to - 1; i++) {
+            seen += histogram[bins[i] * 4];
+            split = i + 1;
+            if (seen >= half) {
+                break;
+            }
+        }
+        return split;
+    }
+
+    /**
+     * Assigns every block to its nearest entry and moves every entry to the mean of its blocks. Entries left
+     * without blocks keep their color.
+     */
+    private static int[] refine(byte[] blockData, int[] palette) {
+        ColorKdTree tree = new ColorKdTree(palette);
+        int blocks = blockData.length / 3;
+        int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), blocks / 65536));
+
+        long[] sums = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            long[] partial = new long[palette.length * 4];
+            for (int block = (int) ((long) blocks * chunk / chunks), end = (int) ((long) blocks * (chunk + 1) / chunks);
+                 block < end; block++) {
+                int rgb = rgb(blockData, block);
+                int entry = 4 * tree.nearest(rgb);
+                partial[entry]++;
+                partial[entry + 1] += rgb >> 16 & 0xFF;
+                partial[entry + 2] += rgb >> 8 & 0xFF;
+                partial[entry + 3] += rgb & 0xFF;
+            }
+            return partial;
+        }).reduce((a, b) -> {
+            Arrays.setAll(a, i -> a[i] + b[i]);
+            return a;
+        }).orElseThrow();
+
+        int[] refined = palette.clone();
+        for (int i = 0; i < refined.length; i++) {
+            if (sums[i * 4] > 0) {
+                refined[i] = mean(sums, i * 4);
+            }
+        }
+        return refined;
+    }
+
+    private static long count(long[] histogram, int[] bins, int from, int to) {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += histogram[bins[i] * 4];
+        }
+        return total;
+    }
+
+    /**
+     * @return The rounded mean of the red, green and blue sums following a count at `offset`.
+     */
+    private static int mean(long[] sums, int offset) {
+        long count = sums[offset];
+        int r = (int) ((sums[offset + 1] + count / 2) / count);
+        int g = (int) ((sums[offset + 2] + count / 2) / count);
+        int b = (int) ((sums[offset + 3] + count / 2) / count);
+        return r << 16 | g << 8 | b;
+    }
+
+    private static int binChannel(int bin, int axis) {
+        return bin >> (2 * BITS - BITS * axis) & (LEVELS - 1);
+    }
+
+    private static int rgb(byte[] blockData, int block) {
+        return (blockData[block * 3] & 0xFF) << 16 | (blockData[block * 3 + 1] & 0xFF) << 8 | (blockData[block * 3 + 2] & 0xFF);
+    }
+}
@@ -0,0 +1,158 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Pepe Salcedo
+ * This class encodes the payload of the `PYRAMID` container layout: the blocks at the compression factor and
+ * every coarser level at twice the factor of the previous one, each averaged from the level below it.
+ * Levels are stored coarsest first, each as an independent Paeth + Deflate stream preceded by its factor and
+ * length, so a preview only needs the first few kilobytes of the file
+ */
+public class PyramidBlockCodec {
+
+    private PyramidBlockCodec() {
+    }
+
+    /**
+     * Builds the coarser levels and writes every level, coarsest first.
+     * Levels stop before a grid would be less than 2x2 blocks, which is the minimum that can be interpolated.
+     *
+     * @param blockData         The RGB triplets of every block at the compression factor, row by row.
+     * @param compressionFactor The compression factor of the finest level.
+     * @param width             The width of the source image in pixels.
+     * @param height            The height of the source image in pixels.
+     * @param writer            The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(byte[] blockData, int compressionFactor, int width, int height, BlockFileWriter writer) throws IOException {
+        List<byte[]> levels = new ArrayList<>();
+        List<Integer> factors = new ArrayList<>();
+        byte[] level = blockData;
+        int factor = compressionFactor;
+
+        while (true) {
+            levels.add(level);
+            factors.add(factor);
+
+            int next = factor * 2;
+            if (ceilDiv(width, next) < 2 || ceilDiv(height, next) < 2) {
+                break;
+            }
+            level = downsample(level, factor, width, height);
+            factor = next;
+        }
+
+        writer.writeInt(levels.size());
+        for (int i = levels.size() - 1; i >= 0; i--) {
+            int levelFactor = factors.get(i);
+            byte[] encoded = DeflateBlockCodec.encode(levels.get(i), ceilDiv(width, levelFactor), 0, 0,
+                    ceilDiv(width, levelFactor), ceilDiv(height, levelFactor));
+
+            writer.writeInt(levelFactor);
+            writer.writeInt(encoded.length);
+            writer.write(encoded);
+        }
+    }
+
+    /**
+     * Reads the factor of every level.
+     *
+     * @param payload The payload, starting at the level count.
+     * @return The factor of every level, coarsest first.
+     * @throws IOException If the payload is truncated.
+     */
+    public static int[] readFactors(ByteBuffer payload) throws IOException {
+        int count = payload.getInt(0);
+        if (count <= 0) {
+            throw new IOException("Invalid pyramid level count: " + count);
+        }
+
+        int[] factors = new int[count];
+        int position = 4;
+        for (int i = 0; i < count; i++) {
+            if (position + 8 > payload.limit()) {
+                throw new IOException("Truncated pyramid level " + i);
+            }
+            factors[i] = payload.getInt(position);
+            position += 8 + payload.getInt(position + 4);
+        }
+        return factors;
+    }
+
+    /**
+     * Decodes one level, reading only the bytes up to the end of that level.
+     *
+     * @param payload     The payload, starting at the level count.
+     * @param level       The level to decode, `0` being the coarsest.
+     * @param width       The width of the source image in pixels.
+     * @param height      The height of the source image in pixels.
+     * @param destination The array receiving the colors of the level's blocks.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decodeLevel(ByteBuffer payload, int level, int width, int height, int[] destination) throws IOException {
+        int position = 4;
+        for (int i = 0; i < level; i++) {
+            position += 8 + payload.getInt(position + 4);
+        }
+
+        int factor = payload.getInt(position);
+        int length = payload.getInt(position + 4);
+        if (length < 0 || position + 8 + length > payload.limit()) {
+            throw new IOException("Truncated pyramid level " + level);
+        }
+
+        DeflateBlockCodec.decode(payload.slice(position + 8, length), ceilDiv(width, factor), ceilDiv(height, factor), destination);
+    }
+
+    /**
+     * Averages every 2x2 group of blocks into the next level, weighting each block by the number of source
+     * pixels it covers so partial blocks at the edges count for what they hold.
+     *
+     * @param level  The RGB triplets of the current level.
+     * @param factor The factor of the current level.
+     * @param width  The width of the source image in pixels.
+     * @param height The height of the source image in pixels.
+     * @return The RGB triplets of the level at twice the factor.
+     */
+    static byte[] downsample(byte[] level, int factor, int width, int height) {
+        int cols = ceilDiv(width, factor);
+        int rows = ceilDiv(height, factor);
+        int nextCols = ceilDiv(cols, 2);
+        int nextRows = ceilDiv(rows, 2);
+        byte[] next = new byte[nextCols * nextRows * 3];
+
+        for (int y = 0; y < nextRows; y++) {
+            for (int x = 0; x < nextCols; x++) {
+                long red = 0, green = 0, blue = 0, pixels = 0;
+
+                for (int cy = 2 * y; cy < Math.min(2 * y + 2, rows); cy++) {
+                    int blockHeight = Math.min(factor, height - cy * factor);
+                    for (int cx = 2 * x; cx < Math.min(2 * x + 2, cols); cx++) {
+                        int weight = Math.min(factor, width - cx * factor) * blockHeight;
+                        int index = (cy * cols + cx) * 3;
+
+                        red += (long) (level[index] & 0xFF) * weight;
+                        green += (long) (level[index + 1] & 0xFF) * weight;
+                        blue += (long) (level[index + 2] & 0xFF) * weight;
+                        pixels += weight;
+                    }
+                }
+
+                int index = (y * nextCols + x) * 3;
+                next[index] = (byte) ((red + pixels / 2) / pixels);
+                next[index + 1] = (byte) ((green + pixels / 2) / pixels);
+                next[index + 2] = (byte) ((blue + pixels / 2) / pixels);
+            }
+        }
+
+        return next;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
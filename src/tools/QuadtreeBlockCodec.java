@@ -0,0 +1,275 @@
+package tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author Pepe Salcedo
+ * This class encodes the payload of the `QUADTREE` container layout. The block grid is covered by square roots
+ * of `2^MAX_DEPTH` blocks, and every node is split into four children only while the color variance of the
+ * pixels it covers is above a threshold, so flat areas are stored as a single large block and detailed areas
+ * keep the compression factor.
+ * The payload holds the depth, the number of split bytes and of leaves, followed by a Deflate stream with the
+ * split bits of every node above the finest level in pre-order and then the leaf colors, each stored as its
+ * difference with the previous leaf.
+ * Decoding paints every leaf back onto the grid of blocks at the compression factor, so every path that reads
+ * blocks keeps working, and can report the leaves too: whole-image decompression uses them to fill the cells inside
+ * a leaf with its color and only runs the reconstruction filter near the leaf edges
+ */
+public class QuadtreeBlockCodec {
+    public static final int MAX_DEPTH = 4;
+    public static final double DEFAULT_THRESHOLD = 64;
+    // sums of red, green and blue and sum of squares of every channel, per block
+    public static final int STATISTICS = 4;
+    // the depth, the number of split bytes and the number of leaves
+    private static final int HEADER_SIZE = 12;
+
+    private QuadtreeBlockCodec() {
+    }
+
+    /**
+     * Builds the quadtree from the statistics of every block and writes it.
+     *
+     * @param statistics        `STATISTICS` sums per block at the compression factor, row by row.
+     * @param compressionFactor The compression factor of the finest blocks.
+     * @param width             The width of the source image in pixels.
+     * @param height            The height of the source image in pixels.
+     * @param threshold         The variance above which a node is split.
+     * @param writer            The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(long[] statistics, int compressionFactor, int width, int height, double threshold,
+                              BlockFileWriter writer) throws IOException {
+        Encoder encoder = new Encoder(statistics, compressionFactor, width, height, threshold);
+        int span = 1 << MAX_DEPTH;
+
+        for (int y = 0; y < encoder.rows; y += span) {
+            for (int x = 0; x < encoder.cols; x += span) {
+                encoder.encodeNode(MAX_DEPTH, x, y);
+            }
+        }
+
+        byte[] splits = encoder.flushSplits().toByteArray();
+        byte[] leaves = encoder.leaves.toByteArray();
+        byte[] data = new byte[splits.length + leaves.length];
+        System.arraycopy(splits, 0, data, 0, splits.length);
+        System.arraycopy(leaves, 0, data, splits.length, leaves.length);
+
+        writer.writeInt(MAX_DEPTH);
+        writer.writeInt(splits.length);
+        writer.writeInt(leaves.length / 3);
+        writer.write(DeflateBlockCodec.deflate(data));
+    }
+
+    /**
+     * Decodes the quadtree and paints every leaf over the blocks it covers.
+     *
+     * @param payload     The payload, starting at the depth.
+     * @param cols        The number of block columns at the compression factor.
+     * @param rows        The number of block rows at the compression factor.
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int cols, int rows, int[] destination) throws IOException {
+        decode(payload, cols, rows, destination, null);
+    }
+
+    /**
+     * Decodes the quadtree, paints every leaf over the blocks it covers and reports the leaf.
+     *
+     * @param payload     The payload, starting at the depth.
+     * @param cols        The number of block columns at the compression factor.
+     * @param rows        The number of block rows at the compression factor.
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @param leaves      The consumer receiving every leaf once it is painted, or `null`.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int cols, int rows, int[] destination, QuadtreeLeafConsumer leaves)
+            throws IOException {
+        if (payload.limit() < HEADER_SIZE) {
+            throw new IOException("Truncated quadtree header");
+        }
+        int depth = payload.getInt(0);
+        int splitBytes = payload.getInt(4);
+        int leafCount = payload.getInt(8);
+        if (depth < 0 || depth > 30 || splitBytes < 0 || leafCount < 0) {
+            throw new IOException("Invalid quadtree header");
+        }
+        // every leaf covers a block and every split has a leaf below it, and the stream can only inflate so far
+        long blocks = (long) cols * rows;
+        long inflated = splitBytes + 3L * leafCount;
+        if (leafCount > blocks || splitBytes > blocks || inflated > Integer.MAX_VALUE - 8
+                || inflated > (payload.limit() - HEADER_SIZE) * DeflateBlockCodec.MAX_INFLATE_RATIO) {
+            throw new IOException("The quadtree header does not match its " + cols + "x" + rows + " blocks");
+        }
+
+        byte[] data = new byte[(int) inflated];
+        DeflateBlockCodec.inflate(payload.slice(HEADER_SIZE, payload.limit() - HEADER_SIZE), data);
+
+        Decoder decoder = new Decoder(data, splitBytes, leafCount, cols, rows, destination, leaves);
+        int span = 1 << depth;
+        for (int y = 0; y < rows; y += span) {
+            for (int x = 0; x < cols; x += span) {
+                decoder.decodeNode(depth, x, y);
+            }
+        }
+    }
+
+    /**
+     * Builds the split bits and leaf colors in pre-order.
+     */
+    private static final class Encoder {
+        private final long[] statistics;
+        private final int factor;
+        private final int width;
+        private final int height;
+        private final int cols;
+        private final int rows;
+        private final double threshold;
+        private final ByteArrayOutputStream splits = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream leaves = new ByteArrayOutputStream();
+        private int bitBuffer = 0;
+        private int bitCount = 0;
+        private int previous = 0;
+
+        private Encoder(long[] statistics, int factor, int width, int height, double threshold) {
+            this.statistics = statistics;
+            this.factor = factor;
+            this.width = width;
+            this.height = height;
+            this.cols = (width + factor - 1) / factor;
+            this.rows = (height + factor - 1) / factor;
+            this.threshold = threshold;
+        }
+
+        private void encodeNode(int level, int x, int y) {
+            int span = 1 << level;
+            int x1 = Math.min(x + span, cols);
+            int y1 = Math.min(y + span, rows);
+            long red = 0, green = 0, blue = 0, squares = 0, pixels = 0;
+
+            for (int by = y; by < y1; by++) {
+                int blockHeight = Math.min(factor, height - by * factor);
+                for (int bx = x; bx < x1; bx++) {
+                    int index = (by * cols + bx) * STATISTICS;
+                    red += statistics[index];
+                    green += statistics[index + 1];
+                    blue += statistics[index + 2];
+                    squares += statistics[index + 3];
+                    pixels += (long) Math.min(factor, width - bx * factor) * blockHeight;
+                }
+            }
+
+            if (level > 0) {
+                double mean = ((double) red * red + (double) green * green + (double) blue * blue) / ((double) pixels * pixels);
+                boolean split = (double) squares / pixels - mean > threshold;
+                writeBit(split);
+
+                if (split) {
+                    int half = span / 2;
+                    for (int child = 0; child < 4; child++) {
+                        int childX = x + (child & 1) * half;
+                        int childY = y + (child >> 1) * half;
+                        if (childX < cols && childY < rows) {
+                            encodeNode(level - 1, childX, childY);
+                        }
+                    }
+                    return;
+                }
+            }
+
+            int rgb = (int) (red / pixels) << 16 | (int) (green / pixels) << 8 | (int) (blue / pixels);
+            leaves.write((rgb >> 16) - (previous >> 16));
+            leaves.write((rgb >> 8 & 0xFF) - (previous >> 8 & 0xFF));
+            leaves.write((rgb & 0xFF) - (previous & 0xFF));
+            previous = rgb;
+        }
+
+        private void writeBit(boolean bit) {
+            bitBuffer = bitBuffer << 1 | (bit ? 1 : 0);
+            if (++bitCount == 8) {
+                splits.write(bitBuffer);
+                bitBuffer = 0;
+                bitCount = 0;
+            }
+        }
+
+        private ByteArrayOutputStream flushSplits() {
+            if (bitCount > 0) {
+                splits.write(bitBuffer << (8 - bitCount));
+                bitCount = 0;
+            }
+            return splits;
+        }
+    }
+
+    /**
+     * Walks the split bits and paints the leaves in the same pre-order as the encoder.
+     */
+    private static final class Decoder {
+        private final byte[] data;
+        private final int splitBytes;
+        private final int leafCount;
+        private final int cols;
+        private final int rows;
+        private final int[] destination;
+        private final QuadtreeLeafConsumer leaves;
+        private int bitIndex = 0;
+        private int leafIndex = 0;
+        private int previous = 0;
+
+        private Decoder(byte[] data, int splitBytes, int leafCount, int cols, int rows, int[] destination,
+                        QuadtreeLeafConsumer leaves) {
+            this.data = data;
+            this.splitBytes = splitBytes;
+            this.leafCount = leafCount;
+            this.cols = cols;
+            this.rows = rows;
+            this.destination = destination;
+            this.leaves = leaves;
+        }
+
+        private void decodeNode(int level, int x, int y) throws IOException {
+            int span = 1 << level;
+
+            if (level > 0 && readBit()) {
+                int half = span / 2;
+                for (int child = 0; child < 4; child++) {
+                    int childX = x + (child & 1) * half;
+                    int childY = y + (child >> 1) * half;
+                    if (childX < cols && childY < rows) {
+                        decodeNode(level - 1, childX, childY);
+                    }
+                }
+                return;
+            }
+
+            if (leafIndex >= leafCount) {
+                throw new IOException("Quadtree has more leaves than stored colors");
+            }
+            int offset = splitBytes + leafIndex++ * 3;
+            int red = (previous >> 16) + data[offset] & 0xFF;
+            int green = (previous >> 8 & 0xFF) + data[offset + 1] & 0xFF;
+            int blue = (previous & 0xFF) + data[offset + 2] & 0xFF;
+            previous = red << 16 | green << 8 | blue;
+
+            for (int by = y; by < Math.min(y + span, rows); by++) {
+                Arrays.fill(destination, by * cols + x, by * cols + Math.min(x + span, cols), previous);
+            }
+            if (leaves != null) {
+                leaves.accept(x, y, span, previous);
+            }
+        }
+
+        private boolean readBit() throws IOException {
+            if (bitIndex >= splitBytes * 8) {
+                throw new IOException("Quadtree split bits ended early");
+            }
+            int bit = data[bitIndex >> 3] >> (7 - (bitIndex & 7)) & 1;
+            bitIndex++;
+            return bit == 1;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * Receives the leaves of a quadtree file as they are decoded, in pre-order
+ */
+public interface QuadtreeLeafConsumer {
+    /**
+     * Accepts one leaf.
+     *
+     * @param x    The first block column the leaf covers.
+     * @param y    The first block row the leaf covers.
+     * @param span The number of blocks on each side of the leaf, before clipping to the block grid.
+     * @param rgb  The packed RGB color of the leaf.
+     */
+    void accept(int x, int y, int span, int rgb);
+}
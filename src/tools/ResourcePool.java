@@ -0,0 +1,69 @@
+package tools;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * @author Pepe Salcedo
+ * This class keeps a bounded number of idle objects that are expensive to create, such as zlib streams or direct
+ * buffers, for whichever thread needs one next. An object is borrowed for the duration of a single call and
+ * returned at its end, so platform and virtual threads alike share the same few objects, and nothing outlives the
+ * call once the pool is full: an object returned to a full pool is discarded instead
+ *
+ * @param <T> The type of the pooled objects.
+ */
+public class ResourcePool<T> {
+    // one idle object per core covers every parallel stream and worker pool the application starts
+    public static final int DEFAULT_CAPACITY = Runtime.getRuntime().availableProcessors();
+
+    private final ArrayBlockingQueue<T> idle;
+    private final Supplier<T> factory;
+    private final Consumer<T> discard;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param capacity The maximum number of idle objects kept.
+     * @param factory  Creates an object when none is idle.
+     * @param discard  Releases an object returned to a full pool, such as `Deflater::end`.
+     */
+    public ResourcePool(int capacity, Supplier<T> factory, Consumer<T> discard) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+        this.discard = discard;
+    }
+
+    /**
+     * Creates an empty pool of `DEFAULT_CAPACITY` objects that need no releasing, such as arrays.
+     *
+     * @param factory Creates an object when none is idle.
+     */
+    public ResourcePool(Supplier<T> factory) {
+        this(DEFAULT_CAPACITY, factory, object -> {
+        });
+    }
+
+    /**
+     * Takes an idle object, or creates one if there is none. It must be handed back with `release` once the
+     * caller is done with it, usually in a `finally` block.
+     *
+     * @return An object owned by the caller until it is released.
+     */
+    public T borrow() {
+        T object = idle.poll();
+        return object == null ? factory.get() : object;
+    }
+
+    /**
+     * Hands an object back to the pool, or discards it if the pool is already full. The caller must not use it
+     * afterwards.
+     *
+     * @param object An object in a reusable state, such as a reset `Deflater`.
+     */
+    public void release(T object) {
+        if (!idle.offer(object)) {
+            discard.accept(object);
+        }
+    }
+}
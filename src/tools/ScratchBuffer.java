@@ -0,0 +1,112 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Pepe Salcedo
+ * This class stores bytes that do not fit in the heap in a temporary file mapped into memory. The operating
+ * system pages it in and out as needed, so its size is only bounded by the disk, and it is mapped in segments of
+ * `SEGMENT_SIZE` bytes since a single mapping cannot exceed 2 GB.
+ * The file is deleted when the buffer is closed. Disjoint ranges can be written from several threads at once
+ */
+public class ScratchBuffer implements Closeable {
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    /**
+     * Creates and maps a zeroed scratch file.
+     *
+     * @param size The number of bytes to store.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public ScratchBuffer(long size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size of a scratch buffer cannot be negative");
+        }
+
+        Path path = Files.createTempFile("compressor-scratch", ".raw");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        this.size = size;
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies bytes into the buffer.
+     *
+     * @param position The position in the buffer to write at.
+     * @param source   The array holding the bytes.
+     * @param offset   The position in `source` of the first byte.
+     * @param length   The number of bytes to copy.
+     */
+    public void put(long position, byte[] source, int offset, int length) {
+        checkRange(position, length);
+        while (length > 0) {
+            int segment = (int) (position / SEGMENT_SIZE);
+            int start = (int) (position % SEGMENT_SIZE);
+            int count = Math.min(length, segments[segment].capacity() - start);
+
+            segments[segment].put(start, source, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Copies bytes out of the buffer.
+     *
+     * @param position    The position in the buffer to read from.
+     * @param destination The array receiving the bytes.
+     * @param offset      The position in `destination` of the first byte.
+     * @param length      The number of bytes to copy.
+     */
+    public void get(long position, byte[] destination, int offset, int length) {
+        checkRange(position, length);
+        while (length > 0) {
+            int segment = (int) (position / SEGMENT_SIZE);
+            int start = (int) (position % SEGMENT_SIZE);
+            int count = Math.min(length, segments[segment].capacity() - start);
+
+            segments[segment].get(start, destination, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void checkRange(long position, int length) {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Range " + position + "+" + length + " is outside a scratch buffer of "
+                    + size + " bytes");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package tools;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author Pepe Salcedo
+ * The JDK Flight Recorder event committed at the end of every compression or decompression stage, so stages
+ * can be lined up with GC, I/O and thread activity in a recording
+ */
+@Name("pepressed.Stage")
+@Label("Pepressed Stage")
+@Category("Pepressed")
+@Description("One stage of an image compression or decompression")
+public class StageEvent extends Event {
+    @Label("Stage")
+    public String stage;
+
+    @Label("Bytes In")
+    @DataAmount
+    public long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    public long bytesOut;
+
+    @Label("Pixels")
+    public long pixels;
+
+    @Label("Allocated")
+    @DataAmount
+    public long allocatedBytes;
+}
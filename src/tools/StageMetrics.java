@@ -0,0 +1,176 @@
+package tools;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Pepe Salcedo
+ * This class records every stage of the compressor and decompressor: how long it took, the bytes it read and
+ * wrote, the pixels it processed and the bytes allocated by the thread running it.
+ * Each run also commits a `StageEvent` to the JDK Flight Recorder, and the accumulated statistics can be
+ * published to a `MetricsReporter` or registered as JMX beans under `pepressed:type=Stage`
+ */
+public class StageMetrics {
+    private static final String JMX_DOMAIN = "pepressed";
+    private static StageMetrics instance = null;
+
+    private final Map<String, StageStatistics> stages = new ConcurrentHashMap<>();
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private MBeanServer mBeanServer = null;
+
+    private StageMetrics() {
+    }
+
+    /**
+     * Gets the unique instance of `StageMetrics`.
+     *
+     * @return The unique instance of `StageMetrics`.
+     */
+    public static synchronized StageMetrics getInstance() {
+        if (instance == null) {
+            instance = new StageMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts timing a stage. The returned timer records the run when it is closed, so it is meant to be used in a
+     * try-with-resources block around the stage.
+     *
+     * @param stage The name of the stage, such as "average" or "write-bmp".
+     * @return The timer of the run.
+     */
+    public Timer start(String stage) {
+        return new Timer(stage);
+    }
+
+    /**
+     * @return The statistics of every stage recorded so far, in name order.
+     */
+    public List<StageStatistics> getStages() {
+        List<StageStatistics> list = new ArrayList<>(stages.values());
+        list.sort((a, b) -> a.getStage().compareTo(b.getStage()));
+        return list;
+    }
+
+    /**
+     * Publishes the statistics of every stage to a reporter.
+     *
+     * @param reporter The reporter receiving one call per stage.
+     */
+    public void report(MetricsReporter reporter) {
+        for (StageStatistics statistics : getStages()) {
+            reporter.report(statistics);
+        }
+    }
+
+    /**
+     * Registers every stage, including the ones recorded later, as a JMX bean on the platform server.
+     */
+    public synchronized void registerMBeans() {
+        if (mBeanServer == null) {
+            mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            for (StageStatistics statistics : stages.values()) {
+                register(statistics);
+            }
+        }
+    }
+
+    private StageStatistics statisticsOf(String stage) {
+        StageStatistics statistics = stages.get(stage);
+        if (statistics != null) {
+            return statistics;
+        }
+
+        synchronized (this) {
+            statistics = stages.computeIfAbsent(stage, StageStatistics::new);
+            if (mBeanServer != null) {
+                register(statistics);
+            }
+            return statistics;
+        }
+    }
+
+    private void register(StageStatistics statistics) {
+        try {
+            ObjectName name = ObjectName.getInstance(JMX_DOMAIN + ":type=Stage,name=" + ObjectName.quote(statistics.getStage()));
+            if (!mBeanServer.isRegistered(name)) {
+                mBeanServer.registerMBean(statistics, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the metrics of " + statistics.getStage(), e);
+        }
+    }
+
+    /**
+     * Measures one run of a stage until it is closed.
+     */
+    public final class Timer implements AutoCloseable {
+        private final String stage;
+        private final StageEvent event = new StageEvent();
+        private final long start;
+        private final long allocatedAtStart;
+        private long bytesIn = 0;
+        private long bytesOut = 0;
+        private long pixels = 0;
+
+        private Timer(String stage) {
+            this.stage = stage;
+            this.allocatedAtStart = threads.getCurrentThreadAllocatedBytes();
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * @param bytes The bytes read by the stage.
+         * @return This timer.
+         */
+        public Timer bytesIn(long bytes) {
+            bytesIn += bytes;
+            return this;
+        }
+
+        /**
+         * @param bytes The bytes written by the stage.
+         * @return This timer.
+         */
+        public Timer bytesOut(long bytes) {
+            bytesOut += bytes;
+            return this;
+        }
+
+        /**
+         * @param count The pixels processed by the stage.
+         * @return This timer.
+         */
+        public Timer pixels(long count) {
+            pixels += count;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            long allocated = Math.max(0, threads.getCurrentThreadAllocatedBytes() - allocatedAtStart);
+
+            statisticsOf(stage).record(nanos, bytesIn, bytesOut, pixels, allocated);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage;
+                event.bytesIn = bytesIn;
+                event.bytesOut = bytesOut;
+                event.pixels = pixels;
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Pepe Salcedo
+ * This class accumulates the runs of one stage: a latency histogram with one bucket per power of two
+ * nanoseconds, and the bytes, pixels and allocation of every run. Every counter is lock free, so concurrent
+ * runs of the same stage can record at once
+ */
+public class StageStatistics implements StageStatisticsMXBean {
+    private static final int BUCKETS = 64;
+
+    private final String stage;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /**
+     * @param stage The name of the stage.
+     */
+    public StageStatistics(String stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * Records one run of the stage.
+     *
+     * @param nanos     The duration of the run.
+     * @param in        The bytes read by the run.
+     * @param out       The bytes written by the run.
+     * @param runPixels The pixels processed by the run.
+     * @param allocated The bytes allocated by the thread running the stage.
+     */
+    void record(long nanos, long in, long out, long runPixels, long allocated) {
+        histogram.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        bytesIn.add(in);
+        bytesOut.add(out);
+        pixels.add(runPixels);
+        allocatedBytes.add(allocated);
+    }
+
+    @Override
+    public String getStage() {
+        return stage;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long runs = count.sum();
+        return runs == 0 ? 0 : totalNanos.sum() / 1e6 / runs;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(0.5);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(0.99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    @Override
+    public double getPixelsPerSecond() {
+        long nanos = totalNanos.sum();
+        return nanos == 0 ? 0 : pixels.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Estimates a latency percentile as the upper bound of the histogram bucket holding it, capped at the
+     * slowest run.
+     *
+     * @param fraction The percentile between 0 and 1.
+     * @return The estimated latency in milliseconds.
+     */
+    private double percentileMillis(double fraction) {
+        long runs = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            runs += histogram.get(i);
+        }
+        if (runs == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * runs);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                long upperBound = i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                return Math.min(upperBound, maxNanos.get()) / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+}
@@ -0,0 +1,29 @@
+package tools;
+
+/**
+ * @author Pepe Salcedo
+ * The counters of one stage as exposed through JMX
+ */
+public interface StageStatisticsMXBean {
+    String getStage();
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getPixels();
+
+    double getPixelsPerSecond();
+
+    long getAllocatedBytes();
+}
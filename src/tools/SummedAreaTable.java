@@ -0,0 +1,191 @@
+package tools;
+
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class holds the summed-area tables (integral images) of the red, green and blue channels of an image, and
+ * optionally of the sum of their squares. Entry `(x, y)` of a table is the sum of every pixel above and to the
+ * left of it, so the sum over any rectangle, and therefore the average color of any block, costs four lookups
+ * whatever its size. One pass over the source pixels is enough to average it at every compression factor.
+ * Tables are `(width + 1) * (height + 1)` longs each, with a zero first row and column
+ */
+public class SummedAreaTable {
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final long[] red;
+    private final long[] green;
+    private final long[] blue;
+    private final long[] squares;
+
+    /**
+     * Creates empty tables for an image. Every row must then be added with `addRow`.
+     *
+     * @param width       The width of the image.
+     * @param height      The height of the image.
+     * @param withSquares Whether the sum of squared channels is tabled too, as the quadtree statistics need.
+     * @throws IllegalArgumentException If the image is empty or too large for the tables to be indexed.
+     */
+    public SummedAreaTable(int width, int height, boolean withSquares) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions cannot be less than 1x1 pixels");
+        } else if ((long) (width + 1) * (height + 1) > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The image is too large for a summed-area table");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int size = stride * (height + 1);
+        this.red = new long[size];
+        this.green = new long[size];
+        this.blue = new long[size];
+        this.squares = withSquares ? new long[size] : null;
+    }
+
+    /**
+     * Adds the next image row, storing for every pixel the sum of the rectangle it closes. Rows must be added
+     * from the top, each one after the row above it.
+     *
+     * @param y      The image row, counted from the top.
+     * @param pixels The packed RGB pixels holding the row.
+     * @param offset The position in `pixels` of the first pixel of the row.
+     */
+    public void addRow(int y, int[] pixels, int offset) {
+        int index = (y + 1) * stride + 1;
+        int above = index - stride;
+        long totalRed = 0;
+        long totalGreen = 0;
+        long totalBlue = 0;
+        long totalSquares = 0;
+
+        for (int x = 0; x < width; x++, index++, above++) {
+            int rgb = pixels[offset + x];
+            int r = rgb >> 16 & 0xFF;
+            int g = rgb >> 8 & 0xFF;
+            int b = rgb & 0xFF;
+
+            totalRed += r;
+            totalGreen += g;
+            totalBlue += b;
+            red[index] = red[above] + totalRed;
+            green[index] = green[above] + totalGreen;
+            blue[index] = blue[above] + totalBlue;
+            if (squares != null) {
+                totalSquares += r * r + g * g + b * b;
+                squares[index] = squares[above] + totalSquares;
+            }
+        }
+    }
+
+    /**
+     * Averages every `factor`x`factor` block into a packed RGB triplet, truncating like a direct average of
+     * the pixels would.
+     *
+     * @param factor The size of the blocks.
+     * @return The RGB triplets of every block, row by row.
+     */
+    public byte[] averageBlocks(int factor) {
+        int blockCols = (width + factor - 1) / factor;
+        int blockRows = (height + factor - 1) / factor;
+        byte[] blockData = new byte[blockRows * blockCols * 3];
+
+        IntStream.range(0, blockRows).parallel().forEach(blockRow -> {
+            int y0 = blockRow * factor;
+            int y1 = Math.min(y0 + factor, height);
+            int offset = blockRow * blockCols * 3;
+
+            for (int x0 = 0; x0 < width; x0 += factor) {
+                int x1 = Math.min(x0 + factor, width);
+                long area = (long) (x1 - x0) * (y1 - y0);
+
+                blockData[offset++] = (byte) (sum(red, x0, y0, x1, y1) / area);
+                blockData[offset++] = (byte) (sum(green, x0, y0, x1, y1) / area);
+                blockData[offset++] = (byte) (sum(blue, x0, y0, x1, y1) / area);
+            }
+        });
+
+        return blockData;
+    }
+
+    /**
+     * Averages a single `factor`x`factor` block, exactly as `averageBlocks` would.
+     *
+     * @param factor The size of the blocks.
+     * @param blockX The block column.
+     * @param blockY The block row.
+     * @return The average color of the block as a packed RGB value.
+     */
+    public int averageBlock(int factor, int blockX, int blockY) {
+        int x0 = blockX * factor;
+        int y0 = blockY * factor;
+        int x1 = Math.min(x0 + factor, width);
+        int y1 = Math.min(y0 + factor, height);
+        long area = (long) (x1 - x0) * (y1 - y0);
+
+        return (int) (sum(red, x0, y0, x1, y1) / area) << 16
+                | (int) (sum(green, x0, y0, x1, y1) / area) << 8
+                | (int) (sum(blue, x0, y0, x1, y1) / area);
+    }
+
+    /**
+     * Calculates the channel sums and the sum of squared channels of every `factor`x`factor` block.
+     *
+     * @param factor The size of the blocks.
+     * @return `QuadtreeBlockCodec.STATISTICS` sums per block, row by row.
+     * @throws IllegalStateException If the tables were built without squares.
+     */
+    public long[] blockStatistics(int factor) {
+        if (squares == null) {
+            throw new IllegalStateException("The summed-area table was built without squares");
+        }
+
+        int blockCols = (width + factor - 1) / factor;
+        int blockRows = (height + factor - 1) / factor;
+        long[] statistics = new long[blockRows * blockCols * QuadtreeBlockCodec.STATISTICS];
+
+        IntStream.range(0, blockRows).parallel().forEach(blockRow -> {
+            int y0 = blockRow * factor;
+            int y1 = Math.min(y0 + factor, height);
+            int offset = blockRow * blockCols * QuadtreeBlockCodec.STATISTICS;
+
+            for (int x0 = 0; x0 < width; x0 += factor) {
+                int x1 = Math.min(x0 + factor, width);
+
+                statistics[offset++] = sum(red, x0, y0, x1, y1);
+                statistics[offset++] = sum(green, x0, y0, x1, y1);
+                statistics[offset++] = sum(blue, x0, y0, x1, y1);
+                statistics[offset++] = sum(squares, x0, y0, x1, y1);
+            }
+        });
+
+        return statistics;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean hasSquares() {
+        return squares != null;
+    }
+
+    /**
+     * @return The memory held by the tables in bytes.
+     */
+    public long sizeBytes() {
+        return (long) red.length * Long.BYTES * (squares == null ? 3 : 4);
+    }
+
+    /**
+     * Sums a table over the pixels `[x0, x1) x [y0, y1)`.
+     */
+    private long sum(long[] table, int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+}
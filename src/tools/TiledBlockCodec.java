@@ -0,0 +1,131 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class encodes the payload of the `TILED` container layout: the block grid is split into square tiles that
+ * are Paeth-predicted and Deflate-compressed independently, preceded by an index of their offsets, so any
+ * rectangle of blocks can be decoded by reading only the tiles it overlaps.
+ * The payload starts with the tile size in blocks followed by `tilesX * tilesY + 1` long offsets relative to
+ * the start of the payload, the last one marking its end
+ */
+public class TiledBlockCodec {
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private TiledBlockCodec() {
+    }
+
+    /**
+     * Compresses every tile in parallel and writes the index followed by the tiles.
+     *
+     * @param blockData The RGB triplets of every block, row by row.
+     * @param cols      The number of block columns.
+     * @param rows      The number of block rows.
+     * @param tileSize  The width and height of a tile, in blocks.
+     * @param writer    The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(byte[] blockData, int cols, int rows, int tileSize, BlockFileWriter writer) throws IOException {
+        int tilesX = (cols + tileSize - 1) / tileSize;
+        int tilesY = (rows + tileSize - 1) / tileSize;
+
+        byte[][] tiles = IntStream.range(0, tilesX * tilesY).parallel().mapToObj(tile -> {
+            int x0 = (tile % tilesX) * tileSize;
+            int y0 = (tile / tilesX) * tileSize;
+            return DeflateBlockCodec.encode(blockData, cols, x0, y0, Math.min(tileSize, cols - x0), Math.min(tileSize, rows - y0));
+        }).toArray(byte[][]::new);
+
+        long offset = 4 + 8L * (tiles.length + 1);
+        writer.writeInt(tileSize);
+        for (byte[] tile : tiles) {
+            writer.writeLong(offset);
+            offset += tile.length;
+        }
+        writer.writeLong(offset);
+
+        for (byte[] tile : tiles) {
+            writer.write(tile);
+        }
+    }
+
+    /**
+     * Decodes every tile of the payload.
+     *
+     * @param payload     The payload, starting at the tile size.
+     * @param cols        The number of block columns.
+     * @param rows        The number of block rows.
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int cols, int rows, int[] destination) throws IOException {
+        decodeRegion(payload, cols, rows, 0, 0, cols, rows, destination);
+    }
+
+    /**
+     * Decodes the blocks of a rectangle, inflating only the tiles that overlap it.
+     *
+     * @param payload     The payload, starting at the tile size.
+     * @param cols        The number of block columns of the whole image.
+     * @param rows        The number of block rows of the whole image.
+     * @param x0          The first block column of the rectangle (inclusive).
+     * @param y0          The first block row of the rectangle (inclusive).
+     * @param x1          The last block column of the rectangle (exclusive).
+     * @param y1          The last block row of the rectangle (exclusive).
+     * @param destination The array receiving the colors of the rectangle, row by row.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decodeRegion(ByteBuffer payload, int cols, int rows, int x0, int y0, int x1, int y1,
+                                    int[] destination) throws IOException {
+        int tileSize = payload.getInt(0);
+        if (tileSize <= 0) {
+            throw new IOException("Invalid tile size: " + tileSize);
+        }
+
+        int tilesX = (cols + tileSize - 1) / tileSize;
+        int firstTileX = x0 / tileSize;
+        int firstTileY = y0 / tileSize;
+        int lastTileX = (x1 - 1) / tileSize;
+        int lastTileY = (y1 - 1) / tileSize;
+        int spanX = lastTileX - firstTileX + 1;
+        int regionCols = x1 - x0;
+        IOException[] failure = new IOException[1];
+
+        IntStream.range(0, spanX * (lastTileY - firstTileY + 1)).parallel().forEach(i -> {
+            int tileX = firstTileX + i % spanX;
+            int tileY = firstTileY + i / spanX;
+            int tile = tileY * tilesX + tileX;
+            int tileLeft = tileX * tileSize;
+            int tileTop = tileY * tileSize;
+            int tileWidth = Math.min(tileSize, cols - tileLeft);
+            int tileHeight = Math.min(tileSize, rows - tileTop);
+            int[] blocks = new int[tileWidth * tileHeight];
+
+            try {
+                long start = payload.getLong(4 + 8 * tile);
+                long end = payload.getLong(4 + 8 * (tile + 1));
+                if (start < 0 || end < start || end > payload.limit()) {
+                    throw new IOException("Invalid offset for tile " + tile);
+                }
+                DeflateBlockCodec.decode(payload.slice((int) start, (int) (end - start)), tileWidth, tileHeight,
+                        blocks, tileWidth, 0, 0);
+            } catch (IOException e) {
+                failure[0] = e;
+                return;
+            }
+
+            int left = Math.max(x0, tileLeft);
+            int right = Math.min(x1, tileLeft + tileWidth);
+            for (int y = Math.max(y0, tileTop); y < Math.min(y1, tileTop + tileHeight); y++) {
+                System.arraycopy(blocks, (y - tileTop) * tileWidth + left - tileLeft,
+                        destination, (y - y0) * regionCols + left - x0, right - left);
+            }
+        });
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package tools;
+
+import java.io.PrintStream;
+
+/**
+ * @author Pepe Salcedo
+ * This console is meant for non-interactive runs: messages go to standard error, and every stage announced
+ * through `showStage` is timed until the next stage starts, printing one `stage=<id> millis=<time>` line per
+ * stage on standard output. Stages are named by their fixed identifier, so the lines of every run can be compared
+ */
+public class TimedConsole extends IOConsole {
+    private final PrintStream messages;
+    private final PrintStream timings;
+    private final long createdAt = System.nanoTime();
+    private String currentStage = null;
+    private long stageStart = 0;
+
+    /**
+     * Creates a console that writes messages to standard error and timings to standard output.
+     */
+    public TimedConsole() {
+        this(System.err, System.out);
+    }
+
+    /**
+     * Creates a console writing to the given streams.
+     *
+     * @param messages The stream receiving the messages.
+     * @param timings  The stream receiving the timing lines.
+     */
+    public TimedConsole(PrintStream messages, PrintStream timings) {
+        this.messages = messages;
+        this.timings = timings;
+    }
+
+    @Override
+    public synchronized void showInfo(String info) {
+        messages.println(info);
+    }
+
+    @Override
+    public synchronized void showStage(String stage, String info) {
+        messages.println(info);
+        endStage();
+        currentStage = stage;
+        stageStart = System.nanoTime();
+    }
+
+    /**
+     * Closes the stage in progress, if any, and prints the total time since the console was created.
+     */
+    public synchronized void finish() {
+        endStage();
+        printTiming("total", System.nanoTime() - createdAt);
+    }
+
+    /**
+     * Prints the timing of the stage in progress, if any.
+     */
+    private void endStage() {
+        if (currentStage != null) {
+            printTiming(currentStage, System.nanoTime() - stageStart);
+            currentStage = null;
+        }
+    }
+
+    private void printTiming(String stage, long nanos) {
+        timings.printf("stage=%s millis=%.3f%n", stage, nanos / 1e6);
+    }
+}
@@ -0,0 +1,195 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * @author Pepe Salcedo
+ * This class encodes the payload of the `YCBCR` container layout. The averaged block colors are converted to
+ * full-range BT.601 YCbCr; luma is kept for every block, while each chroma sample is the area-weighted average of
+ * `CHROMA_SUBSAMPLING`x`CHROMA_SUBSAMPLING` blocks, so a block costs 1.5 bytes instead of 3.
+ * The payload holds the subsampling ratio followed by a single Deflate stream of the Y, Cb and Cr planes, each
+ * Paeth-predicted one byte sample at a time. Decoding interpolates the chroma planes bilinearly back onto the
+ * block grid and converts every block to RGB with fixed-point arithmetic, one plane row at a time
+ */
+public class YCbCrBlockCodec {
+    public static final int CHROMA_SUBSAMPLING = 2;
+    private static final int MAX_SUBSAMPLING = 16;
+    // fixed-point scale of the YCbCr to RGB coefficients
+    private static final int SHIFT = 16;
+    private static final int ROUNDING = 1 << (SHIFT - 1);
+    private static final int CR_TO_R = 91881;
+    private static final int CB_TO_G = 22554;
+    private static final int CR_TO_G = 46802;
+    private static final int CB_TO_B = 116130;
+
+    private YCbCrBlockCodec() {
+    }
+
+    /**
+     * Converts the block colors to planes and writes them.
+     *
+     * @param blockData         The RGB triplets of every block, row by row.
+     * @param compressionFactor The compression factor of the blocks.
+     * @param width             The width of the source image in pixels.
+     * @param height            The height of the source image in pixels.
+     * @param writer            The writer of the compressed file, positioned after the header.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public static void encode(byte[] blockData, int compressionFactor, int width, int height, BlockFileWriter writer) throws IOException {
+        int cols = (width + compressionFactor - 1) / compressionFactor;
+        int rows = (height + compressionFactor - 1) / compressionFactor;
+        int chromaCols = (cols + CHROMA_SUBSAMPLING - 1) / CHROMA_SUBSAMPLING;
+        int chromaRows = (rows + CHROMA_SUBSAMPLING - 1) / CHROMA_SUBSAMPLING;
+        int chromaSize = chromaCols * chromaRows;
+        byte[] planes = new byte[cols * rows + 2 * chromaSize];
+        double[] blueSums = new double[chromaSize];
+        double[] redSums = new double[chromaSize];
+        long[] areas = new long[chromaSize];
+
+        for (int y = 0, index = 0; y < rows; y++) {
+            int blockHeight = Math.min(compressionFactor, height - y * compressionFactor);
+            for (int x = 0; x < cols; x++, index++) {
+                int red = blockData[index * 3] & 0xFF;
+                int green = blockData[index * 3 + 1] & 0xFF;
+                int blue = blockData[index * 3 + 2] & 0xFF;
+                long area = (long) Math.min(compressionFactor, width - x * compressionFactor) * blockHeight;
+                int chroma = y / CHROMA_SUBSAMPLING * chromaCols + x / CHROMA_SUBSAMPLING;
+
+                planes[index] = clamp(0.299 * red + 0.587 * green + 0.114 * blue);
+                blueSums[chroma] += area * (-0.168736 * red - 0.331264 * green + 0.5 * blue);
+                redSums[chroma] += area * (0.5 * red - 0.418688 * green - 0.081312 * blue);
+                areas[chroma] += area;
+            }
+        }
+
+        int blueOffset = cols * rows;
+        int redOffset = blueOffset + chromaSize;
+        for (int i = 0; i < chromaSize; i++) {
+            planes[blueOffset + i] = clamp(128 + blueSums[i] / areas[i]);
+            planes[redOffset + i] = clamp(128 + redSums[i] / areas[i]);
+        }
+
+        byte[] residuals = new byte[planes.length];
+        filterPlane(planes, residuals, 0, cols, rows);
+        filterPlane(planes, residuals, blueOffset, chromaCols, chromaRows);
+        filterPlane(planes, residuals, redOffset, chromaCols, chromaRows);
+
+        writer.write(CHROMA_SUBSAMPLING);
+        writer.write(DeflateBlockCodec.deflate(residuals));
+    }
+
+    /**
+     * Inflates the planes and rebuilds the packed RGB color of every block.
+     *
+     * @param payload     The payload, starting at the subsampling ratio.
+     * @param cols        The number of block columns.
+     * @param rows        The number of block rows.
+     * @param destination The array receiving the colors, at least `rows * cols` long.
+     * @throws IOException If the payload is truncated or corrupt.
+     */
+    public static void decode(ByteBuffer payload, int cols, int rows, int[] destination) throws IOException {
+        int ratio = payload.get(0) & 0xFF;
+        if (ratio < 1 || ratio > MAX_SUBSAMPLING) {
+            throw new IOException("Invalid chroma subsampling: " + ratio);
+        }
+
+        int chromaCols = (cols + ratio - 1) / ratio;
+        int chromaRows = (rows + ratio - 1) / ratio;
+        int blueOffset = cols * rows;
+        int redOffset = blueOffset + chromaCols * chromaRows;
+        byte[] planes = new byte[redOffset + chromaCols * chromaRows];
+        DeflateBlockCodec.inflate(payload.slice(1, payload.limit() - 1), planes);
+
+        unfilterPlane(planes, 0, cols, rows);
+        unfilterPlane(planes, blueOffset, chromaCols, chromaRows);
+        unfilterPlane(planes, redOffset, chromaCols, chromaRows);
+
+        // the chroma samples around every block center and the weight of the second one, in 1/256
+        int[] left = new int[cols];
+        int[] right = new int[cols];
+        int[] weightX = new int[cols];
+        samplePositions(cols, ratio, chromaCols, left, right, weightX);
+        int[] top = new int[rows];
+        int[] bottom = new int[rows];
+        int[] weightY = new int[rows];
+        samplePositions(rows, ratio, chromaRows, top, bottom, weightY);
+
+        IntStream.range(0, rows).parallel().forEach(y -> {
+            int above = top[y] * chromaCols;
+            int below = bottom[y] * chromaCols;
+            int wy = weightY[y];
+
+            for (int x = 0, index = y * cols; x < cols; x++, index++) {
+                int wx = weightX[x];
+                int luma = planes[index] & 0xFF;
+                int blue = interpolate(planes, blueOffset + above, blueOffset + below, left[x], right[x], wx, wy) - 128;
+                int red = interpolate(planes, redOffset + above, redOffset + below, left[x], right[x], wx, wy) - 128;
+
+                int r = luma + ((CR_TO_R * red + ROUNDING) >> SHIFT);
+                int g = luma + ((ROUNDING - CB_TO_G * blue - CR_TO_G * red) >> SHIFT);
+                int b = luma + ((CB_TO_B * blue + ROUNDING) >> SHIFT);
+                destination[index] = clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+            }
+        });
+    }
+
+    /**
+     * Finds, for every block along one axis, the two chroma samples its center falls between.
+     */
+    private static void samplePositions(int blocks, int ratio, int samples, int[] first, int[] second, int[] weight) {
+        for (int i = 0; i < blocks; i++) {
+            // the center of block i is at (i + 0.5) / ratio - 0.5 chroma samples, in 1/256
+            int position = Math.max(0, (2 * i + 1) * 128 / ratio - 128);
+            first[i] = Math.min(position >> 8, samples - 1);
+            second[i] = Math.min(first[i] + 1, samples - 1);
+            weight[i] = position & 0xFF;
+        }
+    }
+
+    private static int interpolate(byte[] planes, int above, int below, int left, int right, int wx, int wy) {
+        int top = (planes[above + left] & 0xFF) * (256 - wx) + (planes[above + right] & 0xFF) * wx;
+        int bottom = (planes[below + left] & 0xFF) * (256 - wx) + (planes[below + right] & 0xFF) * wx;
+        return (top * (256 - wy) + bottom * wy + (1 << 15)) >> 16;
+    }
+
+    private static void filterPlane(byte[] planes, byte[] residuals, int offset, int cols, int rows) {
+        byte[] row = new byte[cols];
+        byte[] previous = new byte[cols];
+        byte[] filtered = new byte[cols];
+
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(planes, offset + y * cols, row, 0, cols);
+            PaethPredictor.filter(row, y == 0 ? null : previous, filtered, 1);
+            System.arraycopy(filtered, 0, residuals, offset + y * cols, cols);
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+    }
+
+    private static void unfilterPlane(byte[] planes, int offset, int cols, int rows) {
+        byte[] row = new byte[cols];
+        byte[] previous = new byte[cols];
+
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(planes, offset + y * cols, row, 0, cols);
+            PaethPredictor.unfilter(row, y == 0 ? null : previous, 1);
+            System.arraycopy(row, 0, planes, offset + y * cols, cols);
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+    }
+
+    private static byte clamp(double value) {
+        return (byte) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import tools.BmpCodec;
+import tools.CompressedFormat;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.QuadtreeBlockCodec;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a batch compresses every file as a single compression would, including the files only `ImageIO` reads.
+ *
+ * @author Pepe Salcedo
+ */
+class BatchCompressorTest {
+    private static final int FACTOR = TestImages.FACTOR;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(value = CompressedFormat.class, names = {"DEFLATE", "QUADTREE"})
+    void compressesPaletteFilesThroughImageIo(CompressedFormat format) throws IOException {
+        Path sources = Files.createDirectories(directory.resolve("sources"));
+        Path outputs = directory.resolve("outputs");
+        BufferedImage truecolor = TestImages.synthetic(37, 21);
+        BufferedImage palette = new BufferedImage(37, 21, BufferedImage.TYPE_BYTE_INDEXED);
+        palette.getGraphics().drawImage(truecolor, 0, 0, null);
+        BmpCodec.write(sources.resolve("truecolor.bmp"), truecolor);
+        assertTrue(ImageIO.write(palette, "bmp", sources.resolve("palette.bmp").toFile()));
+        assertThrows(BmpCodec.UnsupportedBmpException.class,
+                () -> BmpCodec.read(sources.resolve("palette.bmp")));
+
+        IOConsole console = new IOConsole();
+        FileHandler fileHandler = FileHandler.getInstance(console);
+        fileHandler.setInteractive(false);
+        BatchCompressor batch = new BatchCompressor(console, fileHandler, Compressor.getInstance(console, fileHandler));
+
+        assertTrue(batch.compressAll(sources.toString(), FACTOR, format, QuadtreeBlockCodec.DEFAULT_THRESHOLD,
+                outputs.toString(), 2, false));
+        ImageCodec codec = TestImages.codec(format);
+        assertArrayEquals(codec.compress(truecolor), Files.readAllBytes(outputs.resolve("truecolor.bin")));
+        assertArrayEquals(codec.compress(ImageIO.read(sources.resolve("palette.bmp").toFile())),
+                Files.readAllBytes(outputs.resolve("palette.bin")));
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tools.BmpCodec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that the command line rejects options the command does not take before touching any file.
+ *
+ * @author Pepe Salcedo
+ */
+class CommandLineTest {
+    @TempDir
+    static Path directory;
+    private static Path bmp;
+    private static Path compressed;
+
+    @BeforeAll
+    static void compressSource() throws IOException {
+        bmp = directory.resolve("source.bmp");
+        compressed = directory.resolve("source.bin");
+        BmpCodec.write(bmp, TestImages.synthetic(21, 13));
+
+        assertEquals(CommandLine.EXIT_OK, CommandLine.run(new String[]{"compress", "-f", "4", bmp.toString(),
+                compressed.toString()}));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "decompress --pipelind",
+            "decompress --threshold 3",
+            "decompress -f 4",
+            "decompress --format deflate",
+            "decompress --virtual",
+            "batch --filter bicubic",
+            "batch --memory-budget 64",
+            "compress --region 0,0,4,4",
+            "compress --pipelined",
+            "compress -x"})
+    void rejectsOptionsTheCommandDoesNotTake(String arguments) {
+        Path output = directory.resolve("rejected");
+        String[] args = (arguments + " " + compressed + " " + output).split(" ");
+
+        assertEquals(CommandLine.EXIT_USAGE, CommandLine.run(args));
+        assertFalse(Files.exists(output));
+        assertFalse(Files.exists(directory.resolve("rejected.bmp")));
+    }
+
+    @Test
+    void acceptsMetricsOnEveryCommand() {
+        Path output = directory.resolve("metrics");
+
+        assertEquals(CommandLine.EXIT_OK, CommandLine.run(new String[]{"decompress", "--metrics", "--filter",
+                "nearest", compressed.toString(), output.toString()}));
+        // the decompressor names its output after the format it writes
+        assertTrue(Files.exists(directory.resolve("metrics.bmp")));
+    }
+}
@@ -0,0 +1,92 @@
+import filters.BilinearFilter;
+import filters.LanczosFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.CompressedFormat;
+import tools.DecodedImageCache;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.QuadtreeBlockCodec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that images served by the decoded image cache are the images decompression writes without it.
+ *
+ * @author Pepe Salcedo
+ */
+class DecompressorCacheTest {
+    @TempDir
+    Path directory;
+    private Decompressor decompressor;
+    private DecodedImageCache cache;
+    private Path compressed;
+    private byte[] expected;
+
+    @BeforeEach
+    void compressSample() throws IOException {
+        IOConsole console = new IOConsole();
+        decompressor = Decompressor.getInstance(console, FileHandler.getInstance(console));
+        cache = new DecodedImageCache(64 << 20, false);
+        decompressor.setCache(cache);
+
+        ImageCodec codec = new ImageCodec(4, CompressedFormat.PYRAMID, new BilinearFilter(),
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+        byte[] file = codec.compress(TestImages.synthetic(101, 67));
+        compressed = Files.write(directory.resolve("image.bin"), file);
+        expected = codec.decompressToBmp(file);
+    }
+
+    @AfterEach
+    void removeCache() {
+        decompressor.setCache(null);
+    }
+
+    @Test
+    void servesTheSameFileFromTheCache() throws IOException {
+        assertTrue(decompressor.decompressImage(compressed.toString(), output("miss"), new BilinearFilter()));
+        assertTrue(decompressor.decompressImage(compressed.toString(), output("hit"), new BilinearFilter()));
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(expected, Files.readAllBytes(directory.resolve("miss.bmp")));
+        assertArrayEquals(expected, Files.readAllBytes(directory.resolve("hit.bmp")));
+    }
+
+    @Test
+    void keysImagesByFilterAndLevel() {
+        assertTrue(decompressor.decompressImage(compressed.toString(), output("bilinear"), new BilinearFilter()));
+        assertTrue(decompressor.decompressImage(compressed.toString(), output("lanczos"), new LanczosFilter()));
+        assertTrue(decompressor.decompressLevel(compressed.toString(), output("level"), 0, new BilinearFilter()));
+
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+        assertEquals(3, cache.getEntryCount());
+    }
+
+    @Test
+    void decompressesAChangedFileAgain() throws IOException {
+        assertTrue(decompressor.decompressImage(compressed.toString(), output("before"), new BilinearFilter()));
+
+        ImageCodec codec = new ImageCodec(2, CompressedFormat.DEFLATE, new BilinearFilter(),
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+        byte[] changed = codec.compress(TestImages.synthetic(101, 67));
+        Files.write(compressed, changed);
+        assertTrue(decompressor.decompressImage(compressed.toString(), output("after"), new BilinearFilter()));
+
+        assertEquals(2, cache.getMisses());
+        assertArrayEquals(codec.decompressToBmp(changed), Files.readAllBytes(directory.resolve("after.bmp")));
+    }
+
+    private String output(String name) {
+        return directory.resolve(name).toString();
+    }
+}
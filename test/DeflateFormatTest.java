@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+import tools.CompressedFormat;
+import tools.ContainerHeader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the versioned container with Paeth-predicted, Deflate-compressed block rows.
+ *
+ * @author Pepe Salcedo
+ */
+class DeflateFormatTest {
+
+    @Test
+    void writesTheContainerHeader() throws IOException {
+        byte[] compressed = TestImages.codec(CompressedFormat.DEFLATE).compress(TestImages.synthetic(101, 67));
+        ContainerHeader header = ContainerHeader.read(ByteBuffer.wrap(compressed));
+
+        assertEquals(CompressedFormat.DEFLATE, header.getFormat());
+        assertEquals(TestImages.FACTOR, header.getCompressionFactor());
+        assertEquals(101, header.getWidth());
+        assertEquals(67, header.getHeight());
+        assertEquals(26, header.getBlockCols());
+        assertEquals(17, header.getBlockRows());
+    }
+
+    @Test
+    void roundTripKeepsEveryBlockOfTheLegacyLayout() throws IOException {
+        BufferedImage image = TestImages.synthetic(101, 67);
+        byte[] deflate = TestImages.codec(CompressedFormat.DEFLATE).compress(image);
+        byte[] legacy = TestImages.codec(CompressedFormat.LEGACY).compress(image);
+
+        assertTrue(deflate.length < legacy.length);
+        assertEquals(TestImages.digest(TestImages.codec(CompressedFormat.LEGACY).decompress(legacy)),
+                TestImages.digest(TestImages.codec(CompressedFormat.DEFLATE).decompress(deflate)));
+    }
+
+    @Test
+    void storesTheSampleImageLosslesslyInFewerBytesThanItsBlocks() throws IOException {
+        BufferedImage image = TestImages.sample();
+        byte[] deflate = TestImages.codec(CompressedFormat.DEFLATE).compress(image);
+        byte[] legacy = TestImages.codec(CompressedFormat.LEGACY).compress(image);
+
+        assertArrayEquals(TestImages.blocks(legacy), TestImages.blocks(deflate));
+        assertTrue(deflate.length < legacy.length, deflate.length + " bytes");
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.DEFLATE);
+        byte[] compressed = codec.compress(TestImages.synthetic(101, 67));
+
+        assertThrows(IOException.class, () -> codec.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+
+    @Test
+    void rejectsUnknownContainerVersions() throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.DEFLATE);
+        byte[] compressed = codec.compress(TestImages.synthetic(101, 67));
+        compressed[4] = ContainerHeader.VERSION + 1;
+
+        assertThrows(IOException.class, () -> codec.decompress(compressed));
+    }
+}
@@ -0,0 +1,106 @@
+import filters.BilinearFilter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import tools.CompressedFormat;
+import tools.CompressionTarget;
+import tools.ContainerHeader;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests choosing the compression factor from a PSNR, SSIM or size target.
+ *
+ * @author Pepe Salcedo
+ */
+class FactorSelectorTest {
+    private static BufferedImage image;
+
+    @BeforeAll
+    static void readSample() throws IOException {
+        image = TestImages.sample();
+    }
+
+    @Test
+    void sizeTargetPicksTheSmallestFactorThatFits() throws IOException {
+        FactorSelector selector = selector(CompressedFormat.DEFLATE);
+        long maxBytes = selector.encodedSize(6) + 1;
+
+        int factor = selector.select(new CompressionTarget(0, 0, maxBytes));
+
+        assertTrue(selector.encodedSize(factor) <= maxBytes);
+        assertTrue(selector.encodedSize(factor - 1) > maxBytes);
+    }
+
+    @Test
+    void qualityTargetPicksTheLargestFactorThatMeetsIt() throws IOException {
+        FactorSelector selector = selector(CompressedFormat.DEFLATE);
+        CompressionTarget target = new CompressionTarget(selector.sampledQuality(5).getPsnr(), 0, 0);
+
+        int factor = selector.select(target);
+
+        assertTrue(target.isMetBy(selector.sampledQuality(factor)));
+        assertFalse(target.isMetBy(selector.sampledQuality(factor + 1)));
+    }
+
+    @Test
+    void sizeWinsOverQualityWhenTheyConflict() throws IOException {
+        FactorSelector selector = selector(CompressedFormat.DEFLATE);
+        long maxBytes = selector.encodedSize(8);
+
+        assertEquals(selector.select(new CompressionTarget(0, 0, maxBytes)),
+                selector.select(new CompressionTarget(99, 0, maxBytes)));
+    }
+
+    @Test
+    void unreachableTargetsGetTheClosestFactor() throws IOException {
+        FactorSelector selector = selector(CompressedFormat.DEFLATE);
+
+        assertEquals(2, selector.select(new CompressionTarget(99, 0, 0)));
+        assertEquals(selector.getMaxFactor(), selector.select(new CompressionTarget(0, 0, 1)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressedFormat.class, names = "LEGACY", mode = EnumSource.Mode.EXCLUDE)
+    void candidatesDecodeLikeTheImageCompressedAtTheirFactor(CompressedFormat format) throws IOException {
+        ImageCodec codec = new ImageCodec(5, format, new BilinearFilter(), QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+
+        assertEquals(TestImages.digest(codec.decompress(codec.compress(image))),
+                TestImages.digest(codec.decompress(selector(format).encode(5))));
+    }
+
+    @Test
+    void codecWritesTheChosenFactorToItsGoldenValue() throws IOException {
+        ImageCodec codec = new ImageCodec(2, CompressedFormat.DEFLATE, new BilinearFilter(),
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+        CompressionTarget target = new CompressionTarget(20.5, 0.5, 0);
+
+        byte[] compressed = codec.compress(image, target);
+
+        int factor = ContainerHeader.read(ByteBuffer.wrap(compressed)).getCompressionFactor();
+        assertEquals(selector(CompressedFormat.DEFLATE).select(target), factor);
+        assertEquals(5, factor);
+    }
+
+    @Test
+    void rejectsTheLegacyLayoutAndEmptyTargets() {
+        assertThrows(IllegalArgumentException.class, () -> selector(CompressedFormat.LEGACY));
+        assertThrows(IllegalArgumentException.class, () -> new CompressionTarget(0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CompressionTarget(0, 1.5, 0));
+    }
+
+    private static FactorSelector selector(CompressedFormat format) {
+        boolean withSquares = format == CompressedFormat.QUADTREE;
+        return new FactorSelector(null, image, Compressor.buildSummedAreaTable(image, withSquares), format,
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD, new BilinearFilter());
+    }
+}
@@ -0,0 +1,113 @@
+import filters.BilinearFilter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+import tools.CompressedFormat;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the embeddable codec: compressing at several factors at once, sharing one codec between threads, and
+ * reading compressed files it did not write.
+ *
+ * @author Pepe Salcedo
+ */
+class ImageCodecTest {
+    private static final int[] FACTORS = {2, 3, 5, 8, 16};
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+
+    @ParameterizedTest
+    @EnumSource(CompressedFormat.class)
+    void compressesEveryFactorAsASeparateCompressionWould(CompressedFormat format) throws IOException {
+        // not a multiple of any factor, so every factor clips its last block row and column
+        BufferedImage image = TestImages.synthetic(101, 67);
+
+        Map<Integer, byte[]> outputs = TestImages.codec(format).compressFactors(image, FACTORS);
+
+        assertArrayEquals(FACTORS, outputs.keySet().stream().mapToInt(Integer::intValue).toArray());
+        for (int factor : FACTORS) {
+            ImageCodec codec = new ImageCodec(factor, format, new BilinearFilter(),
+                    QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+            assertArrayEquals(codec.compress(image), outputs.get(factor), "factor " + factor);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressedFormat.class)
+    void sharesOneCodecBetweenThreads(CompressedFormat format) throws Exception {
+        ImageCodec codec = TestImages.codec(format);
+        // images of different sizes, so the threads contend for the pooled buffers with different lengths
+        BufferedImage[] images = {TestImages.synthetic(101, 67), TestImages.synthetic(257, 129),
+                TestImages.synthetic(13, 9)};
+        byte[][] compressed = new byte[images.length][];
+        String[] decompressed = new String[images.length];
+        for (int i = 0; i < images.length; i++) {
+            compressed[i] = codec.compress(images[i]);
+            decompressed[i] = TestImages.digest(codec.decompress(compressed[i]));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int first = thread;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < ROUNDS * images.length; round++) {
+                        int i = (first + round) % images.length;
+                        byte[] bytes = codec.compress(images[i]);
+                        assertArrayEquals(compressed[i], bytes, "image " + i);
+                        assertEquals(decompressed[i], TestImages.digest(codec.decompress(bytes)), "image " + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            // rethrows the first assertion that failed on a worker
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressedFormat.class, names = "LEGACY", mode = EnumSource.Mode.EXCLUDE)
+    void rejectsAForgedHeightBeforeAllocatingIt(CompressedFormat format) throws IOException {
+        ImageCodec codec = TestImages.codec(format);
+        byte[] compressed = codec.compress(TestImages.synthetic(101, 67));
+        compressed[14] = 0x7F;
+
+        assertThrows(IOException.class, () -> codec.decompress(compressed));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // factor, width, height
+            "1073741824, 2147483647, 2147483647",
+            "2, 2147483647, 2147483647",
+            "2, 200000, 100000",
+            "65536, 131072, 131072"})
+    void rejectsDimensionsThePayloadCannotHold(int factor, int width, int height) throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.DEFLATE);
+        ByteBuffer compressed = ByteBuffer.wrap(codec.compress(TestImages.synthetic(101, 67)));
+        compressed.putInt(6, factor).putInt(10, width).putInt(14, height);
+
+        assertThrows(IOException.class, () -> codec.decompress(compressed));
+    }
+}
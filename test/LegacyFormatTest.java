@@ -0,0 +1,79 @@
+import filters.BilinearFilter;
+import org.junit.jupiter.api.Test;
+import tools.CompressedFormat;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the original layout: a factor, a column count and the raw block averages.
+ *
+ * @author Pepe Salcedo
+ */
+class LegacyFormatTest {
+    private static final ImageCodec CODEC = new ImageCodec(2, CompressedFormat.LEGACY, new BilinearFilter(),
+            QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+
+    @Test
+    void writesTheTruncatedBlockAveragesAfterTheHeader() throws IOException {
+        // 5x3 pixels of 2x2 blocks: the last column and row of blocks only average the pixels they cover
+        BufferedImage image = new BufferedImage(5, 3, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 5; x++) {
+                image.setRGB(x, y, x * 10 << 16 | y * 20 << 8 | 7);
+            }
+        }
+
+        assertArrayEquals(new byte[]{
+                2, 0, 0, 0, 3,
+                5, 10, 7, 25, 10, 7, 40, 10, 7,
+                5, 40, 7, 25, 40, 7, 40, 40, 7
+        }, CODEC.compress(image));
+    }
+
+    @Test
+    void decodesImagesWhoseSizeIsNotAMultipleOfTheFactor() throws IOException {
+        BufferedImage image = TestImages.synthetic(101, 67);
+        ImageCodec codec = new ImageCodec(4, CompressedFormat.LEGACY, new BilinearFilter(),
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+
+        BufferedImage decoded = codec.decompress(codec.compress(image));
+
+        assertEquals(100, decoded.getWidth());
+        assertEquals(64, decoded.getHeight());
+    }
+
+    @Test
+    void roundTripPlacesEveryBlockAtTheCornerOfItsCell() throws IOException {
+        BufferedImage image = TestImages.synthetic(96, 64);
+        byte[] compressed = CODEC.compress(image);
+        BufferedImage decoded = CODEC.decompress(compressed);
+
+        assertEquals(94, decoded.getWidth());
+        assertEquals(62, decoded.getHeight());
+        for (int y = 0; y < 31; y++) {
+            for (int x = 0; x < 47; x++) {
+                int block = 5 + (y * 48 + x) * 3;
+                int expected = (compressed[block] & 0xFF) << 16 | (compressed[block + 1] & 0xFF) << 8
+                        | compressed[block + 2] & 0xFF;
+                assertEquals(expected, decoded.getRGB(x * 2, y * 2) & 0xFFFFFF, "block " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void decodesTheSampleImageToItsGoldenOutput() throws IOException {
+        ImageCodec codec = new ImageCodec(4, CompressedFormat.LEGACY, new BilinearFilter(),
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+        byte[] compressed = codec.compress(TestImages.sample());
+
+        // the layout holds no Deflate stream, so its bytes are as stable as the decoded pixels
+        assertEquals("0d757c22a8e8e8c64cf422f6fe18587ac5f7a7b43b949caefaa2cd58b2b5a380", TestImages.digest(compressed));
+        assertEquals("34c75b45aa9d2b2c6a415a9e2b2d7a9c739724b21cd501fc1bfa2ef1a55d426f",
+                TestImages.digest(codec.decompress(compressed)));
+    }
+}
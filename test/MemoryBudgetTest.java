@@ -0,0 +1,126 @@
+import filters.BilinearFilter;
+import filters.LanczosFilter;
+import filters.ReconstructionFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import tools.BmpCodec;
+import tools.CompressedFormat;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.MemoryBudget;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that images over the memory budget are streamed instead of loaded whole, and come out as the images
+ * processed in memory.
+ *
+ * @author Pepe Salcedo
+ */
+class MemoryBudgetTest {
+    private static final int FACTOR = TestImages.FACTOR;
+    // under the 27068 bytes of the 101x67 raster, over its 1326 bytes of blocks and 14144 bytes of statistics
+    private static final MemoryBudget BLOCKS_ONLY = new MemoryBudget(20_000);
+    private static final MemoryBudget TINY = new MemoryBudget(1);
+
+    @TempDir
+    static Path directory;
+    private static BufferedImage image;
+    private static Path bmp;
+    private static Compressor compressor;
+    private static Decompressor decompressor;
+
+    @BeforeAll
+    static void writeSource() throws IOException {
+        IOConsole console = new IOConsole();
+        compressor = Compressor.getInstance(console, FileHandler.getInstance(console));
+        decompressor = Decompressor.getInstance(console, FileHandler.getInstance(console));
+
+        image = TestImages.synthetic(101, 67);
+        bmp = directory.resolve("source.bmp");
+        BmpCodec.write(bmp, image);
+    }
+
+    @AfterEach
+    void restoreBudgets() {
+        compressor.setMemoryBudget(MemoryBudget.fromHeap());
+        decompressor.setMemoryBudget(MemoryBudget.fromHeap());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressedFormat.class)
+    void compressesOverBudgetImagesLikeInMemory(CompressedFormat format) throws IOException {
+        assertStreamedFile(format, BLOCKS_ONLY);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressedFormat.class, names = {"LEGACY", "DEFLATE"})
+    void compressesOverBudgetBlocksThroughAScratchFile(CompressedFormat format) throws IOException {
+        assertStreamedFile(format, TINY);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressedFormat.class, names = {"LEGACY", "DEFLATE"}, mode = EnumSource.Mode.EXCLUDE)
+    void refusesOverBudgetBlocksInOtherLayouts(CompressedFormat format) {
+        compressor.setMemoryBudget(TINY);
+
+        assertFalse(compressor.compressImage(FACTOR, bmp.toString(),
+                directory.resolve(format + "-refused.bin").toString(), format));
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressedFormat.class)
+    void decompressesOverBudgetImagesLikeInMemory(CompressedFormat format) throws IOException {
+        assertOverBudgetFile(format, new BilinearFilter());
+    }
+
+    @Test
+    void decompressesOverBudgetImagesWithTheGivenFilter() throws IOException {
+        assertOverBudgetFile(CompressedFormat.TILED, new LanczosFilter());
+    }
+
+    @Test
+    void rejectsEmptyBudgets() {
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(0));
+        assertThrows(IllegalArgumentException.class, () -> MemoryBudget.ofMegabytes(0));
+        assertTrue(MemoryBudget.ofMegabytes(1).fits(1 << 20));
+        assertFalse(MemoryBudget.ofMegabytes(1).fits((1 << 20) + 1));
+        assertFalse(new MemoryBudget(Long.MAX_VALUE).fits(Integer.MAX_VALUE));
+    }
+
+    private static void assertStreamedFile(CompressedFormat format, MemoryBudget budget) throws IOException {
+        ImageCodec codec = TestImages.codec(format);
+        Path output = directory.resolve(format + "-" + budget.getLimit() + ".bin");
+
+        compressor.setMemoryBudget(budget);
+        assertTrue(compressor.compressImage(FACTOR, bmp.toString(), output.toString(), format));
+
+        assertEquals(TestImages.digest(TestImages.roundTrip(image, codec)),
+                TestImages.digest(codec.decompress(Files.readAllBytes(output))));
+    }
+
+    private static void assertOverBudgetFile(CompressedFormat format, ReconstructionFilter filter) throws IOException {
+        ImageCodec codec = TestImages.codec(format, filter);
+        byte[] compressed = codec.compress(image);
+        Path file = Files.write(directory.resolve(format + "-" + filter.getName() + ".bin"), compressed);
+        Path output = directory.resolve(format + "-" + filter.getName() + "-streamed");
+
+        decompressor.setMemoryBudget(TINY);
+        assertTrue(decompressor.decompressImage(file.toString(), output.toString(), filter));
+
+        assertArrayEquals(codec.decompressToBmp(compressed), Files.readAllBytes(Path.of(output + ".bmp")));
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import tools.CompressedFormat;
+import tools.ContainerHeader;
+import tools.PaletteBlockCodec;
+import tools.PaletteQuantizer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the palette layout, which stores a color dictionary and the index of every block in it.
+ *
+ * @author Pepe Salcedo
+ */
+class PaletteFormatTest {
+    @ParameterizedTest
+    @CsvSource({"12, 4", "16, 4", "17, 8", "256, 8"})
+    void keepsEveryBlockOfAnImageWithFewColors(int colors, int bits) throws IOException {
+        BufferedImage image = cells(colors);
+        byte[] compressed = TestImages.codec(CompressedFormat.PALETTE).compress(image);
+
+        ByteBuffer payload = ByteBuffer.wrap(compressed).position(ContainerHeader.SIZE).slice();
+        assertEquals(colors, payload.getInt(0));
+        assertEquals(bits, payload.getInt(4));
+        assertArrayEquals(TestImages.blocks(TestImages.codec(CompressedFormat.LEGACY).compress(image)),
+                TestImages.blocks(compressed));
+    }
+
+    @Test
+    void quantizesTheSampleImageToAtMostTheLargestPalette() throws IOException {
+        BufferedImage image = TestImages.sample();
+        byte[] blockData = Compressor.generateBlockData(image, TestImages.FACTOR);
+
+        int[] palette = PaletteQuantizer.quantize(blockData, PaletteBlockCodec.MAX_COLORS);
+        int[] indices = PaletteQuantizer.assign(blockData, palette);
+        double psnr = TestImages.psnr(TestImages.roundTrip(image, CompressedFormat.LEGACY),
+                TestImages.roundTrip(image, CompressedFormat.PALETTE));
+
+        assertEquals(PaletteBlockCodec.MAX_COLORS, palette.length);
+        assertEquals(blockData.length / 3, indices.length);
+        assertTrue(Arrays.stream(indices).allMatch(index -> index >= 0 && index < palette.length));
+        assertTrue(psnr > 30, psnr + " dB");
+    }
+
+    @Test
+    void decodesTheSampleImageToItsGoldenOutput() throws IOException {
+        assertEquals("bd8aaf5d0fdbe20e92cd01613010635fb157d52e99472bbc961c4849a9bdb65f",
+                TestImages.digest(TestImages.roundTrip(TestImages.sample(), CompressedFormat.PALETTE)));
+    }
+
+    @Test
+    void rejectsInvalidPalettes() throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.PALETTE);
+        byte[] compressed = codec.compress(cells(12));
+        ByteBuffer.wrap(compressed).putInt(ContainerHeader.SIZE, PaletteBlockCodec.MAX_COLORS + 1);
+
+        assertThrows(IOException.class, () -> codec.decompress(compressed));
+        assertThrows(IllegalArgumentException.class, () -> PaletteQuantizer.quantize(new byte[3], 0));
+    }
+
+    /**
+     * Paints the given number of colors in cells of one block each, so every block keeps its color exactly.
+     */
+    private static BufferedImage cells(int colors) {
+        int factor = TestImages.FACTOR;
+        BufferedImage image = new BufferedImage(24 * factor, 16 * factor, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int cell = (y / factor * 24 + x / factor) % colors;
+                image.setRGB(x, y, cell * 0x9E3779 & 0xFFFFFF);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Tests that averaging block rows across a fork/join pool gives the bytes of a sequential pass, whatever the
+ * number of workers sharing the pooled band buffers.
+ *
+ * @author Pepe Salcedo
+ */
+class ParallelAveragingTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            // width, height, factor: neither side a multiple of the factor, so the last blocks are clipped
+            "101, 67, 4",
+            "101, 67, 3",
+            "257, 129, 8",
+            "7, 5, 16"})
+    void averagesLikeASingleWorker(int width, int height, int factor) throws Exception {
+        BufferedImage image = TestImages.synthetic(width, height);
+
+        byte[] sequential = inPool(1, () -> Compressor.generateBlockData(image, factor));
+
+        assertArrayEquals(sequential, Compressor.generateBlockData(image, factor));
+        assertArrayEquals(sequential, inPool(4, () -> Compressor.generateBlockData(image, factor)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"101, 67, 4", "257, 129, 8"})
+    void sumsStatisticsLikeASingleWorker(int width, int height, int factor) throws Exception {
+        BufferedImage image = TestImages.synthetic(width, height);
+
+        long[] sequential = inPool(1, () -> Compressor.generateBlockStatistics(image, factor));
+
+        assertArrayEquals(sequential, Compressor.generateBlockStatistics(image, factor));
+        assertArrayEquals(sequential, inPool(4, () -> Compressor.generateBlockStatistics(image, factor)));
+    }
+
+    /**
+     * Runs a task in a pool of its own, so the parallel streams it starts split their work among that pool's
+     * workers instead of the common pool.
+     */
+    private static <T> T inPool(int parallelism, Callable<T> task) throws ExecutionException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(task).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import filters.BilinearFilter;
+import filters.ReconstructionFilter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+import tools.CompressedFormat;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that decompressing band by band through the worker pipeline writes the file that decompressing the whole
+ * image in memory writes.
+ *
+ * @author Pepe Salcedo
+ */
+class PipelinedDecompressionTest {
+    private static final int FACTOR = 4;
+
+    @TempDir
+    static Path directory;
+    private static BufferedImage image;
+    private static Decompressor decompressor;
+
+    @BeforeAll
+    static void setUp() {
+        IOConsole console = new IOConsole();
+        decompressor = Decompressor.getInstance(console, FileHandler.getInstance(console));
+        image = TestImages.synthetic(101, 67);
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressedFormat.class)
+    void everyFormatWritesTheInMemoryFile(CompressedFormat format) throws IOException {
+        assertPipelinedFile(format, new BilinearFilter(), 2);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"nearest, 1", "bilinear, 3", "bicubic, 2", "lanczos, 4"})
+    void everyFilterWritesTheInMemoryFile(String filter, int workers) throws IOException {
+        assertPipelinedFile(CompressedFormat.DEFLATE, ReconstructionFilter.forName(filter), workers);
+    }
+
+    private static void assertPipelinedFile(CompressedFormat format, ReconstructionFilter filter, int workers)
+            throws IOException {
+        ImageCodec codec = new ImageCodec(FACTOR, format, filter, QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+        byte[] compressed = codec.compress(image);
+        Path file = Files.write(directory.resolve(format + "-" + filter.getName() + ".bin"), compressed);
+        Path output = directory.resolve(format + "-" + filter.getName() + "-" + workers);
+
+        assertTrue(decompressor.decompressImagePipelined(file.toString(), output.toString(), filter, workers));
+        assertArrayEquals(codec.decompressToBmp(compressed), Files.readAllBytes(Path.of(output + ".bmp")));
+    }
+}
@@ -0,0 +1,94 @@
+import filters.BilinearFilter;
+import org.junit.jupiter.api.Test;
+import tools.CompressedFormat;
+import tools.MappedBlockReader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the progressive layout: the blocks at the compression factor and every coarser level, coarsest first.
+ *
+ * @author Pepe Salcedo
+ */
+class PyramidFormatTest {
+    @Test
+    void storesEveryLevelUntilTheGridIsTooSmall() throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.PYRAMID);
+        // 96x64 pixels: a level of factor 64 would be a single block row
+        MappedBlockReader reader = reader(codec.compress(TestImages.synthetic(96, 64)));
+
+        assertEquals(4, reader.getLevelCount());
+        assertArrayEquals(new int[]{32, 16, 8, 4}, new int[]{reader.getLevelFactor(0), reader.getLevelFactor(1),
+                reader.getLevelFactor(2), reader.getLevelFactor(3)});
+        assertEquals(3, reader.getLevelCols(0));
+        assertEquals(2, reader.getLevelRows(0));
+    }
+
+    @Test
+    void finestLevelHoldsTheBlocksOfTheLegacyLayout() throws IOException {
+        BufferedImage image = TestImages.synthetic(101, 67);
+        MappedBlockReader pyramid = reader(TestImages.codec(CompressedFormat.PYRAMID).compress(image));
+        MappedBlockReader legacy = reader(TestImages.codec(CompressedFormat.LEGACY).compress(image));
+
+        int[] expected = new int[legacy.getCols() * legacy.getRows()];
+        legacy.readBlocks(expected);
+        int finest = pyramid.getLevelCount() - 1;
+        int[] actual = new int[pyramid.getLevelCols(finest) * pyramid.getLevelRows(finest)];
+        pyramid.readLevel(finest, actual);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void everyCoarserBlockIsTheRoundedMeanOfTheFourBelowIt() throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.PYRAMID);
+        MappedBlockReader reader = reader(codec.compress(TestImages.synthetic(96, 64)));
+
+        for (int level = 0; level < reader.getLevelCount() - 1; level++) {
+            int cols = reader.getLevelCols(level);
+            int fineCols = reader.getLevelCols(level + 1);
+            int[] coarse = new int[cols * reader.getLevelRows(level)];
+            int[] fine = new int[fineCols * reader.getLevelRows(level + 1)];
+            reader.readLevel(level, coarse);
+            reader.readLevel(level + 1, fine);
+
+            for (int i = 0; i < coarse.length; i++) {
+                int top = (i / cols) * 2 * fineCols + (i % cols) * 2;
+                int[] children = {fine[top], fine[top + 1], fine[top + fineCols], fine[top + fineCols + 1]};
+                int expected = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int sum = 0;
+                    for (int child : children) {
+                        sum += child >> shift & 0xFF;
+                    }
+                    expected |= (sum + 2) / 4 << shift;
+                }
+                assertEquals(expected, coarse[i], "level " + level + " block " + i);
+            }
+        }
+    }
+
+    @Test
+    void decodesTheSampleImageLikeItsBlocksAndItsPreviewToItsGoldenOutput() throws IOException {
+        byte[] compressed = TestImages.codec(CompressedFormat.PYRAMID).compress(TestImages.sample());
+        MappedBlockReader reader = reader(compressed);
+        int[] preview = new int[reader.getLevelCols(0) * reader.getLevelRows(0)];
+        reader.readLevel(0, preview);
+
+        // the full image has the blocks of the legacy layout, so its pixels
+        assertEquals(TestImages.digest(TestImages.roundTrip(TestImages.sample(), CompressedFormat.LEGACY)),
+                TestImages.digest(TestImages.codec(CompressedFormat.PYRAMID).decompress(compressed)));
+        assertEquals("4aab7f5363bfd2b20f1092cea051f5b18ade134fcdb4c96610ad2d5aed75adc4",
+                TestImages.digest(Decompressor.buildDecompressedImage(preview, reader.getLevelCols(0),
+                        reader.getLevelRows(0), reader.getLevelFactor(0), new BilinearFilter())));
+    }
+
+    private static MappedBlockReader reader(byte[] compressed) throws IOException {
+        return new MappedBlockReader(ByteBuffer.wrap(compressed));
+    }
+}
@@ -0,0 +1,138 @@
+import filters.ReconstructionFilter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import tools.CompressedFormat;
+import tools.ContainerHeader;
+import tools.MappedBlockReader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the variance-driven quadtree layout, which merges uniform squares of blocks into one color.
+ *
+ * @author Pepe Salcedo
+ */
+class QuadtreeFormatTest {
+    private static final int FACTOR = TestImages.FACTOR;
+
+    @Test
+    void keepsEveryBlockOfANoisyImageAtThresholdZero() throws IOException {
+        BufferedImage image = TestImages.synthetic(101, 67);
+
+        assertArrayEquals(TestImages.blocks(TestImages.codec(CompressedFormat.LEGACY, 0).compress(image)),
+                TestImages.blocks(TestImages.codec(CompressedFormat.QUADTREE, 0).compress(image)));
+    }
+
+    @Test
+    void storesAFlatImageInFewerBytesThanItsBlocks() throws IOException {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 256; x++) {
+                image.setRGB(x, y, x < 128 ? 0x204080 : 0xC08040);
+            }
+        }
+
+        byte[] quadtree = TestImages.codec(CompressedFormat.QUADTREE, 0).compress(image);
+        byte[] deflate = TestImages.codec(CompressedFormat.DEFLATE, 0).compress(image);
+
+        assertTrue(quadtree.length < deflate.length, quadtree.length + " bytes");
+        assertArrayEquals(TestImages.blocks(deflate), TestImages.blocks(quadtree));
+    }
+
+    @Test
+    void higherThresholdsMergeMoreBlocks() throws IOException {
+        BufferedImage image = TestImages.sample();
+        BufferedImage blocks = TestImages.roundTrip(image, CompressedFormat.LEGACY);
+
+        int previousSize = Integer.MAX_VALUE;
+        double previousPsnr = Double.POSITIVE_INFINITY;
+        for (double threshold : new double[]{0, 16, 64, 256}) {
+            ImageCodec codec = TestImages.codec(CompressedFormat.QUADTREE, threshold);
+            int size = codec.compress(image).length;
+            double psnr = TestImages.psnr(blocks, TestImages.roundTrip(image, codec));
+
+            assertTrue(size <= previousSize, "threshold " + threshold);
+            assertTrue(psnr <= previousPsnr, "threshold " + threshold);
+            previousSize = size;
+            previousPsnr = psnr;
+        }
+        assertTrue(previousPsnr > 25, previousPsnr + " dB");
+    }
+
+    @ParameterizedTest
+    @CsvSource({"nearest, 16", "bilinear, 64", "bicubic, 64", "lanczos, 64", "lanczos, 256", "bicubic, 0"})
+    void fillingLeavesMatchesFilteringEveryCell(String filterName, double threshold) throws IOException {
+        ReconstructionFilter filter = ReconstructionFilter.forName(filterName);
+        ImageCodec codec = new ImageCodec(FACTOR, CompressedFormat.QUADTREE, filter, threshold);
+        byte[] compressed = codec.compress(TestImages.sample());
+        MappedBlockReader reader = new MappedBlockReader(ByteBuffer.wrap(compressed));
+        int[] blocks = Decompressor.generatePixelBuffer(reader, reader.getRows(), reader.getCols());
+
+        BufferedImage everyCell = Decompressor.buildDecompressedImage(blocks, reader.getCols(), reader.getRows(),
+                FACTOR, filter);
+        assertEquals(TestImages.digest(everyCell), TestImages.digest(codec.decompress(compressed)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nearest", "bilinear", "bicubic", "lanczos"})
+    void onlyFiltersTheCellsWithinReachOfAColorEdge(String filterName) throws IOException {
+        // three leaves of 16x16 blocks side by side, the first two of the same color
+        BufferedImage image = new BufferedImage(48 * FACTOR, 16 * FACTOR, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x < 32 * FACTOR ? 0x204080 : 0xC08040);
+            }
+        }
+        ReconstructionFilter filter = ReconstructionFilter.forName(filterName);
+        byte[] compressed = TestImages.codec(CompressedFormat.QUADTREE, 0).compress(image);
+        MappedBlockReader reader = new MappedBlockReader(ByteBuffer.wrap(compressed));
+
+        Decompressor.FlatCells flatCells = Decompressor.FlatCells.forReader(reader, filter);
+        int[] blocks = Decompressor.generatePixelBuffer(reader, reader.getRows(), reader.getCols(), flatCells);
+
+        int radius = filter.getRadius();
+        for (int cellY = 0; cellY < 15; cellY++) {
+            for (int cellX = 0; cellX < 47; cellX++) {
+                boolean nearEdge = cellX >= 32 - radius && cellX < 31 + radius;
+                assertEquals(!nearEdge, flatCells.isFlat(blocks, cellX, cellY), "cell " + cellX);
+            }
+        }
+    }
+
+    @Test
+    void decodesTheSampleImageToItsGoldenOutput() throws IOException {
+        assertEquals("1434d92495944740a004a1399870d070fdc87029678321dbd2320262fa7261bb",
+                TestImages.digest(TestImages.roundTrip(TestImages.sample(), CompressedFormat.QUADTREE)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // offset in the payload, value
+            "8, 2147483647",
+            // three times this overflows an int
+            "8, 1431655766",
+            "8, 443",
+            "4, 2147483647"})
+    void rejectsCountsTheGridCannotHold(int offset, int value) throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.QUADTREE);
+        // 26x17 blocks, so 443 leaves cannot all cover one
+        ByteBuffer compressed = ByteBuffer.wrap(codec.compress(TestImages.synthetic(101, 67)));
+        compressed.putInt(ContainerHeader.SIZE + offset, value);
+
+        assertThrows(IOException.class, () -> codec.decompress(compressed));
+    }
+
+    @Test
+    void rejectsNegativeThresholds() {
+        assertThrows(IllegalArgumentException.class, () -> TestImages.codec(CompressedFormat.QUADTREE, -1));
+    }
+}
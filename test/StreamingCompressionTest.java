@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import tools.BmpCodec;
+import tools.CompressedFormat;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that compressing a BMP file band by band writes what compressing the whole image in memory writes.
+ *
+ * @author Pepe Salcedo
+ */
+class StreamingCompressionTest {
+    private static final int FACTOR = TestImages.FACTOR;
+
+    @TempDir
+    static Path directory;
+    private static BufferedImage image;
+    private static Path bmp;
+    private static Compressor compressor;
+
+    @BeforeAll
+    static void writeSource() throws IOException {
+        IOConsole console = new IOConsole();
+        compressor = Compressor.getInstance(console, FileHandler.getInstance(console));
+
+        // not a multiple of the factor, so the last band and the last block of every band are partial
+        image = TestImages.synthetic(101, 67);
+        bmp = directory.resolve("source.bmp");
+        BmpCodec.write(bmp, image);
+    }
+
+    @Test
+    void legacyFileIsTheInMemoryFile() throws IOException {
+        Path output = directory.resolve("legacy.bin");
+
+        assertTrue(compressor.compressImageStreaming(FACTOR, bmp.toString(), output.toString()));
+        assertArrayEquals(TestImages.codec(CompressedFormat.LEGACY).compress(image), Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompressedFormat.class)
+    void everyFormatDecodesLikeTheInMemoryFile(CompressedFormat format) throws IOException {
+        ImageCodec codec = TestImages.codec(format);
+        Path output = directory.resolve(format + ".bin");
+
+        assertTrue(compressor.compressImageStreaming(FACTOR, bmp.toString(), output.toString(), format,
+                QuadtreeBlockCodec.DEFAULT_THRESHOLD));
+        assertEquals(TestImages.digest(TestImages.roundTrip(image, codec)),
+                TestImages.digest(codec.decompress(Files.readAllBytes(output))));
+    }
+}
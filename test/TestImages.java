@@ -0,0 +1,191 @@
+import filters.BilinearFilter;
+import filters.ReconstructionFilter;
+import tools.BmpCodec;
+import tools.CompressedFormat;
+import tools.MappedBlockReader;
+import tools.QuadtreeBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Random;
+
+/**
+ * The `TestImages` class builds the images and codecs the tests compress with, and fingerprints what they
+ * decode to.
+ * Golden outputs are digests of decoded pixels, never of compressed bytes, since the bytes of a Deflate stream
+ * may change with the zlib the JDK bundles while the blocks it holds may not.
+ *
+ * @author Pepe Salcedo
+ */
+final class TestImages {
+    static final Path SAMPLE = Path.of("src", "images", "test1.bmp");
+    // at this factor the sample image is 160x107 blocks, so it spans several tiles in both directions
+    static final int FACTOR = 4;
+
+    private TestImages() {
+    }
+
+    /**
+     * Builds an image with smooth gradients, hard edges and a little noise, the same for every run.
+     *
+     * @param width  The width in pixels.
+     * @param height The height in pixels.
+     * @return The image, of type `TYPE_INT_RGB`.
+     */
+    static BufferedImage synthetic(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = x * 255 / Math.max(1, width - 1);
+                int green = y * 255 / Math.max(1, height - 1);
+                int blue = (x / 16 + y / 16) % 2 == 0 ? 40 : 200;
+                int noise = random.nextInt(17) - 8;
+                image.setRGB(x, y, clamp(red + noise) << 16 | clamp(green + noise) << 8 | clamp(blue + noise));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return The sample image shipped with the application.
+     * @throws IOException If it cannot be read.
+     */
+    static BufferedImage sample() throws IOException {
+        return BmpCodec.read(SAMPLE);
+    }
+
+    /**
+     * @return A codec at `FACTOR` with the bilinear filter and the default quadtree threshold.
+     */
+    static ImageCodec codec(CompressedFormat format) {
+        return codec(format, new BilinearFilter());
+    }
+
+    /**
+     * @return A codec at `FACTOR` with the given filter and the default quadtree threshold.
+     */
+    static ImageCodec codec(CompressedFormat format, ReconstructionFilter filter) {
+        return new ImageCodec(FACTOR, format, filter, QuadtreeBlockCodec.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @return A codec at `FACTOR` with the bilinear filter and the given quadtree threshold.
+     */
+    static ImageCodec codec(CompressedFormat format, double threshold) {
+        return new ImageCodec(FACTOR, format, new BilinearFilter(), threshold);
+    }
+
+    /**
+     * @return The image after compressing and decompressing it with the codec.
+     * @throws IOException If the codec cannot read back what it wrote.
+     */
+    static BufferedImage roundTrip(BufferedImage image, ImageCodec codec) throws IOException {
+        return codec.decompress(codec.compress(image));
+    }
+
+    /**
+     * @return The image after compressing and decompressing it with `codec(format)`.
+     * @throws IOException If the codec cannot read back what it wrote.
+     */
+    static BufferedImage roundTrip(BufferedImage image, CompressedFormat format) throws IOException {
+        return roundTrip(image, codec(format));
+    }
+
+    /**
+     * @return The packed RGB block colors a compressed file holds, row by row, at its compression factor.
+     * @throws IOException If the file is not a readable compressed file.
+     */
+    static int[] blocks(byte[] compressed) throws IOException {
+        MappedBlockReader reader = new MappedBlockReader(ByteBuffer.wrap(compressed));
+        int[] blocks = new int[reader.getCols() * reader.getRows()];
+        reader.readBlocks(blocks);
+        return blocks;
+    }
+
+    /**
+     * @return The packed RGB pixels of an image, row by row, without alpha.
+     */
+    static int[] pixels(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+
+    /**
+     * @return The SHA-256 of the pixels of an image, with its dimensions, in hexadecimal.
+     */
+    static String digest(BufferedImage image) {
+        int[] pixels = pixels(image);
+        byte[] bytes = new byte[8 + pixels.length * 3];
+        putInt(bytes, 0, image.getWidth());
+        putInt(bytes, 4, image.getHeight());
+        for (int i = 0, j = 8; i < pixels.length; i++, j += 3) {
+            bytes[j] = (byte) (pixels[i] >> 16);
+            bytes[j + 1] = (byte) (pixels[i] >> 8);
+            bytes[j + 2] = (byte) pixels[i];
+        }
+        return digest(bytes);
+    }
+
+    /**
+     * @return The SHA-256 of some bytes in hexadecimal.
+     */
+    static String digest(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Measures how close two images of the same size are.
+     *
+     * @return The PSNR over the three channels in decibels, or infinity if the images are identical.
+     */
+    static double psnr(BufferedImage expected, BufferedImage actual) {
+        int[] a = pixels(expected);
+        int[] b = pixels(actual);
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("The images differ in size");
+        }
+
+        double squaredError = 0;
+        for (int i = 0; i < a.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = (a[i] >> shift & 0xFF) - (b[i] >> shift & 0xFF);
+                squaredError += difference * difference;
+            }
+        }
+        double mse = squaredError / (a.length * 3.0);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    /**
+     * Crops an image to its top left pixels, the area a decompressed image covers.
+     */
+    static BufferedImage crop(BufferedImage image, int width, int height) {
+        BufferedImage cropped = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        cropped.setRGB(0, 0, width, height, image.getRGB(0, 0, width, height, null, 0, image.getWidth()), 0, width);
+        return cropped;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 24);
+        bytes[offset + 1] = (byte) (value >> 16);
+        bytes[offset + 2] = (byte) (value >> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,91 @@
+import filters.BilinearFilter;
+import filters.ReconstructionFilter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tools.CompressedFormat;
+import tools.FileHandler;
+import tools.IOConsole;
+import tools.MappedBlockReader;
+import tools.TiledBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the tiled container and decoding a region of it, on the sample image which spans several tiles in both
+ * directions.
+ *
+ * @author Pepe Salcedo
+ */
+class TiledFormatTest {
+    @TempDir
+    static Path directory;
+    private static byte[] compressed;
+    private static Path file;
+    private static Decompressor decompressor;
+
+    @BeforeAll
+    static void compressSample() throws IOException {
+        IOConsole console = new IOConsole();
+        decompressor = Decompressor.getInstance(console, FileHandler.getInstance(console));
+
+        compressed = TestImages.codec(CompressedFormat.TILED).compress(TestImages.sample());
+        file = directory.resolve("sample.bin");
+        Files.write(file, compressed);
+    }
+
+    @Test
+    void holdsEveryBlockOfTheLegacyLayout() throws IOException {
+        byte[] legacy = TestImages.codec(CompressedFormat.LEGACY).compress(TestImages.sample());
+
+        assertArrayEquals(TestImages.blocks(legacy), TestImages.blocks(compressed));
+    }
+
+    @Test
+    void decodesARegionAcrossTilesToTheSameBlocks() throws IOException {
+        MappedBlockReader reader = new MappedBlockReader(ByteBuffer.wrap(compressed));
+        int cols = reader.getCols();
+        int[] blocks = TestImages.blocks(compressed);
+
+        int x0 = TiledBlockCodec.DEFAULT_TILE_SIZE - 10;
+        int y0 = TiledBlockCodec.DEFAULT_TILE_SIZE - 5;
+        int x1 = 2 * TiledBlockCodec.DEFAULT_TILE_SIZE + 3;
+        int y1 = reader.getRows();
+        int[] region = new int[(x1 - x0) * (y1 - y0)];
+        reader.readRegion(x0, y0, x1, y1, region);
+
+        int[] expected = new int[region.length];
+        for (int y = y0; y < y1; y++) {
+            System.arraycopy(blocks, y * cols + x0, expected, (y - y0) * (x1 - x0), x1 - x0);
+        }
+        assertArrayEquals(expected, region);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nearest", "bilinear", "bicubic", "lanczos"})
+    void decompressesARegionToTheSamePixelsAsTheWholeImage(String name) throws IOException {
+        ReconstructionFilter filter = ReconstructionFilter.forName(name);
+        BufferedImage whole = TestImages.codec(CompressedFormat.TILED, filter).decompress(compressed);
+
+        // crosses the first tile boundary, at pixel 256, in both directions
+        BufferedImage region = decompressor.decompressRegion(file.toString(), 201, 230, 97, 61, filter);
+
+        assertEquals(TestImages.digest(whole.getSubimage(201, 230, 97, 61)), TestImages.digest(region));
+    }
+
+    @Test
+    void rejectsRegionsOutsideTheImage() {
+        assertThrows(IllegalArgumentException.class, () ->
+                decompressor.decompressRegion(file.toString(), 600, 0, 100, 10, new BilinearFilter()));
+    }
+}
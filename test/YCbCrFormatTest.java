@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+import tools.CompressedFormat;
+import tools.ContainerHeader;
+import tools.YCbCrBlockCodec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the YCbCr layout, which keeps luma for every block and subsamples the chroma planes.
+ *
+ * @author Pepe Salcedo
+ */
+class YCbCrFormatTest {
+    @Test
+    void keepsTheBlocksOfAGrayImage() throws IOException {
+        BufferedImage image = TestImages.synthetic(101, 67);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int gray = image.getRGB(x, y) & 0xFF;
+                image.setRGB(x, y, gray * 0x010101);
+            }
+        }
+
+        assertArrayEquals(TestImages.blocks(TestImages.codec(CompressedFormat.LEGACY).compress(image)),
+                TestImages.blocks(TestImages.codec(CompressedFormat.YCBCR).compress(image)));
+    }
+
+    @Test
+    void staysCloseToTheBlocksOfTheSampleImage() throws IOException {
+        BufferedImage image = TestImages.sample();
+
+        double psnr = TestImages.psnr(TestImages.roundTrip(image, CompressedFormat.LEGACY),
+                TestImages.roundTrip(image, CompressedFormat.YCBCR));
+
+        assertTrue(psnr > 35, psnr + " dB");
+    }
+
+    @Test
+    void storesTheSampleImageInFewerBytesThanItsBlocks() throws IOException {
+        BufferedImage image = TestImages.sample();
+
+        byte[] ycbcr = TestImages.codec(CompressedFormat.YCBCR).compress(image);
+        byte[] deflate = TestImages.codec(CompressedFormat.DEFLATE).compress(image);
+
+        assertTrue(ycbcr.length < deflate.length, ycbcr.length + " bytes");
+        assertEquals(YCbCrBlockCodec.CHROMA_SUBSAMPLING, ycbcr[ContainerHeader.SIZE]);
+    }
+
+    @Test
+    void decodesTheSampleImageToItsGoldenOutput() throws IOException {
+        assertEquals("cece04336a54c051df8fdc0fadcfd09ff5b055de54cc737e3d80ff78ceb41fa1",
+                TestImages.digest(TestImages.roundTrip(TestImages.sample(), CompressedFormat.YCBCR)));
+    }
+
+    @Test
+    void rejectsAnInvalidSubsamplingRatio() throws IOException {
+        ImageCodec codec = TestImages.codec(CompressedFormat.YCBCR);
+        byte[] compressed = codec.compress(TestImages.synthetic(32, 32));
+        compressed[ContainerHeader.SIZE] = 0;
+
+        assertThrows(IOException.class, () -> codec.decompress(compressed));
+    }
+}
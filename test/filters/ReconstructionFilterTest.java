@@ -0,0 +1,107 @@
+package filters;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests every reconstruction filter on a fixed grid of random blocks.
+ *
+ * @author Pepe Salcedo
+ */
+class ReconstructionFilterTest {
+    private static final int COLS = 9;
+    private static final int ROWS = 7;
+    private static final int FACTOR = 4;
+    private static final int WIDTH = (COLS - 1) * FACTOR;
+    private static final int HEIGHT = (ROWS - 1) * FACTOR;
+    private static final int[] BLOCKS = new Random(7).ints(COLS * ROWS, 0, 1 << 24).toArray();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nearest", "bilinear", "bicubic", "lanczos", "LANCZOS"})
+    void findsEveryFilterByName(String name) {
+        assertEquals(name.toLowerCase(), ReconstructionFilter.forName(name).getName());
+    }
+
+    @Test
+    void rejectsUnknownNames() {
+        assertThrows(IllegalArgumentException.class, () -> ReconstructionFilter.forName("sinc"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nearest", "bilinear", "bicubic", "lanczos"})
+    void keepsAFlatColorFlat(String name) {
+        int[] blocks = new int[COLS * ROWS];
+        Arrays.fill(blocks, 0x3C7FD2);
+
+        int[] expected = new int[WIDTH * HEIGHT];
+        Arrays.fill(expected, 0x3C7FD2);
+        assertArrayEquals(expected, reconstruct(ReconstructionFilter.forName(name), blocks));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nearest", "bilinear", "bicubic", "lanczos"})
+    void passesThroughEveryBlockAtTheCornerOfItsCell(String name) {
+        int[] output = reconstruct(ReconstructionFilter.forName(name), BLOCKS);
+
+        for (int y = 0; y < ROWS - 1; y++) {
+            for (int x = 0; x < COLS - 1; x++) {
+                assertEquals(BLOCKS[y * COLS + x], output[y * FACTOR * WIDTH + x * FACTOR], "block " + x + "," + y);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nearest", "bilinear", "bicubic", "lanczos"})
+    void rebuildsTheSamePixelsInAnyTiling(String name) {
+        ReconstructionFilter filter = ReconstructionFilter.forName(name);
+        int[] tiled = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < ROWS - 1; y += 2) {
+            for (int x = 0; x < COLS - 1; x += 3) {
+                filter.reconstruct(BLOCKS, COLS, ROWS, FACTOR, tiled, WIDTH, x, y,
+                        Math.min(x + 3, COLS - 1), Math.min(y + 2, ROWS - 1));
+            }
+        }
+
+        assertArrayEquals(reconstruct(filter, BLOCKS), tiled);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "nearest, ee057b4edc0263e708cc5b08dc6af929016328080732babe4f827c84e1d1bb9c",
+            "bilinear, 529ca3c41b314ac2eedbdee2c3b5c004ad61fbb6e8b3f4a3f7d1670edf1774bd",
+            "bicubic, 3d6a3f0b18df1ce43c8ff519026ae43808bc8ac5fcdd477e097f73ca517a354b",
+            "lanczos, 8ee984a862625045abfc19723418a2f633653be7b9e4347f2cb20e3b1889382e"
+    })
+    void rebuildsTheGoldenOutput(String name, String digest) {
+        assertEquals(digest, digest(reconstruct(ReconstructionFilter.forName(name), BLOCKS)));
+    }
+
+    private static int[] reconstruct(ReconstructionFilter filter, int[] blocks) {
+        int[] output = new int[WIDTH * HEIGHT];
+        filter.reconstruct(blocks, COLS, ROWS, FACTOR, output, WIDTH, 0, 0, COLS - 1, ROWS - 1);
+        return output;
+    }
+
+    private static String digest(int[] pixels) {
+        ByteBuffer bytes = ByteBuffer.allocate(pixels.length * Integer.BYTES);
+        bytes.asIntBuffer().put(pixels);
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes.array()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package filters;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests that the kernels picked at runtime compute exactly what the scalar loops compute.
+ * The build runs the tests with the vector module, so they cover `VectorKernels` there.
+ *
+ * @author Pepe Salcedo
+ */
+class SeparableKernelsTest {
+    private static final SeparableKernels LOADED = SeparableKernels.load();
+    private static final SeparableKernels SCALAR = new ScalarKernels();
+
+    @Test
+    void usesTheVectorKernelsWhenTheModuleIsResolved() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+
+        assertEquals("VectorKernels", LOADED.getClass().getSimpleName());
+    }
+
+    // lengths below, at and past a vector, so every row also runs the lane by lane tail
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 7, 8, 16, 17, 63, 100})
+    void multiplyAddMatchesTheScalarLoop(int length) {
+        Random random = new Random(length);
+        int[] source = random.ints(length + 5, -40_000, 40_000).toArray();
+        int[] expected = random.ints(length, -1 << 20, 1 << 20).toArray();
+        int[] actual = expected.clone();
+
+        for (int weight : new int[]{-2_311, 0, 9_833, 16_384}) {
+            SCALAR.multiplyAdd(weight, source, 5, expected, length);
+            LOADED.multiplyAdd(weight, source, 5, actual, length);
+        }
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 7, 8, 16, 17, 63, 100})
+    void packClampsLikeTheScalarLoop(int length) {
+        Random random = new Random(length);
+        // sums below zero and above 255 once shifted, which must both be clamped
+        int[] red = random.ints(length, -1 << 21, 1 << 22).toArray();
+        int[] green = random.ints(length, -1 << 21, 1 << 22).toArray();
+        int[] blue = random.ints(length, -1 << 21, 1 << 22).toArray();
+        int[] expected = new int[length + 3];
+        int[] actual = new int[length + 3];
+
+        SCALAR.pack(red, green, blue, 13, expected, 3, length);
+        LOADED.pack(red, green, blue, 13, actual, 3, length);
+
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,198 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that the native BMP codec reads and writes the files `ImageIO` reads and writes.
+ *
+ * @author Pepe Salcedo
+ */
+class BmpCodecTest {
+    private static final int[] RGB_MASKS = {0xFF0000, 0xFF00, 0xFF};
+    // 10 bits per channel, which the native codec leaves to `ImageIO`
+    private static final int[] WIDE_MASKS = {0x3FF00000, 0xFFC00, 0x3FF};
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @CsvSource({
+            // widths of 5 pad every 24 bit row with one byte
+            "5, 3, 24, 0",
+            "5, -3, 24, 0",
+            "8, 4, 24, 0",
+            "5, 3, 32, 0",
+            "5, -3, 32, 0",
+            "5, 3, 32, 3",
+            "5, -3, 32, 3"})
+    void readsWhatImageIoReads(int width, int height, int bitCount, int compression) throws IOException {
+        int[] masks = compression == 3 ? new int[]{0xFF, 0xFF0000, 0xFF00} : RGB_MASKS;
+        byte[] bmp = bmp(width, height, bitCount, compression, masks, colors(width * Math.abs(height)));
+        Path file = Files.write(directory.resolve("image.bmp"), bmp);
+
+        int[] expected = rgb(ImageIO.read(new ByteArrayInputStream(bmp)));
+
+        assertArrayEquals(expected, rgb(BmpCodec.read(ByteBuffer.wrap(bmp))));
+        assertArrayEquals(expected, rgb(FileHandler.getInstance(new IOConsole()).getBufferedImage(file.toString())));
+        try (BmpScanlineReader reader = new BmpScanlineReader(file)) {
+            int[] rows = new int[width * Math.abs(height)];
+            for (int row = 0; row < Math.abs(height); row++) {
+                reader.readRow(rows, reader.nextRowIndex() * width);
+            }
+            assertArrayEquals(expected, rows);
+        }
+    }
+
+    @Test
+    void leavesMasksWiderThanAByteToImageIo() throws IOException {
+        int gray = 0x200 << 20 | 0x200 << 10 | 0x200;
+        byte[] bmp = bmp(2, 2, 32, 3, WIDE_MASKS, new int[]{gray, gray, gray, gray});
+        Path file = Files.write(directory.resolve("wide.bmp"), bmp);
+
+        assertThrows(BmpCodec.UnsupportedBmpException.class, () -> BmpCodec.read(ByteBuffer.wrap(bmp)));
+        assertThrows(BmpCodec.UnsupportedBmpException.class, () -> new BmpScanlineReader(file).close());
+
+        BufferedImage image = FileHandler.getInstance(new IOConsole()).getBufferedImage(file.toString());
+        assertArrayEquals(rgb(ImageIO.read(file.toFile())), rgb(image));
+        assertEquals(0x808080, image.getRGB(0, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    void writesWhatImageIoWrites() throws IOException {
+        BufferedImage image = image(5, 3);
+
+        assertArrayEquals(imageIo(image), write(image));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0, 0", "3, 2", "5, 0"})
+    void writesSubimagesOfALargerRaster(int x, int y) throws IOException {
+        BufferedImage parent = image(10, 6);
+        BufferedImage subimage = parent.getSubimage(x, y, 5, 4);
+
+        byte[] written = write(subimage);
+
+        assertArrayEquals(imageIo(copy(subimage)), written);
+        assertArrayEquals(rgb(subimage), rgb(BmpCodec.read(ByteBuffer.wrap(written))));
+    }
+
+    @Test
+    void writesRastersStartingAtAnOffset() throws IOException {
+        int width = 5;
+        int height = 4;
+        int stride = 7;
+        int offset = 11;
+        int[] data = new int[offset + stride * height];
+        Random random = new Random(3);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt(1 << 24);
+        }
+        DataBufferInt buffer = new DataBufferInt(data, data.length - offset, offset);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, stride, RGB_MASKS, null);
+        BufferedImage image = new BufferedImage(new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF), raster, false, null);
+
+        assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+        assertArrayEquals(imageIo(copy(image)), write(image));
+    }
+
+    /**
+     * Builds a BMP file with a 40 byte info header, followed by the masks when they are bit fields.
+     *
+     * @param height Negative for a top-down file.
+     * @param pixels The packed pixels in image order, already laid out by the masks for 32 bit files.
+     */
+    private static byte[] bmp(int width, int height, int bitCount, int compression, int[] masks, int[] pixels) {
+        int rows = Math.abs(height);
+        int stride = (bitCount * width + 31) / 32 * 4;
+        int headerSize = 54 + (compression == 3 ? 12 : 0);
+        ByteBuffer file = ByteBuffer.allocate(headerSize + stride * rows).order(ByteOrder.LITTLE_ENDIAN);
+        file.put((byte) 'B').put((byte) 'M').putInt(file.capacity()).putInt(0).putInt(headerSize)
+                .putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) bitCount)
+                .putInt(compression).putInt(stride * rows).putInt(0).putInt(0).putInt(0).putInt(0);
+        if (compression == 3) {
+            file.putInt(masks[0]).putInt(masks[1]).putInt(masks[2]);
+        }
+
+        for (int row = 0; row < rows; row++) {
+            int y = height > 0 ? rows - 1 - row : row;
+            int start = file.position();
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                if (bitCount == 24) {
+                    file.put((byte) pixel).put((byte) (pixel >> 8)).put((byte) (pixel >> 16));
+                } else {
+                    file.putInt(pixel);
+                }
+            }
+            file.position(start + stride);
+        }
+        return file.array();
+    }
+
+    /**
+     * @return Random 32 bit pixels, with the top byte set so the bits outside the masks are ignored.
+     */
+    private static int[] colors(int count) {
+        return new Random(count).ints(count, 0, 1 << 24).map(rgb -> rgb | 0xFF000000).toArray();
+    }
+
+    private static BufferedImage image(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        copy.getGraphics().drawImage(image, 0, 0, null);
+        return copy;
+    }
+
+    private static byte[] write(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BmpCodec.write(image, Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    private static byte[] imageIo(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "bmp", output);
+        return output.toByteArray();
+    }
+
+    private static int[] rgb(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,148 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the keys, the stored BMP files and the eviction of the decoded image cache.
+ *
+ * @author Pepe Salcedo
+ */
+class DecodedImageCacheTest {
+    // one 10x10 image: a 54 byte header and 10 rows of 32 bytes
+    private static final long IMAGE_BYTES = 374;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keysFilesByContentAndParameters() throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20, false);
+        Path first = Files.write(directory.resolve("first.bin"), new byte[]{1, 2, 3});
+        Path copy = Files.write(directory.resolve("copy.bin"), new byte[]{1, 2, 3});
+        Path other = Files.write(directory.resolve("other.bin"), new byte[]{1, 2, 4});
+
+        assertEquals(cache.key(first, "bilinear"), cache.key(copy, "bilinear"));
+        assertNotEquals(cache.key(first, "bilinear"), cache.key(first, "lanczos"));
+        assertNotEquals(cache.key(first, "bilinear"), cache.key(other, "bilinear"));
+    }
+
+    @Test
+    void hashesAFileAgainOnceItChanges() throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20, false);
+        Path file = Files.write(directory.resolve("image.bin"), new byte[]{1, 2, 3});
+        String before = cache.key(file, "bilinear");
+
+        Files.write(file, new byte[]{1, 2, 3, 4});
+
+        assertNotEquals(before, cache.key(file, "bilinear"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void storesTheBmpFileOfTheImage(boolean offHeap) throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20, offHeap);
+        BufferedImage image = image(0x123456);
+
+        ByteBuffer stored = cache.put("a", image);
+        ByteBuffer served = cache.get("a");
+
+        assertNotNull(served);
+        assertEquals(offHeap, served.isDirect());
+        assertTrue(served.isReadOnly());
+        assertEquals(stored, served);
+        assertArrayEquals(bmp(image), bytes(served));
+        assertEquals(IMAGE_BYTES, cache.getSizeBytes());
+        assertThrows(ReadOnlyBufferException.class, () -> served.put(0, (byte) 0));
+    }
+
+    @Test
+    void countsHitsAndMisses() throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20, false);
+        cache.put("a", image(0));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("a"));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedImages() throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(2 * IMAGE_BYTES, false);
+        cache.put("a", image(0));
+        cache.put("b", image(1));
+        cache.get("a");
+        cache.put("c", image(2));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2 * IMAGE_BYTES, cache.getSizeBytes());
+    }
+
+    @Test
+    void doesNotStoreImagesLargerThanTheCache() throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(IMAGE_BYTES - 1, false);
+
+        assertNull(cache.put("a", image(0)));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    void clearsEveryImage() throws IOException {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20, false);
+        cache.put("a", image(0));
+        cache.clear();
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSizeBytes());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    private static BufferedImage image(int rgb) {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 10; x++) {
+                image.setRGB(x, y, rgb + x * 7 + y * 300);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] bmp(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BmpCodec.write(image, Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
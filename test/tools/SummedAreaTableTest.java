@@ -0,0 +1,113 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that the block averages and sums read from the summed-area tables are those of the pixels themselves,
+ * including the blocks clipped by the right and bottom edges.
+ *
+ * @author Pepe Salcedo
+ */
+class SummedAreaTableTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            // width, height, factor
+            "16, 12, 4",
+            "101, 67, 4",
+            "101, 67, 3",
+            "37, 53, 8",
+            "5, 3, 16",
+            "1, 1, 2"})
+    void averagesEveryBlockLikeItsPixels(int width, int height, int factor) {
+        int[] pixels = pixels(width, height);
+        SummedAreaTable table = table(pixels, width, height, false);
+        int blockCols = (width + factor - 1) / factor;
+        int blockRows = (height + factor - 1) / factor;
+
+        byte[] expected = new byte[blockCols * blockRows * 3];
+        for (int blockY = 0; blockY < blockRows; blockY++) {
+            for (int blockX = 0; blockX < blockCols; blockX++) {
+                long[] sums = sums(pixels, width, height, factor, blockX, blockY);
+                int index = (blockY * blockCols + blockX) * 3;
+                for (int channel = 0; channel < 3; channel++) {
+                    expected[index + channel] = (byte) (sums[channel] / sums[4]);
+                }
+
+                int rgb = (expected[index] & 0xFF) << 16 | (expected[index + 1] & 0xFF) << 8
+                        | expected[index + 2] & 0xFF;
+                assertEquals(rgb, table.averageBlock(factor, blockX, blockY), "block " + blockX + ", " + blockY);
+            }
+        }
+
+        assertArrayEquals(expected, table.averageBlocks(factor));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"16, 12, 4", "101, 67, 4", "37, 53, 8", "5, 3, 16"})
+    void sumsEveryBlockLikeItsPixels(int width, int height, int factor) {
+        int[] pixels = pixels(width, height);
+        SummedAreaTable table = table(pixels, width, height, true);
+        int blockCols = (width + factor - 1) / factor;
+        int blockRows = (height + factor - 1) / factor;
+
+        long[] expected = new long[blockCols * blockRows * QuadtreeBlockCodec.STATISTICS];
+        for (int blockY = 0; blockY < blockRows; blockY++) {
+            for (int blockX = 0; blockX < blockCols; blockX++) {
+                long[] sums = sums(pixels, width, height, factor, blockX, blockY);
+                System.arraycopy(sums, 0, expected, (blockY * blockCols + blockX) * QuadtreeBlockCodec.STATISTICS,
+                        QuadtreeBlockCodec.STATISTICS);
+            }
+        }
+
+        assertArrayEquals(expected, table.blockStatistics(factor));
+    }
+
+    @Test
+    void onlySumsSquaresWhenBuiltWithThem() {
+        SummedAreaTable table = table(pixels(8, 8), 8, 8, false);
+
+        assertThrows(IllegalStateException.class, () -> table.blockStatistics(4));
+    }
+
+    /**
+     * Adds up a block pixel by pixel.
+     *
+     * @return The red, green and blue sums, the sum of squared channels and the number of pixels in the block.
+     */
+    private static long[] sums(int[] pixels, int width, int height, int factor, int blockX, int blockY) {
+        long[] sums = new long[5];
+        for (int y = blockY * factor; y < Math.min((blockY + 1) * factor, height); y++) {
+            for (int x = blockX * factor; x < Math.min((blockX + 1) * factor, width); x++) {
+                int rgb = pixels[y * width + x];
+                for (int channel = 0; channel < 3; channel++) {
+                    int value = rgb >> (16 - 8 * channel) & 0xFF;
+                    sums[channel] += value;
+                    sums[3] += value * value;
+                }
+                sums[4]++;
+            }
+        }
+        return sums;
+    }
+
+    private static SummedAreaTable table(int[] pixels, int width, int height, boolean withSquares) {
+        SummedAreaTable table = new SummedAreaTable(width, height, withSquares);
+        for (int y = 0; y < height; y++) {
+            table.addRow(y, pixels, y * width);
+        }
+        return table;
+    }
+
+    private static int[] pixels(int width, int height) {
+        return new Random(width * 31L + height).ints(width * height, 0, 1 << 24).toArray();
+    }
+}
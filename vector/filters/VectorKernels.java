@@ -0,0 +1,55 @@
+package filters;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * @author Pepe Salcedo
+ * `SeparableKernels` written with the `jdk.incubator.vector` API, processing as many lanes as the CPU prefers
+ * and finishing every row lane by lane.
+ * This class lives in its own source set because javac always warns about incubating modules, which the
+ * `-Werror` build of the application rejects. It is only loaded through `SeparableKernels.load`.
+ */
+final class VectorKernels implements SeparableKernels {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void multiplyAdd(int weight, int[] source, int sourceOffset, int[] accumulator, int length) {
+        int bound = SPECIES.loopBound(length);
+
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            IntVector values = IntVector.fromArray(SPECIES, source, sourceOffset + i);
+            IntVector.fromArray(SPECIES, accumulator, i).add(values.mul(weight)).intoArray(accumulator, i);
+        }
+
+        for (int i = bound; i < length; i++) {
+            accumulator[i] += weight * source[sourceOffset + i];
+        }
+    }
+
+    @Override
+    public void pack(int[] red, int[] green, int[] blue, int shift, int[] output, int outputOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            IntVector r = channel(red, i, shift).lanewise(VectorOperators.LSHL, 16);
+            IntVector g = channel(green, i, shift).lanewise(VectorOperators.LSHL, 8);
+            r.or(g).or(channel(blue, i, shift)).intoArray(output, outputOffset + i);
+        }
+
+        for (int i = bound; i < length; i++) {
+            output[outputOffset + i] = clampChannel(red[i] >> shift) << 16
+                    | clampChannel(green[i] >> shift) << 8
+                    | clampChannel(blue[i] >> shift);
+        }
+    }
+
+    private static IntVector channel(int[] sums, int index, int shift) {
+        return IntVector.fromArray(SPECIES, sums, index).lanewise(VectorOperators.ASHR, shift).max(0).min(255);
+    }
+
+    private static int clampChannel(int value) {
+        return Math.max(0, Math.min(value, 255));
+    }
+}